@@ -0,0 +1,71 @@
+package org.janelia.saalfeldlab.n5.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.janelia.saalfeldlab.n5.ij.N5ScalePyramidExporter;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+
+/**
+ * Synthetic inputs shared by the benchmarks, written to temporary
+ * directories on the local file system.
+ */
+final class BenchmarkData {
+
+	static final int WIDTH = 512;
+
+	static final int HEIGHT = 512;
+
+	static final int DEPTH = 64;
+
+	private BenchmarkData() {}
+
+	/**
+	 * Creates a noise image whose values compress about as badly as those of
+	 * real microscopy data.
+	 */
+	static ImagePlus image(final int bitDepth) {
+
+		return NewImage.createImage("benchmark", WIDTH, HEIGHT, DEPTH, bitDepth, NewImage.FILL_NOISE);
+	}
+
+	/**
+	 * Returns the path of a new container of the given storage format in a
+	 * fresh temporary directory.
+	 */
+	static String createRoot(final String format) throws IOException {
+
+		final File dir = Files.createTempDirectory("n5-ij-benchmark-").toFile();
+		final String extension;
+		switch (format) {
+		case N5ScalePyramidExporter.ZARR_FORMAT:
+			extension = ".zarr";
+			break;
+		case N5ScalePyramidExporter.HDF5_FORMAT:
+			extension = ".h5";
+			break;
+		default:
+			extension = ".n5";
+		}
+		return new File(dir, "benchmark" + extension).getCanonicalPath();
+	}
+
+	/**
+	 * Deletes the temporary directory containing a root created by
+	 * {@link #createRoot(String)}.
+	 */
+	static void delete(final String root) throws IOException {
+
+		final Path dir = new File(root).getParentFile().toPath();
+		try (Stream<Path> paths = Files.walk(dir)) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package org.janelia.saalfeldlab.n5.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.ij.N5IJUtils;
+import org.janelia.saalfeldlab.n5.ij.N5Importer;
+import org.janelia.saalfeldlab.n5.ij.N5ScalePyramidExporter;
+import org.janelia.saalfeldlab.n5.ij.SharedBlockCache;
+import org.janelia.saalfeldlab.n5.universe.N5DatasetDiscoverer;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5DatasetMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import net.imglib2.exception.ImgLibException;
+
+/**
+ * Reads a dataset with {@link N5Importer#read} and {@link N5IJUtils#load}.
+ * Virtual images are read completely, plane by plane, with an empty block
+ * cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImportBenchmark {
+
+	private static final String DATASET = "benchmark";
+
+	@State(Scope.Benchmark)
+	public static class Container {
+
+		@Param({N5ScalePyramidExporter.N5_FORMAT, N5ScalePyramidExporter.ZARR_FORMAT, N5ScalePyramidExporter.HDF5_FORMAT})
+		public String format;
+
+		@Param({"8", "16", "32"})
+		public int bitDepth;
+
+		String root;
+
+		N5Writer n5;
+
+		N5DatasetMetadata metadata;
+
+		ExecutorService exec;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+
+			root = BenchmarkData.createRoot(format);
+			n5 = new N5Factory().openWriter(root);
+			N5IJUtils.save(BenchmarkData.image(bitDepth), n5, DATASET, new int[]{64, 64, 64}, new RawCompression());
+
+			final N5DatasetDiscoverer discoverer = new N5DatasetDiscoverer(n5, N5DatasetDiscoverer.fromParsers(N5Importer.PARSERS), null);
+			metadata = (N5DatasetMetadata)discoverer.parse(DATASET).getMetadata();
+			exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+
+			exec.shutdown();
+			n5.close();
+			BenchmarkData.delete(root);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Virtual {
+
+		@Param({"false", "true"})
+		public boolean virtual;
+
+		@Setup(Level.Invocation)
+		public void clearCache() {
+
+			SharedBlockCache.getDefault().clear();
+		}
+	}
+
+	@Benchmark
+	public ImagePlus read(final Container container, final Virtual mode) throws IOException {
+
+		final ImagePlus imp = N5Importer.read(container.n5, container.exec, container.metadata, null, mode.virtual, null);
+		if (mode.virtual) {
+			final ImageStack stack = imp.getStack();
+			for (int i = 1; i <= stack.getSize(); i++)
+				stack.getProcessor(i);
+		}
+		return imp;
+	}
+
+	@Benchmark
+	public ImagePlus load(final Container container) throws IOException, ImgLibException {
+
+		return N5IJUtils.load(container.n5, DATASET);
+	}
+
+	@Benchmark
+	public ImagePlus loadParallel(final Container container) throws IOException, ImgLibException {
+
+		return N5IJUtils.load(container.n5, DATASET, null, null, container.exec);
+	}
+
+}
@@ -0,0 +1,161 @@
+package org.janelia.saalfeldlab.n5.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.saalfeldlab.n5.ij.N5Importer;
+import org.janelia.saalfeldlab.n5.ij.N5ScalePyramidExporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+
+/**
+ * Writes a scale pyramid with {@link N5ScalePyramidExporter#processMultiscale()}
+ * for every compression and downsampling method. Every format is benchmarked
+ * with the compressions it supports: all of them for n5, all but lz4 and xz
+ * for zarr, and only raw and gzip for HDF5.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScalePyramidExportBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class N5Container {
+
+		@Param({
+				N5ScalePyramidExporter.RAW_COMPRESSION,
+				N5ScalePyramidExporter.GZIP_COMPRESSION,
+				N5ScalePyramidExporter.LZ4_COMPRESSION,
+				N5ScalePyramidExporter.XZ_COMPRESSION,
+				N5ScalePyramidExporter.BLOSC_COMPRESSION,
+				N5ScalePyramidExporter.ZSTD_COMPRESSION})
+		public String compression;
+
+		@Param({N5ScalePyramidExporter.DOWN_SAMPLE, N5ScalePyramidExporter.DOWN_AVERAGE, N5ScalePyramidExporter.DOWN_MODE})
+		public String downsampleMethod;
+
+		ImagePlus imp;
+
+		String root;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+
+			imp = BenchmarkData.image(16);
+			root = BenchmarkData.createRoot(N5ScalePyramidExporter.N5_FORMAT);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+
+			BenchmarkData.delete(root);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ZarrContainer {
+
+		@Param({
+				N5ScalePyramidExporter.RAW_COMPRESSION,
+				N5ScalePyramidExporter.GZIP_COMPRESSION,
+				N5ScalePyramidExporter.BLOSC_COMPRESSION,
+				N5ScalePyramidExporter.ZSTD_COMPRESSION})
+		public String compression;
+
+		@Param({N5ScalePyramidExporter.DOWN_SAMPLE, N5ScalePyramidExporter.DOWN_AVERAGE, N5ScalePyramidExporter.DOWN_MODE})
+		public String downsampleMethod;
+
+		ImagePlus imp;
+
+		String root;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+
+			imp = BenchmarkData.image(16);
+			root = BenchmarkData.createRoot(N5ScalePyramidExporter.ZARR_FORMAT);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+
+			BenchmarkData.delete(root);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Hdf5Container {
+
+		@Param({N5ScalePyramidExporter.RAW_COMPRESSION, N5ScalePyramidExporter.GZIP_COMPRESSION})
+		public String compression;
+
+		@Param({N5ScalePyramidExporter.DOWN_SAMPLE, N5ScalePyramidExporter.DOWN_AVERAGE, N5ScalePyramidExporter.DOWN_MODE})
+		public String downsampleMethod;
+
+		ImagePlus imp;
+
+		String root;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+
+			imp = BenchmarkData.image(16);
+			root = BenchmarkData.createRoot(N5ScalePyramidExporter.HDF5_FORMAT);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+
+			BenchmarkData.delete(root);
+		}
+	}
+
+	@Benchmark
+	public void n5(final N5Container state) throws IOException, InterruptedException, ExecutionException {
+
+		export(state.imp, state.root, N5ScalePyramidExporter.N5_FORMAT, state.compression, state.downsampleMethod);
+	}
+
+	@Benchmark
+	public void zarr(final ZarrContainer state) throws IOException, InterruptedException, ExecutionException {
+
+		export(state.imp, state.root, N5ScalePyramidExporter.ZARR_FORMAT, state.compression, state.downsampleMethod);
+	}
+
+	@Benchmark
+	public void hdf5(final Hdf5Container state) throws IOException, InterruptedException, ExecutionException {
+
+		export(state.imp, state.root, N5ScalePyramidExporter.HDF5_FORMAT, state.compression, state.downsampleMethod);
+	}
+
+	private static void export(
+			final ImagePlus imp,
+			final String root,
+			final String format,
+			final String compression,
+			final String downsampleMethod) throws IOException, InterruptedException, ExecutionException {
+
+		final N5ScalePyramidExporter exporter = new N5ScalePyramidExporter();
+		exporter.setOptions(imp, root, "benchmark", format, "64", true, downsampleMethod,
+				N5Importer.MetadataN5ViewerKey, compression);
+		exporter.setOverwrite(true);
+		exporter.processMultiscale();
+	}
+
+}
@@ -0,0 +1,74 @@
+package org.janelia.saalfeldlab.n5.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.ij.N5IJUtils;
+import org.janelia.saalfeldlab.n5.ij.N5ScalePyramidExporter;
+import org.janelia.saalfeldlab.n5.ij.N5SubsetExporter;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+
+/**
+ * Writes a subset into an existing dataset with {@link N5SubsetExporter}, at
+ * an offset that is not aligned to the chunk grid.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SubsetExportBenchmark {
+
+	private static final String DATASET = "benchmark";
+
+	@Param({N5ScalePyramidExporter.N5_FORMAT, N5ScalePyramidExporter.ZARR_FORMAT, N5ScalePyramidExporter.HDF5_FORMAT})
+	public String format;
+
+	private String root;
+
+	private ImagePlus subset;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+
+		root = BenchmarkData.createRoot(format);
+		final N5Writer n5 = new N5Factory().openWriter(root);
+		N5IJUtils.save(BenchmarkData.image(8), n5, DATASET, new int[]{64, 64, 64}, new RawCompression());
+		n5.close();
+
+		subset = NewImage.createImage("subset", 200, 200, 32, 8, NewImage.FILL_NOISE);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+
+		BenchmarkData.delete(root);
+	}
+
+	@Benchmark
+	public void writeSubset() throws IOException, InterruptedException, ExecutionException {
+
+		new N5SubsetExporter(subset, root, DATASET, new long[]{37, 101, 13}).process();
+	}
+
+}
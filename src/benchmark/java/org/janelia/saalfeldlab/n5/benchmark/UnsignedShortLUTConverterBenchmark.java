@@ -0,0 +1,81 @@
+package org.janelia.saalfeldlab.n5.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.saalfeldlab.n5.converters.UnsignedShortLUTConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.numeric.integer.LongType;
+
+/**
+ * Builds the look-up-table of an {@link UnsignedShortLUTConverter} for a
+ * label image with the given number of unique values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UnsignedShortLUTConverterBenchmark {
+
+	@Param({"100", "10000", "60000"})
+	public int numUniqueValues;
+
+	private ArrayImg<LongType, LongArray> img;
+
+	private ExecutorService exec;
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		final Random random = new Random(42);
+		final long[] labels = new long[numUniqueValues];
+		for (int i = 0; i < labels.length; i++)
+			labels[i] = random.nextLong();
+
+		img = ArrayImgs.longs(BenchmarkData.WIDTH, BenchmarkData.HEIGHT, BenchmarkData.DEPTH);
+		for (final LongType t : img)
+			t.set(labels[random.nextInt(labels.length)]);
+
+		exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+
+		exec.shutdown();
+	}
+
+	@Benchmark
+	public UnsignedShortLUTConverter<LongType> iterable() {
+
+		return new UnsignedShortLUTConverter<>(img);
+	}
+
+	@Benchmark
+	public UnsignedShortLUTConverter<LongType> parallel() throws InterruptedException, ExecutionException {
+
+		return new UnsignedShortLUTConverter<>(UnsignedShortLUTConverter.uniqueValues(img, exec));
+	}
+
+}
@@ -0,0 +1,198 @@
+package org.janelia.saalfeldlab.n5.converters;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs backed by an open-addressing hash table with
+ * linear probing.
+ * <p>
+ * Adding a value allocates nothing unless the table has to grow. Zero marks
+ * empty slots and is tracked separately.
+ */
+public class LongHashSet {
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private long[] keys;
+
+	private int mask;
+
+	private int size;
+
+	private boolean containsZero;
+
+	public LongHashSet() {
+
+		this(DEFAULT_CAPACITY);
+	}
+
+	public LongHashSet(final int expectedSize) {
+
+		allocate(tableSize(expectedSize));
+	}
+
+	/**
+	 * Adds a value to this set.
+	 *
+	 * @param key
+	 *            the value
+	 * @return true if the value was not yet present
+	 */
+	public boolean add(final long key) {
+
+		if (key == 0) {
+			final boolean added = !containsZero;
+			containsZero = true;
+			return added;
+		}
+
+		int i = hash(key) & mask;
+		while (true) {
+			final long k = keys[i];
+			if (k == 0) {
+				keys[i] = key;
+				if (++size > keys.length / 2)
+					grow();
+
+				return true;
+			} else if (k == key)
+				return false;
+
+			i = (i + 1) & mask;
+		}
+	}
+
+	public boolean contains(final long key) {
+
+		if (key == 0)
+			return containsZero;
+
+		int i = hash(key) & mask;
+		while (true) {
+			final long k = keys[i];
+			if (k == 0)
+				return false;
+			else if (k == key)
+				return true;
+
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Adds all values of another set to this set.
+	 *
+	 * @param other
+	 *            the other set
+	 */
+	public void addAll(final LongHashSet other) {
+
+		if (other.containsZero)
+			containsZero = true;
+
+		for (final long k : other.keys)
+			if (k != 0)
+				add(k);
+	}
+
+	public int size() {
+
+		return containsZero ? size + 1 : size;
+	}
+
+	public boolean isEmpty() {
+
+		return size() == 0;
+	}
+
+	/**
+	 * Returns the values of this set in no particular order.
+	 *
+	 * @return the values
+	 */
+	public long[] toArray() {
+
+		final long[] values = new long[size()];
+		int j = 0;
+		if (containsZero)
+			values[j++] = 0;
+
+		for (final long k : keys)
+			if (k != 0)
+				values[j++] = k;
+
+		return values;
+	}
+
+	/**
+	 * Returns the values of this set in ascending order.
+	 *
+	 * @param unsigned
+	 *            whether values are interpreted as unsigned 64-bit integers
+	 * @return the sorted values
+	 */
+	public long[] toSortedArray(final boolean unsigned) {
+
+		final long[] values = toArray();
+		sort(values, unsigned);
+		return values;
+	}
+
+	/**
+	 * Sorts an array of longs in ascending order, optionally interpreting the
+	 * values as unsigned 64-bit integers.
+	 *
+	 * @param values
+	 *            the values
+	 * @param unsigned
+	 *            whether values are interpreted as unsigned
+	 */
+	public static void sort(final long[] values, final boolean unsigned) {
+
+		if (!unsigned) {
+			Arrays.sort(values);
+			return;
+		}
+
+		// flipping the sign bit maps unsigned order to signed order
+		for (int i = 0; i < values.length; i++)
+			values[i] ^= Long.MIN_VALUE;
+
+		Arrays.sort(values);
+
+		for (int i = 0; i < values.length; i++)
+			values[i] ^= Long.MIN_VALUE;
+	}
+
+	static int hash(final long key) {
+
+		final long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	static int tableSize(final int expectedSize) {
+
+		int n = 16;
+		while (n < 2L * expectedSize && n < (1 << 30))
+			n <<= 1;
+
+		return n;
+	}
+
+	private void allocate(final int capacity) {
+
+		keys = new long[capacity];
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	private void grow() {
+
+		final long[] oldKeys = keys;
+		allocate(keys.length * 2);
+		for (final long k : oldKeys)
+			if (k != 0)
+				add(k);
+	}
+
+}
@@ -0,0 +1,130 @@
+package org.janelia.saalfeldlab.n5.converters;
+
+/**
+ * A map from primitive longs to primitive ints backed by an open-addressing
+ * hash table with linear probing.
+ * <p>
+ * Lookups never allocate. Zero marks empty slots and is tracked separately.
+ */
+public class LongIntHashMap {
+
+	private final int missingValue;
+
+	private long[] keys;
+
+	private int[] values;
+
+	private int mask;
+
+	private int size;
+
+	private boolean containsZero;
+
+	private int zeroValue;
+
+	/**
+	 * @param expectedSize
+	 *            the expected number of entries
+	 * @param missingValue
+	 *            the value returned by {@link #get(long)} for absent keys
+	 */
+	public LongIntHashMap(final int expectedSize, final int missingValue) {
+
+		this.missingValue = missingValue;
+		allocate(LongHashSet.tableSize(expectedSize));
+	}
+
+	/**
+	 * Creates a map from every value to its index in the given array.
+	 *
+	 * @param keys
+	 *            the keys
+	 * @param missingValue
+	 *            the value returned by {@link #get(long)} for absent keys
+	 * @return the map
+	 */
+	public static LongIntHashMap indexOf(final long[] keys, final int missingValue) {
+
+		final LongIntHashMap map = new LongIntHashMap(keys.length, missingValue);
+		for (int i = 0; i < keys.length; i++)
+			map.put(keys[i], i);
+
+		return map;
+	}
+
+	public void put(final long key, final int value) {
+
+		if (key == 0) {
+			containsZero = true;
+			zeroValue = value;
+			return;
+		}
+
+		int i = LongHashSet.hash(key) & mask;
+		while (true) {
+			final long k = keys[i];
+			if (k == 0) {
+				keys[i] = key;
+				values[i] = value;
+				if (++size > keys.length / 2)
+					grow();
+
+				return;
+			} else if (k == key) {
+				values[i] = value;
+				return;
+			}
+
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns the value for the given key, or the missing value if the key
+	 * is absent.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value
+	 */
+	public int get(final long key) {
+
+		if (key == 0)
+			return containsZero ? zeroValue : missingValue;
+
+		int i = LongHashSet.hash(key) & mask;
+		while (true) {
+			final long k = keys[i];
+			if (k == key)
+				return values[i];
+			else if (k == 0)
+				return missingValue;
+
+			i = (i + 1) & mask;
+		}
+	}
+
+	public int size() {
+
+		return containsZero ? size + 1 : size;
+	}
+
+	private void allocate(final int capacity) {
+
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	private void grow() {
+
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldKeys[i] != 0)
+				put(oldKeys[i], oldValues[i]);
+	}
+
+}
@@ -1,25 +1,36 @@
 package org.janelia.saalfeldlab.n5.converters;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 
 import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
 import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.Converter;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.integer.AbstractIntegerType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
 
 /**
  * Simple sorted look-up-table {@link Converter} from an {@link AbstractIntegerType} to an {@link UnsignedShortType}.
  * When constructed from an {@link IterableInterval}, this will map the unique values found to [0,N-1] such that ordering is preserved.
+ * <p>
+ * Unique values are collected into primitive {@link LongHashSet}s, and lookups go through a primitive
+ * {@link LongIntHashMap}, so that neither building the table nor converting a pixel allocates per pixel.
+ * Use {@link #uniqueValues(RandomAccessibleInterval, ExecutorService)} to collect the values of large images in parallel.
  *
- * 
- *  
  * Performs no error checking. Calling convert with a value not in the look-up-table
- * will throw an error.
- * 
+ * will produce an undefined result.
+ *
  * @author John Bogovic
  *
  * @param <T> input type
@@ -27,30 +38,45 @@ import net.imglib2.type.numeric.integer.UnsignedShortType;
 public class UnsignedShortLUTConverter< T extends AbstractIntegerType< T > > implements Converter< T, UnsignedShortType >, BiConsumer< T, UnsignedShortType >
 {
 
-	private Map< T, Integer > lut;
+	// minimum number of elements per task when collecting unique values in parallel
+	private static final long MIN_ELEMENTS_PER_TASK = 1 << 16;
+
+	private static final int TASKS_PER_THREAD = 4;
+
+	private final LongIntHashMap lut;
 
 	public UnsignedShortLUTConverter( Map< T, Integer > lut )
 	{
-		this.lut = lut;
+		this.lut = new LongIntHashMap( lut.size(), -1 );
+		for ( final Map.Entry< T, Integer > e : lut.entrySet() )
+			this.lut.put( e.getKey().getIntegerLong(), e.getValue() );
 	}
 
 	public UnsignedShortLUTConverter( final IterableInterval< T > img )
 	{
-		TreeSet< T > values = uniqueValues( img );
-		lut = new HashMap<>();
+		this( sortedUniqueValues( img ) );
+	}
 
-		int i = 0;
-		for( T t : values )
-			lut.put( t, i++ );
+	/**
+	 * Maps every value to its index in the given array.
+	 *
+	 * @param sortedValues the sorted unique values, as returned by
+	 *        {@link #uniqueValues(RandomAccessibleInterval, ExecutorService)}
+	 */
+	public UnsignedShortLUTConverter( final long[] sortedValues )
+	{
+		lut = LongIntHashMap.indexOf( sortedValues, -1 );
 	}
-	
+
 	/**
 	 * Returns the unique values in the {@link IterableInterval}, sorted as a {@link TreeSet}.
-	 * 
-	 * @param <T> the image data type 
+	 *
+	 * @param <T> the image data type
 	 * @param img the iterable
 	 * @return the unique values
+	 * @deprecated boxes every value, use {@link #uniqueValues(RandomAccessibleInterval, ExecutorService)}
 	 */
+	@Deprecated
 	public static < T extends AbstractIntegerType< T > > TreeSet<T> uniqueValues( final IterableInterval<T> img )
 	{
 		TreeSet< T > uniqueValues = new TreeSet<>();
@@ -61,6 +87,72 @@ public class UnsignedShortLUTConverter< T extends AbstractIntegerType< T > > imp
 		return uniqueValues;
 	}
 
+	/**
+	 * Returns the sorted unique values of an image. The image is split into blocks
+	 * whose values are collected in parallel, then merged and sorted.
+	 * <p>
+	 * Values of {@link UnsignedLongType} images are sorted as unsigned integers.
+	 *
+	 * @param <T> the image data type
+	 * @param img the image
+	 * @param exec the executor service
+	 * @return the sorted unique values
+	 * @throws InterruptedException interrupted
+	 * @throws ExecutionException execution
+	 */
+	public static < T extends IntegerType< T > > long[] uniqueValues( final RandomAccessibleInterval< T > img, final ExecutorService exec )
+			throws InterruptedException, ExecutionException
+	{
+		final List< Future< LongHashSet > > futures = new ArrayList<>();
+		for ( final FinalInterval block : blocks( img, TASKS_PER_THREAD * Runtime.getRuntime().availableProcessors() ) )
+			futures.add( exec.submit( () -> collect( Views.flatIterable( Views.interval( img, block ) ) ) ) );
+
+		final LongHashSet values = new LongHashSet();
+		for ( final Future< LongHashSet > f : futures )
+			values.addAll( f.get() );
+
+		return values.toSortedArray( img.getType() instanceof UnsignedLongType );
+	}
+
+	private static < T extends AbstractIntegerType< T > > long[] sortedUniqueValues( final IterableInterval< T > img )
+	{
+		return collect( img ).toSortedArray( img.firstElement() instanceof UnsignedLongType );
+	}
+
+	private static < T extends IntegerType< T > > LongHashSet collect( final IterableInterval< T > img )
+	{
+		final LongHashSet values = new LongHashSet();
+		final Cursor< T > c = img.cursor();
+		while ( c.hasNext() )
+			values.add( c.next().getIntegerLong() );
+
+		return values;
+	}
+
+	/**
+	 * Splits an interval along its last dimension into at most numBlocks slabs.
+	 */
+	private static List< FinalInterval > blocks( final RandomAccessibleInterval< ? > img, final int numBlocks )
+	{
+		final int nd = img.numDimensions();
+		final long[] min = img.minAsLongArray();
+		final long[] max = img.maxAsLongArray();
+		final long n = Math.max( 1, Math.min( numBlocks, img.size() / MIN_ELEMENTS_PER_TASK ) );
+		final long step = Math.max( 1, ( img.dimension( nd - 1 ) + n - 1 ) / n );
+
+		final List< FinalInterval > blocks = new ArrayList<>();
+		final long last = max[ nd - 1 ];
+		for ( long start = min[ nd - 1 ]; start <= last; start += step )
+		{
+			final long[] blockMin = min.clone();
+			final long[] blockMax = max.clone();
+			blockMin[ nd - 1 ] = start;
+			blockMax[ nd - 1 ] = Math.min( last, start + step - 1 );
+			blocks.add( new FinalInterval( blockMin, blockMax ) );
+		}
+		return blocks;
+	}
+
 	@Override
 	public void accept( T t, UnsignedShortType out )
 	{
@@ -70,7 +162,7 @@ public class UnsignedShortLUTConverter< T extends AbstractIntegerType< T > > imp
 	@Override
 	public void convert( T t, UnsignedShortType output )
 	{
-		output.setInteger( lut.get( t ));
+		output.setInteger( lut.get( t.getIntegerLong() ) );
 	}
 
 }
@@ -28,10 +28,24 @@ public class UnsignedShortLinearConverter< T extends AbstractIntegerType< T > >
 
 	public UnsignedShortLinearConverter( final IterableInterval<T> img )
 	{
-		TreeSet< Long > values = uniqueValues( img );
-		long min = values.first();
-		long max = values.last();
+		this( uniqueValues( img ) );
+	}
+
+	private UnsignedShortLinearConverter( final TreeSet< Long > values )
+	{
+		this( values.first(), values.last() );
+	}
 
+	/**
+	 * Linearly maps [min, max] to [0, 65535], or is the identity if [min, max]
+	 * already fits. Values outside of [min, max] are clamped, so the range may
+	 * be an estimate.
+	 *
+	 * @param min the minimum value
+	 * @param max the maximum value
+	 */
+	public UnsignedShortLinearConverter( final long min, final long max )
+	{
 		if( min > 0 && max <= MAXUSHORT )
 		{
 			isIdentity = true;
@@ -75,10 +89,13 @@ public class UnsignedShortLinearConverter< T extends AbstractIntegerType< T > >
 	@Override
 	public void convert( T t, UnsignedShortType output )
 	{
+		final long v;
 		if( isIdentity )
-			output.setInteger( t.getInteger() );
+			v = t.getIntegerLong();
 		else
-			output.setInteger( Math.round( m * ( b + t.getIntegerLong() ))); 
+			v = Math.round( m * ( b + t.getIntegerLong() ));
+
+		output.setInteger( Math.max( 0, Math.min( MAXUSHORT, v ) ) );
 	}
 
 
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.blocks.BlockSupplier;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.type.NativeType;
+import net.imglib2.view.Views;
+
+/**
+ * Lazily downsampled images whose cells are computed from blocks of the
+ * source by a kernel on primitive arrays, and cached on demand.
+ * <p>
+ * Every level of a pyramid built this way reads whole blocks from the cells
+ * of the level before it, instead of fetching single pixels through a chain
+ * of views back to the full resolution image.
+ */
+public final class BlockDownsampling {
+
+	/**
+	 * Downsamples a flattened primitive array.
+	 */
+	@FunctionalInterface
+	public interface Kernel {
+
+		/**
+		 * @param src
+		 *            the source array
+		 * @param srcSize
+		 *            the dimensions of the source array
+		 * @param dest
+		 *            the destination array, of the same primitive type as src
+		 * @param destSize
+		 *            the dimensions of the destination array
+		 * @param factors
+		 *            the downsampling factors
+		 */
+		void downsample(Object src, int[] srcSize, Object dest, int[] destSize, int[] factors);
+	}
+
+	private BlockDownsampling() {}
+
+	/**
+	 * Returns a lazily downsampled view of an image. The block of the source
+	 * passed to the kernel for a cell starts at the cell minimum times the
+	 * factors, and is cut off at the border of the source.
+	 *
+	 * @param <T>
+	 *            the image data type
+	 * @param img
+	 *            the image
+	 * @param factors
+	 *            the downsampling factors
+	 * @param dimensions
+	 *            the dimensions of the downsampled image
+	 * @param cellDimensions
+	 *            the cell dimensions of the downsampled image
+	 * @param maxCachedCells
+	 *            the maximum number of cells kept in memory, or 0 to keep
+	 *            cells until the garbage collector needs the memory
+	 * @param kernel
+	 *            the kernel
+	 * @return the downsampled image
+	 */
+	public static <T extends NativeType<T>> RandomAccessibleInterval<T> cellImg(
+			final RandomAccessibleInterval<T> img,
+			final int[] factors,
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final long maxCachedCells,
+			final Kernel kernel) {
+
+		final RandomAccessibleInterval<T> source = Views.zeroMin(img);
+		final long[] sourceDimensions = source.dimensionsAsLongArray();
+		final BlockSupplier<T> blocks = BlockSupplier.of(source).threadSafe();
+		final DataType dataType = N5Utils.dataType(source.getType());
+		final int nd = dimensions.length;
+
+		return factory(cellDimensions, maxCachedCells)
+				.create(dimensions, source.getType().createVariable(), cell -> {
+
+					final long[] srcMin = new long[nd];
+					final int[] srcSize = new int[nd];
+					final int[] size = new int[nd];
+					for (int d = 0; d < nd; d++) {
+						size[d] = (int)cell.dimension(d);
+						srcMin[d] = cell.min(d) * factors[d];
+						srcSize[d] = (int)Math.max(1, Math.min((long)size[d] * factors[d], sourceDimensions[d] - srcMin[d]));
+						srcMin[d] = Math.min(srcMin[d], sourceDimensions[d] - 1);
+					}
+
+					final Object src = dataType.createDataBlock(srcSize, new long[nd]).getData();
+					blocks.copy(srcMin, src, srcSize);
+					kernel.downsample(src, srcSize, PrimitiveArrays.storageArray(cell), size, factors);
+				});
+	}
+
+	/**
+	 * Returns an image whose cells are copied from a {@link BlockSupplier},
+	 * e.g. one that downsamples its source, and cached on demand.
+	 *
+	 * @param <T>
+	 *            the image data type
+	 * @param blocks
+	 *            the block supplier
+	 * @param dimensions
+	 *            the dimensions of the image
+	 * @param cellDimensions
+	 *            the cell dimensions of the image
+	 * @param maxCachedCells
+	 *            the maximum number of cells kept in memory, or 0 to keep
+	 *            cells until the garbage collector needs the memory
+	 * @return the image
+	 */
+	public static <T extends NativeType<T>> RandomAccessibleInterval<T> cellImg(
+			final BlockSupplier<T> blocks,
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final long maxCachedCells) {
+
+		final BlockSupplier<T> threadSafeBlocks = blocks.threadSafe();
+		final int nd = dimensions.length;
+
+		return factory(cellDimensions, maxCachedCells)
+				.create(dimensions, blocks.getType().createVariable(), cell -> {
+
+					final int[] size = new int[nd];
+					for (int d = 0; d < nd; d++)
+						size[d] = (int)cell.dimension(d);
+
+					threadSafeBlocks.copy(cell.minAsLongArray(), PrimitiveArrays.storageArray(cell), size);
+				});
+	}
+
+	private static ReadOnlyCachedCellImgFactory factory(final int[] cellDimensions, final long maxCachedCells) {
+
+		ReadOnlyCachedCellImgOptions options = ReadOnlyCachedCellImgOptions.options().cellDimensions(cellDimensions);
+		if (maxCachedCells > 0)
+			options = options.cacheType(CacheType.BOUNDED).maxCacheSize(maxCachedCells);
+
+		return new ReadOnlyCachedCellImgFactory(options);
+	}
+
+}
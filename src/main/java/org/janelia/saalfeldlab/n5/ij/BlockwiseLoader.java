@@ -0,0 +1,310 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import ij.IJ;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.imageplus.ImagePlusImg;
+
+/**
+ * Loads a dataset, or a region of it, into planar primitive arrays as used by
+ * {@link ImagePlusImg} and ImageJ's image stacks.
+ * <p>
+ * Every block is read once with {@link N5Reader#readBlock} and its rows are
+ * copied into the planes with {@link System#arraycopy}, without going through
+ * a cell cache or per-pixel accessors. Blocks are read in parallel.
+ * <p>
+ * The planes hold the region in the order of the dataset, flattened with the
+ * first dimension varying fastest, and split into consecutive planes of equal
+ * size. The plane size must be a multiple of the size of the region along
+ * the first dimension, see {@link #canLoad}.
+ */
+public class BlockwiseLoader {
+
+	private BlockwiseLoader() {}
+
+	/**
+	 * Checks whether blocks of the given type can be copied directly, i.e.
+	 * whether the primitive arrays of its blocks are the primitive arrays
+	 * used by ImageJ for the same type.
+	 *
+	 * @param type
+	 *            the data type
+	 * @return true if the type is supported
+	 */
+	public static boolean isSupported(final DataType type) {
+
+		switch (type) {
+		case UINT8:
+		case INT8:
+		case UINT16:
+		case INT16:
+		case UINT32:
+		case INT32:
+		case FLOAT32:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Checks whether a region of a dataset can be loaded into planes of the
+	 * given size.
+	 *
+	 * @param attributes
+	 *            the dataset attributes
+	 * @param interval
+	 *            the region, or null for the whole dataset
+	 * @param planeSize
+	 *            the number of elements of a plane
+	 * @return true if the region can be loaded
+	 */
+	public static boolean canLoad(final DatasetAttributes attributes, final Interval interval, final int planeSize) {
+
+		final long rowLength = interval == null ? attributes.getDimensions()[0] : interval.dimension(0);
+		return isSupported(attributes.getDataType()) && planeSize % rowLength == 0;
+	}
+
+	/**
+	 * Checks whether an axis permutation, as returned by
+	 * {@link org.janelia.saalfeldlab.n5.universe.metadata.axes.AxisUtils#findImagePlusPermutation},
+	 * keeps the axes of the dataset in order, possibly inserting singleton
+	 * axes, so that the flattened data does not change.
+	 *
+	 * @param permutation
+	 *            the permutation
+	 * @return true if the order is preserved
+	 */
+	public static boolean preservesOrder(final int[] permutation) {
+
+		int last = -1;
+		for (final int i : permutation) {
+			if (i < 0)
+				continue;
+			if (i < last)
+				return false;
+			last = i;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the primitive arrays of the planes of an {@link ImagePlusImg}.
+	 *
+	 * @param img
+	 *            the image
+	 * @return the planes
+	 */
+	public static Object[] planes(final ImagePlusImg<?, ?> img) {
+
+		final Object[] planes = new Object[img.numSlices()];
+		for (int i = 0; i < planes.length; i++)
+			planes[i] = ((ArrayDataAccess<?>)img.getPlane(i)).getCurrentStorageArray();
+
+		return planes;
+	}
+
+	/**
+	 * Returns the number of elements of every plane of an {@link ImagePlusImg}.
+	 *
+	 * @param img
+	 *            the image
+	 * @return the plane size
+	 */
+	public static int planeSize(final ImagePlusImg<?, ?> img) {
+
+		return img.numDimensions() > 1
+				? (int)(img.dimension(0) * img.dimension(1))
+				: (int)img.dimension(0);
+	}
+
+	/**
+	 * Loads a region of a dataset into planes.
+	 *
+	 * @param n5
+	 *            the reader
+	 * @param dataset
+	 *            the dataset
+	 * @param attributes
+	 *            the dataset attributes
+	 * @param interval
+	 *            the region, or null for the whole dataset
+	 * @param planes
+	 *            the primitive arrays of the planes
+	 * @param planeSize
+	 *            the number of elements of a plane
+	 * @param exec
+	 *            the executor service, if null blocks are read on the calling
+	 *            thread
+	 * @param showProgress
+	 *            whether to show progress in the ImageJ status bar
+	 * @throws InterruptedException
+	 *             interrupted
+	 * @throws ExecutionException
+	 *             execution
+	 */
+	public static void load(
+			final N5Reader n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final Interval interval,
+			final Object[] planes,
+			final int planeSize,
+			final ExecutorService exec,
+			final boolean showProgress) throws InterruptedException, ExecutionException {
+
+		final Interval region = interval == null ? new FinalInterval(attributes.getDimensions()) : interval;
+		if (!canLoad(attributes, region, planeSize))
+			throw new IllegalArgumentException("Can not load " + dataset + " into planes of size " + planeSize);
+
+		final List<long[]> gridPositions = gridPositions(attributes.getBlockSize(), region);
+		final int numBlocks = gridPositions.size();
+
+		if (exec == null) {
+			for (int i = 0; i < numBlocks; i++) {
+				loadBlock(n5, dataset, attributes, region, gridPositions.get(i), planes, planeSize);
+				if (showProgress)
+					IJ.showProgress(i + 1, numBlocks);
+			}
+			return;
+		}
+
+		final List<Future<?>> futures = new ArrayList<>(numBlocks);
+		for (final long[] gridPosition : gridPositions)
+			futures.add(exec.submit(() -> loadBlock(n5, dataset, attributes, region, gridPosition, planes, planeSize)));
+
+		for (int i = 0; i < numBlocks; i++) {
+			futures.get(i).get();
+			if (showProgress)
+				IJ.showProgress(i + 1, numBlocks);
+		}
+	}
+
+	private static void loadBlock(
+			final N5Reader n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final Interval region,
+			final long[] gridPosition,
+			final Object[] planes,
+			final int planeSize) {
+
+		final DataBlock<?> block = n5.readBlock(dataset, attributes, gridPosition);
+		if (block == null)
+			return; // missing blocks are zero
+
+		final int nd = gridPosition.length;
+		final int[] blockSize = attributes.getBlockSize();
+		final int[] size = block.getSize();
+
+		// the intersection of the block and the region
+		final long[] blockMin = new long[nd];
+		final long[] min = new long[nd];
+		final long[] max = new long[nd];
+		for (int d = 0; d < nd; d++) {
+			blockMin[d] = gridPosition[d] * blockSize[d];
+			min[d] = Math.max(blockMin[d], region.min(d));
+			max[d] = Math.min(blockMin[d] + size[d] - 1, region.max(d));
+			if (max[d] < min[d])
+				return;
+		}
+
+		final long[] srcSteps = new long[nd];
+		final long[] destSteps = new long[nd];
+		srcSteps[0] = 1;
+		destSteps[0] = 1;
+		for (int d = 1; d < nd; d++) {
+			srcSteps[d] = srcSteps[d - 1] * size[d - 1];
+			destSteps[d] = destSteps[d - 1] * region.dimension(d - 1);
+		}
+
+		final Object src = block.getData();
+		final int rowLength = (int)(max[0] - min[0] + 1);
+		final long[] position = min.clone();
+		while (true) {
+
+			long srcIndex = 0;
+			long destIndex = 0;
+			for (int d = 0; d < nd; d++) {
+				srcIndex += (position[d] - blockMin[d]) * srcSteps[d];
+				destIndex += (position[d] - region.min(d)) * destSteps[d];
+			}
+
+			System.arraycopy(src, (int)srcIndex, planes[(int)(destIndex / planeSize)], (int)(destIndex % planeSize), rowLength);
+
+			// next row
+			int d = 1;
+			for (; d < nd; d++) {
+				if (++position[d] <= max[d])
+					break;
+				position[d] = min[d];
+			}
+			if (d >= nd)
+				break;
+		}
+	}
+
+	private static List<long[]> gridPositions(final int[] blockSize, final Interval region) {
+
+		final int nd = blockSize.length;
+		final long[] first = new long[nd];
+		final long[] last = new long[nd];
+		for (int d = 0; d < nd; d++) {
+			first[d] = region.min(d) / blockSize[d];
+			last[d] = region.max(d) / blockSize[d];
+		}
+
+		final List<long[]> positions = new ArrayList<>();
+		final long[] position = first.clone();
+		while (true) {
+			positions.add(position.clone());
+			int d = 0;
+			for (; d < nd; d++) {
+				if (++position[d] <= last[d])
+					break;
+				position[d] = first[d];
+			}
+			if (d >= nd)
+				break;
+		}
+		return positions;
+	}
+
+}
@@ -0,0 +1,503 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockWriter;
+import org.janelia.saalfeldlab.n5.LockedChannel;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5KeyValueWriter;
+import org.janelia.saalfeldlab.n5.N5URI;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.statistics.StatisticsSidecar;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.blocks.BlockSupplier;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.view.Views;
+
+/**
+ * Writes an image to a dataset chunk by chunk, copying every chunk into a
+ * primitive array with a {@link BlockSupplier}, or into a region of an
+ * existing dataset with {@link #writeRegion}.
+ * <p>
+ * Unlike {@link N5Utils#save}, this exposes every chunk as it is written, for
+ * example to compute its {@link StatisticsSidecar statistics} without reading
+ * the chunk again, or to report it to {@link ExportMetrics}.
+ *
+ * @param <T>
+ *            the image data type
+ */
+public class BlockwiseWriter<T extends NativeType<T>> {
+
+	// number of chunks written by a single task
+	private static final int CHUNKS_PER_TASK = 16;
+
+	private final RandomAccessibleInterval<T> image;
+
+	private final N5Writer n5;
+
+	private final String dataset;
+
+	private final DatasetAttributes attributes;
+
+	private StatisticsSidecar statistics;
+
+	private ExportMetrics metrics;
+
+	private ExportMetrics.DatasetMetrics datasetMetrics;
+
+	private boolean resume = false;
+
+	private boolean skipEmpty = false;
+
+	private ExportManifest manifest;
+
+	public BlockwiseWriter(
+			final RandomAccessibleInterval<T> image,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression) {
+
+		this.image = Views.zeroMin(image);
+		this.n5 = n5;
+		this.dataset = dataset;
+
+		final DataType dataType = N5Utils.dataType(image.getType());
+		attributes = new DatasetAttributes(image.dimensionsAsLongArray(), blockSize.clone(), dataType, compression);
+	}
+
+	/**
+	 * Set whether to compute the statistics of every chunk as it is written.
+	 *
+	 * @param computeStatistics
+	 *            the flag
+	 */
+	public void setComputeStatistics(final boolean computeStatistics) {
+
+		statistics = computeStatistics ? new StatisticsSidecar(attributes) : null;
+	}
+
+	/**
+	 * Set whether to keep the chunks that the {@link ExportManifest} of an
+	 * existing dataset records as written, and only write the others.
+	 *
+	 * @param resume
+	 *            the flag
+	 */
+	public void setResume(final boolean resume) {
+
+		this.resume = resume;
+	}
+
+	/**
+	 * Set whether to leave out chunks whose elements are all zero. Readers
+	 * return zeros for chunks that do not exist, so the dataset reads the same,
+	 * but sparse images need far fewer files.
+	 *
+	 * @param skipEmpty
+	 *            the flag
+	 */
+	public void setSkipEmptyChunks(final boolean skipEmpty) {
+
+		this.skipEmpty = skipEmpty;
+	}
+
+	/**
+	 * Set the metrics that every written chunk is reported to.
+	 *
+	 * @param metrics
+	 *            the metrics, may be null
+	 */
+	public void setMetrics(final ExportMetrics metrics) {
+
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the chunk statistics, or null if they are not computed
+	 */
+	public StatisticsSidecar getStatistics() {
+
+		return statistics;
+	}
+
+	public DatasetAttributes getAttributes() {
+
+		return attributes;
+	}
+
+	/**
+	 * Creates the dataset and writes all chunks.
+	 *
+	 * @param exec
+	 *            the executor service
+	 * @throws InterruptedException
+	 *             interrupted
+	 * @throws ExecutionException
+	 *             execution
+	 */
+	public void write(final ExecutorService exec) throws InterruptedException, ExecutionException {
+
+		writeAsync(exec).get();
+	}
+
+	/**
+	 * Creates the dataset and submits all chunks without waiting for them to
+	 * be written, so that the calling thread may itself be a thread of the
+	 * executor service.
+	 *
+	 * @param exec
+	 *            the executor service
+	 * @return a future that completes when all chunks are written
+	 */
+	public CompletableFuture<Void> writeAsync(final ExecutorService exec) {
+
+		manifest = ExportManifest.open(n5, dataset, attributes, resume);
+
+		final BlockSupplier<T> blocks = BlockSupplier.of(image).threadSafe();
+		final long[] gridSize = gridSize();
+		final long numChunks = numElements(gridSize);
+		datasetMetrics = metrics == null ? null : metrics.startDataset(dataset, numChunks - manifest.getNumCompleted());
+
+		final List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (long start = 0; start < numChunks; start += CHUNKS_PER_TASK) {
+			final long from = start;
+			final long to = Math.min(numChunks, start + CHUNKS_PER_TASK);
+			futures.add(CompletableFuture.runAsync(() -> {
+				for (long i = from; i < to; i++)
+					writeChunk(blocks, gridSize, i);
+			}, exec));
+		}
+
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((x, e) -> {
+			// keep what was written for a later resume
+			if (e != null)
+				manifest.checkpoint();
+		}).thenRun(() -> {
+			manifest.finish();
+			if (metrics != null)
+				metrics.finishDataset(datasetMetrics);
+		});
+	}
+
+	/**
+	 * Writes an image into the region of an existing dataset given by the
+	 * interval of the image, and grows the dataset if the image extends beyond
+	 * it. Chunks that are covered by the image are copied with a
+	 * {@link BlockSupplier}, those that are covered only partly are merged with
+	 * their stored values by {@link N5Utils#saveRegion}. Every chunk is
+	 * reported to the metrics as it is written, the encoded size of merged
+	 * chunks is unknown.
+	 *
+	 * @param <T>
+	 *            the image data type
+	 * @param image
+	 *            the image, in the coordinates of the dataset
+	 * @param n5
+	 *            the writer
+	 * @param dataset
+	 *            the dataset
+	 * @param metrics
+	 *            the metrics, may be null
+	 * @param exec
+	 *            the executor service
+	 * @throws InterruptedException
+	 *             interrupted
+	 * @throws ExecutionException
+	 *             execution
+	 */
+	public static <T extends NativeType<T>> void writeRegion(
+			final RandomAccessibleInterval<T> image,
+			final N5Writer n5,
+			final String dataset,
+			final ExportMetrics metrics,
+			final ExecutorService exec) throws InterruptedException, ExecutionException {
+
+		final int nd = image.numDimensions();
+		final long[] dimensions = n5.getDatasetAttributes(dataset).getDimensions().clone();
+		boolean grow = false;
+		for (int d = 0; d < nd; d++) {
+			if (image.max(d) >= dimensions[d]) {
+				dimensions[d] = image.max(d) + 1;
+				grow = true;
+			}
+		}
+		if (grow)
+			n5.setAttribute(dataset, DatasetAttributes.DIMENSIONS_KEY, dimensions);
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		final int[] blockSize = attributes.getBlockSize();
+		final long[] gridMin = new long[nd];
+		final long[] gridSize = new long[nd];
+		for (int d = 0; d < nd; d++) {
+			gridMin[d] = Math.floorDiv(image.min(d), blockSize[d]);
+			gridSize[d] = Math.floorDiv(image.max(d), blockSize[d]) - gridMin[d] + 1;
+		}
+
+		final long numChunks = numElements(gridSize);
+		final int bytesPerElement = PrimitiveArrays.bytesPerElement(attributes.getDataType());
+		final ExportMetrics.DatasetMetrics datasetMetrics = metrics == null ? null : metrics.startDataset(dataset, numChunks);
+		final BlockSupplier<T> blocks = BlockSupplier.of(image).threadSafe();
+
+		final List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (long start = 0; start < numChunks; start += CHUNKS_PER_TASK) {
+			final long from = start;
+			final long to = Math.min(numChunks, start + CHUNKS_PER_TASK);
+			futures.add(CompletableFuture.runAsync(() -> {
+				for (long i = from; i < to; i++) {
+					final long[] gridPosition = new long[nd];
+					IntervalIndexer.indexToPosition(i, gridSize, gridPosition);
+					for (int d = 0; d < nd; d++)
+						gridPosition[d] += gridMin[d];
+
+					final long[] sizes = writeRegionChunk(image, blocks, n5, dataset, attributes, gridPosition);
+					if (metrics != null)
+						metrics.blocksWritten(datasetMetrics, 1, sizes[0] * bytesPerElement, sizes[1]);
+				}
+			}, exec));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+
+		if (metrics != null)
+			metrics.finishDataset(datasetMetrics);
+	}
+
+	/**
+	 * Writes the part of an image in a chunk.
+	 *
+	 * @return the number of elements of the image in the chunk, and the
+	 *         encoded size of the chunk or -1 if unknown
+	 */
+	private static <T extends NativeType<T>> long[] writeRegionChunk(
+			final RandomAccessibleInterval<T> image,
+			final BlockSupplier<T> blocks,
+			final N5Writer n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final long[] gridPosition) {
+
+		final int nd = gridPosition.length;
+		final DataBlock<?> block = createBlock(attributes, gridPosition);
+		final int[] size = block.getSize();
+		final int[] blockSize = attributes.getBlockSize();
+
+		final long[] min = new long[nd];
+		final long[] regionMin = new long[nd];
+		final long[] regionMax = new long[nd];
+		boolean covered = true;
+		long numElements = 1;
+		for (int d = 0; d < nd; d++) {
+			min[d] = gridPosition[d] * blockSize[d];
+			regionMin[d] = Math.max(min[d], image.min(d));
+			regionMax[d] = Math.min(min[d] + size[d] - 1, image.max(d));
+			covered &= regionMin[d] == min[d] && regionMax[d] == min[d] + size[d] - 1;
+			numElements *= regionMax[d] - regionMin[d] + 1;
+		}
+
+		if (covered) {
+			blocks.copy(min, block.getData(), size);
+			return new long[]{numElements, writeBlock(n5, dataset, attributes, block)};
+		}
+
+		N5Utils.saveRegion(Views.interval(image, regionMin, regionMax), n5, dataset);
+		return new long[]{numElements, -1};
+	}
+
+	private void writeChunk(final BlockSupplier<T> blocks, final long[] gridSize, final long index) {
+
+		final int nd = gridSize.length;
+		final int[] blockSize = attributes.getBlockSize();
+
+		final long[] gridPosition = new long[nd];
+		IntervalIndexer.indexToPosition(index, gridSize, gridPosition);
+
+		if (manifest.isCompleted(index)) {
+			// the statistics of the chunks written before need the chunks themselves
+			if (statistics != null) {
+				// chunks that were skipped as empty do not exist and hold zeros
+				final DataBlock<?> block = n5.readBlock(dataset, attributes, gridPosition);
+				statistics.add(gridPosition, (block == null ? createBlock(gridPosition) : block).getData());
+			}
+			return;
+		}
+
+		final DataBlock<?> block = createBlock(gridPosition);
+		final int[] size = block.getSize();
+		final long[] min = new long[nd];
+		for (int d = 0; d < nd; d++)
+			min[d] = gridPosition[d] * blockSize[d];
+
+		blocks.copy(min, block.getData(), size);
+
+		final boolean skip = skipEmpty && PrimitiveArrays.isZero(block.getData());
+		final long encodedBytes = skip ? 0 : writeBlock(n5, dataset, attributes, block);
+
+		if (statistics != null)
+			statistics.add(gridPosition, block.getData());
+
+		manifest.completed(index);
+		if (metrics != null) {
+			final long bytes = PrimitiveArrays.sizeInBytes(block.getData());
+			if (skip)
+				metrics.blocksSkipped(datasetMetrics, 1, bytes);
+			else
+				metrics.blocksWritten(datasetMetrics, 1, bytes, encodedBytes);
+		}
+	}
+
+	/**
+	 * Writes a block and counts its encoded bytes. Blocks of n5 containers are
+	 * encoded here like {@link N5KeyValueWriter} does, other formats encode
+	 * their blocks themselves, so their size is unknown.
+	 *
+	 * @param n5
+	 *            the writer
+	 * @param dataset
+	 *            the dataset
+	 * @param attributes
+	 *            the attributes of the dataset
+	 * @param block
+	 *            the block
+	 * @return the encoded size of the block, or -1 if unknown
+	 */
+	static long writeBlock(
+			final N5Writer n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final DataBlock<?> block) {
+
+		if (!(n5 instanceof N5KeyValueWriter)) {
+			n5.writeBlock(dataset, attributes, block);
+			return -1;
+		}
+
+		final N5KeyValueWriter kv = (N5KeyValueWriter)n5;
+		final String path = kv.absoluteDataBlockPath(N5URI.normalizeGroupPath(dataset), block.getGridPosition());
+		final CountingOutputStream out;
+		try (final LockedChannel channel = kv.getKeyValueAccess().lockForWriting(path)) {
+			out = new CountingOutputStream(channel.newOutputStream());
+			try (final OutputStream o = out) {
+				DefaultBlockWriter.writeBlock(o, attributes, block);
+			}
+		} catch (final IOException e) {
+			throw new N5Exception.N5IOException(
+					"Failed to write block " + Arrays.toString(block.getGridPosition()) + " into dataset " + dataset, e);
+		}
+		return out.count;
+	}
+
+	private DataBlock<?> createBlock(final long[] gridPosition) {
+
+		return createBlock(attributes, gridPosition);
+	}
+
+	private static DataBlock<?> createBlock(final DatasetAttributes attributes, final long[] gridPosition) {
+
+		final long[] dims = attributes.getDimensions();
+		final int[] blockSize = attributes.getBlockSize();
+		final int[] size = new int[dims.length];
+		for (int d = 0; d < dims.length; d++)
+			size[d] = (int)Math.min(blockSize[d], dims[d] - gridPosition[d] * blockSize[d]);
+
+		return attributes.getDataType().createDataBlock(size, gridPosition);
+	}
+
+	private long[] gridSize() {
+
+		return gridSize(attributes.getDimensions(), attributes.getBlockSize());
+	}
+
+	private static long[] gridSize(final long[] dims, final int[] blockSize) {
+
+		final long[] gridSize = new long[dims.length];
+		for (int d = 0; d < dims.length; d++)
+			gridSize[d] = (dims[d] + blockSize[d] - 1) / blockSize[d];
+
+		return gridSize;
+	}
+
+	/**
+	 * @param dims
+	 *            the dimensions of a dataset
+	 * @param blockSize
+	 *            its block size
+	 * @return the number of blocks of the dataset
+	 */
+	static long numBlocks(final long[] dims, final int[] blockSize) {
+
+		return numElements(gridSize(dims, blockSize));
+	}
+
+	private static long numElements(final long[] size) {
+
+		long n = 1;
+		for (final long s : size)
+			n *= s;
+
+		return n;
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		private CountingOutputStream(final OutputStream out) {
+
+			super(out);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.universe.N5DatasetDiscoverer;
+import org.janelia.saalfeldlab.n5.universe.N5TreeNode;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5Metadata;
+
+/**
+ * Finds the metadata of a dataset from the nodes along its path, without
+ * crawling the rest of the container.
+ * <p>
+ * Group parsers, e.g. for OME-NGFF or N5 Viewer multiscales, derive the
+ * metadata of a dataset from its parent and the other children of the
+ * parent, and the metadata of a group from its descendants. So the parsed
+ * tree holds the ancestors of the dataset, the children of its parent, and
+ * the descendants of the dataset.
+ */
+public final class DatasetResolver {
+
+	/**
+	 * Above this number of children of the parent, resolving a dataset is
+	 * not cheaper than crawling the container.
+	 */
+	public static final int MAX_SIBLINGS = 1000;
+
+	private DatasetResolver() {}
+
+	/**
+	 * Parses the metadata of a dataset along its path.
+	 *
+	 * @param n5
+	 *            the container
+	 * @param discoverer
+	 *            the discoverer with the parsers for the container
+	 * @param dataset
+	 *            the path of the dataset or group
+	 * @return the metadata, or null if they can not be resolved this way and
+	 *         the container has to be crawled
+	 * @throws InterruptedException
+	 *             interrupted
+	 * @throws ExecutionException
+	 *             the metadata could not be parsed
+	 */
+	public static N5Metadata resolve(final N5Reader n5, final N5DatasetDiscoverer discoverer, final String dataset)
+			throws InterruptedException, ExecutionException {
+
+		final String path = normalize(dataset);
+		try {
+			if (path.isEmpty() || !n5.exists(path))
+				return null;
+
+			// the ancestors
+			final N5TreeNode root = new N5TreeNode("");
+			N5TreeNode parent = root;
+			final int lastSeparator = path.lastIndexOf('/');
+			if (lastSeparator > 0) {
+				for (final String ancestor : ancestors(path.substring(0, lastSeparator))) {
+					final N5TreeNode node = new N5TreeNode(ancestor);
+					parent.childrenList().add(node);
+					parent = node;
+				}
+			}
+
+			// the children of the parent
+			final String parentPath = parent.getPath();
+			final String[] siblings = n5.list(parentPath.isEmpty() ? "/" : parentPath);
+			if (siblings.length > MAX_SIBLINGS)
+				return null;
+
+			N5TreeNode target = null;
+			for (final String name : siblings) {
+				final N5TreeNode node = new N5TreeNode(parentPath.isEmpty() ? name : parentPath + "/" + name);
+				parent.childrenList().add(node);
+				if (node.getPath().equals(path))
+					target = node;
+			}
+
+			if (target == null)
+				return null;
+
+			// the descendants
+			if (!n5.datasetExists(path))
+				addDescendants(target, path, n5.deepList(path));
+
+			discoverer.parseMetadataRecursive(root, x -> {});
+			return target.getMetadata();
+		} catch (final N5Exception e) {
+			return null;
+		}
+	}
+
+	private static String[] ancestors(final String path) {
+
+		final String[] parts = path.split("/");
+		for (int i = 1; i < parts.length; i++)
+			parts[i] = parts[i - 1] + "/" + parts[i];
+
+		return parts;
+	}
+
+	private static void addDescendants(final N5TreeNode node, final String path, final String[] relativePaths) {
+
+		// parents before their children
+		final String[] sorted = relativePaths.clone();
+		Arrays.sort(sorted, Comparator.comparingInt(DatasetResolver::depth));
+
+		final Map<String, N5TreeNode> nodes = new HashMap<>();
+		nodes.put("", node);
+		for (final String relativePath : sorted) {
+
+			final String p = normalize(relativePath);
+			final int i = p.lastIndexOf('/');
+			final N5TreeNode parent = nodes.get(i < 0 ? "" : p.substring(0, i));
+			if (p.isEmpty() || parent == null)
+				continue;
+
+			final N5TreeNode child = new N5TreeNode(path + "/" + p);
+			parent.childrenList().add(child);
+			nodes.put(p, child);
+		}
+	}
+
+	private static int depth(final String path) {
+
+		int n = 0;
+		for (int i = 0; i < path.length(); i++)
+			if (path.charAt(i) == '/')
+				n++;
+
+		return n;
+	}
+
+	static String normalize(final String path) {
+
+		int start = 0;
+		int end = path.length();
+		while (start < end && path.charAt(start) == '/')
+			start++;
+		while (end > start && path.charAt(end - 1) == '/')
+			end--;
+
+		return path.substring(start, end);
+	}
+
+}
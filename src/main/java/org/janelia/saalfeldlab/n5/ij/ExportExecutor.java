@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The execution context of one export job: a single thread pool shared by
+ * all channels and scale levels the job writes. The progress of the job is
+ * reported by its {@link ExportMetrics}, which count the blocks written.
+ * <p>
+ * Close it when the job is done, including when it fails, so that no idle
+ * pools are left behind in long running sessions.
+ */
+public class ExportExecutor implements AutoCloseable {
+
+	public static final String THREAD_NAME_PREFIX = "n5-export-";
+
+	private static final long TERMINATION_TIMEOUT_MILLIS = 1000;
+
+	private final ThreadPoolExecutor threadPool;
+
+	/**
+	 * @param nThreads
+	 *            the number of threads
+	 */
+	public ExportExecutor(final int nThreads) {
+
+		final int n = Math.max(1, nThreads);
+		final AtomicInteger threadCount = new AtomicInteger();
+		threadPool = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				r -> new Thread(r, THREAD_NAME_PREFIX + threadCount.incrementAndGet()));
+	}
+
+	/**
+	 * @return the executor that all writes of the job should be submitted to
+	 */
+	public ExecutorService getExecutor() {
+
+		return threadPool;
+	}
+
+	public int getNumThreads() {
+
+		return threadPool.getMaximumPoolSize();
+	}
+
+	/**
+	 * Shuts down the pool and waits briefly for the threads to exit. Tasks
+	 * that are still queued, e.g. because the job failed, are cancelled.
+	 */
+	@Override
+	public void close() {
+
+		threadPool.shutdownNow();
+
+		try {
+			threadPool.awaitTermination(TERMINATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
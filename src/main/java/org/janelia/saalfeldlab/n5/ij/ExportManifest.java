@@ -0,0 +1,376 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GsonKeyValueN5Writer;
+import org.janelia.saalfeldlab.n5.KeyValueAccess;
+import org.janelia.saalfeldlab.n5.LockedChannel;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5URI;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+/**
+ * Records which chunks of a dataset have been written, so that an
+ * interrupted export can be resumed without writing them again.
+ * <p>
+ * Every export keeps a manifest while its chunks are written, whether or not
+ * it is resumed, so that any interrupted export can be resumed. It is stored
+ * next to the chunks of the dataset, in the {@value #MANIFEST_KEY} file, as a
+ * bit set of the completed chunks indexed in flat grid order. It is written
+ * every {@value #CHECKPOINT_INTERVAL_MILLIS} milliseconds while the chunks are
+ * written, and removed when all chunks are written, so that a finished export
+ * leaves no file behind. Only a resumed export replaces it with the empty
+ * {@value #COMPLETE_KEY} file, so that resuming it again keeps all of its
+ * chunks. Chunks written after the last checkpoint of an interrupted export
+ * are written again when it is resumed, and so are all chunks of a dataset
+ * that has neither file, e.g. one whose export was finished without resuming.
+ * <p>
+ * Manifests need a key value store, exports to other containers are not
+ * resumable.
+ */
+public class ExportManifest {
+
+	public static final String MANIFEST_KEY = ".exportManifest";
+
+	public static final String COMPLETE_KEY = ".exportComplete";
+
+	public static final long CHECKPOINT_INTERVAL_MILLIS = 10000;
+
+	private final N5Writer n5;
+
+	private final String dataset;
+
+	private final long numChunks;
+
+	private final BitSet completed;
+
+	private final boolean resume;
+
+	private final Object storeLock = new Object();
+
+	private boolean complete;
+
+	private boolean checkpointing;
+
+	private long lastCheckpoint;
+
+	private ExportManifest(final N5Writer n5, final String dataset, final long numChunks, final BitSet completed,
+			final boolean complete, final boolean resume) {
+
+		this.n5 = n5;
+		this.dataset = dataset;
+		this.numChunks = numChunks;
+		this.completed = completed;
+		this.complete = complete;
+		this.resume = resume;
+		lastCheckpoint = System.currentTimeMillis();
+	}
+
+	/**
+	 * Creates the dataset and its manifest, or opens the manifest of an
+	 * existing dataset when resuming.
+	 *
+	 * @param n5
+	 *            the writer
+	 * @param dataset
+	 *            the dataset
+	 * @param attributes
+	 *            the attributes of the dataset
+	 * @param resume
+	 *            whether to keep the chunks that an existing manifest records,
+	 *            or all chunks of a dataset that is marked complete
+	 * @return the manifest
+	 * @throws N5Exception
+	 *             if resuming a dataset whose attributes differ
+	 */
+	public static ExportManifest open(
+			final N5Writer n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final boolean resume) {
+
+		final long numChunks = Arrays.stream(gridSize(attributes)).reduce(1, (x, y) -> x * y);
+		final boolean trackable = trackable(n5, numChunks);
+
+		if (resume && trackable && n5.datasetExists(dataset)) {
+
+			final DatasetAttributes existing = n5.getDatasetAttributes(dataset);
+			if (!Arrays.equals(existing.getDimensions(), attributes.getDimensions()) ||
+					!Arrays.equals(existing.getBlockSize(), attributes.getBlockSize()) ||
+					existing.getDataType() != attributes.getDataType())
+				throw new N5Exception("Can not resume " + dataset + ", it was written with different dimensions, chunk size or data type.");
+
+			if (isComplete(n5, dataset))
+				return new ExportManifest(n5, dataset, numChunks, null, true, true);
+
+			// without a manifest nothing is known to be written
+			BitSet completed = read(n5, dataset);
+			if (completed == null) {
+				completed = new BitSet();
+				write(n5, dataset, completed);
+			}
+			return new ExportManifest(n5, dataset, numChunks, completed, false, true);
+		}
+
+		if (exists(n5, dataset))
+			delete(n5, dataset, MANIFEST_KEY);
+		if (isComplete(n5, dataset))
+			delete(n5, dataset, COMPLETE_KEY);
+
+		n5.createDataset(dataset, attributes);
+		if (!trackable)
+			return new ExportManifest(n5, dataset, numChunks, null, false, false);
+
+		final BitSet completed = new BitSet();
+		write(n5, dataset, completed);
+		return new ExportManifest(n5, dataset, numChunks, completed, false, resume);
+	}
+
+	/**
+	 * @param index
+	 *            the flat index of a chunk in the grid
+	 * @return true if the chunk was written by an earlier export
+	 */
+	public synchronized boolean isCompleted(final long index) {
+
+		return complete || (completed != null && completed.get((int)index));
+	}
+
+	/**
+	 * @return the number of chunks written by an earlier export
+	 */
+	public synchronized long getNumCompleted() {
+
+		if (complete)
+			return numChunks;
+
+		return completed == null ? 0 : completed.cardinality();
+	}
+
+	/**
+	 * Records that a chunk was written, and stores the manifest if the last
+	 * checkpoint is older than {@link #CHECKPOINT_INTERVAL_MILLIS}. The
+	 * manifest is stored without blocking other threads that record chunks.
+	 *
+	 * @param index
+	 *            the flat index of the chunk in the grid
+	 */
+	public void completed(final long index) {
+
+		final BitSet snapshot;
+		synchronized (this) {
+			if (completed == null)
+				return;
+
+			completed.set((int)index);
+			if (checkpointing || System.currentTimeMillis() - lastCheckpoint <= CHECKPOINT_INTERVAL_MILLIS)
+				return;
+
+			checkpointing = true;
+			snapshot = (BitSet)completed.clone();
+		}
+		store(snapshot);
+	}
+
+	/**
+	 * Stores the chunks written so far.
+	 */
+	public void checkpoint() {
+
+		final BitSet snapshot;
+		synchronized (this) {
+			if (complete || completed == null)
+				return;
+
+			checkpointing = true;
+			snapshot = (BitSet)completed.clone();
+		}
+		store(snapshot);
+	}
+
+	private void store(final BitSet snapshot) {
+
+		try {
+			synchronized (storeLock) {
+				// a checkpoint must not bring back the manifest of a finished dataset
+				if (!isComplete())
+					write(n5, dataset, snapshot);
+			}
+		} finally {
+			synchronized (this) {
+				checkpointing = false;
+				lastCheckpoint = System.currentTimeMillis();
+			}
+		}
+	}
+
+	private synchronized boolean isComplete() {
+
+		return complete;
+	}
+
+	/**
+	 * Removes the manifest of the dataset. If the export was resumed, it is
+	 * replaced with the {@value #COMPLETE_KEY} file.
+	 */
+	public void finish() {
+
+		synchronized (storeLock) {
+			final boolean tracked;
+			synchronized (this) {
+				tracked = completed != null && !complete;
+				complete = true;
+			}
+			if (tracked) {
+				// mark first, so that an interruption in between leaves both
+				if (resume)
+					markComplete(n5, dataset);
+
+				delete(n5, dataset, MANIFEST_KEY);
+			}
+		}
+	}
+
+	/**
+	 * @param n5
+	 *            the container
+	 * @param dataset
+	 *            the dataset
+	 * @return true if the dataset has a manifest, i.e. its export is not
+	 *         complete
+	 */
+	static boolean exists(final N5Writer n5, final String dataset) {
+
+		return n5 instanceof GsonKeyValueN5Writer && access(n5).isFile(path(n5, dataset, MANIFEST_KEY));
+	}
+
+	/**
+	 * @param n5
+	 *            the container
+	 * @param dataset
+	 *            the dataset
+	 * @return true if all chunks of the dataset were written
+	 */
+	static boolean isComplete(final N5Writer n5, final String dataset) {
+
+		return n5 instanceof GsonKeyValueN5Writer && access(n5).isFile(path(n5, dataset, COMPLETE_KEY));
+	}
+
+	/**
+	 * Reads the manifest of a dataset.
+	 *
+	 * @return the completed chunks, or null if there is no manifest
+	 */
+	static BitSet read(final N5Writer n5, final String dataset) {
+
+		if (!exists(n5, dataset))
+			return null;
+
+		final String path = path(n5, dataset, MANIFEST_KEY);
+		try (final LockedChannel channel = access(n5).lockForReading(path);
+				final InputStream in = channel.newInputStream()) {
+
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+				bytes.write(buffer, 0, n);
+
+			return BitSet.valueOf(bytes.toByteArray());
+		} catch (final IOException e) {
+			throw new N5Exception.N5IOException("Failed to read the export manifest of " + dataset, e);
+		}
+	}
+
+	/**
+	 * Writes the manifest of a dataset.
+	 */
+	static void write(final N5Writer n5, final String dataset, final BitSet completed) {
+
+		final String path = path(n5, dataset, MANIFEST_KEY);
+		try (final LockedChannel channel = access(n5).lockForWriting(path);
+				final OutputStream out = channel.newOutputStream()) {
+
+			out.write(completed.toByteArray());
+		} catch (final IOException e) {
+			throw new N5Exception.N5IOException("Failed to write the export manifest of " + dataset, e);
+		}
+	}
+
+	private static void markComplete(final N5Writer n5, final String dataset) {
+
+		final String path = path(n5, dataset, COMPLETE_KEY);
+		try (final LockedChannel channel = access(n5).lockForWriting(path);
+				final OutputStream out = channel.newOutputStream()) {
+		} catch (final IOException e) {
+			throw new N5Exception.N5IOException("Failed to mark the export of " + dataset + " as complete", e);
+		}
+	}
+
+	private static void delete(final N5Writer n5, final String dataset, final String key) {
+
+		try {
+			access(n5).delete(path(n5, dataset, key));
+		} catch (final IOException e) {
+			throw new N5Exception.N5IOException("Failed to remove " + key + " of " + dataset, e);
+		}
+	}
+
+	private static KeyValueAccess access(final N5Writer n5) {
+
+		return ((GsonKeyValueN5Writer)n5).getKeyValueAccess();
+	}
+
+	private static String path(final N5Writer n5, final String dataset, final String key) {
+
+		return access(n5).compose(n5.getURI(), N5URI.normalizeGroupPath(dataset), key);
+	}
+
+	private static boolean trackable(final N5Writer n5, final long numChunks) {
+
+		// bit sets are indexed by int
+		return n5 instanceof GsonKeyValueN5Writer && numChunks <= Integer.MAX_VALUE;
+	}
+
+	private static long[] gridSize(final DatasetAttributes attributes) {
+
+		final long[] dims = attributes.getDimensions();
+		final int[] blockSize = attributes.getBlockSize();
+		final long[] gridSize = new long[dims.length];
+		for (int d = 0; d < dims.length; d++)
+			gridSize[d] = (dims[d] + blockSize[d] - 1) / blockSize[d];
+
+		return gridSize;
+	}
+
+}
@@ -0,0 +1,505 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ij.IJ;
+
+/**
+ * Progress and throughput of an export: the number of blocks written to every
+ * dataset (one per channel and scale level), the uncompressed bytes written,
+ * the bytes stored, and the resulting compression ratio, throughput and
+ * estimated time remaining.
+ * <p>
+ * {@link Listener Listeners} are notified after every block, so that batch
+ * jobs can report progress without ImageJ. {@link #statusBarListener()} shows
+ * the progress in the ImageJ status and progress bars.
+ * <p>
+ * The stored bytes are counted as every block is encoded, which is only
+ * possible for blocks that the exporters write themselves, see
+ * {@link BlockwiseWriter}. The compression ratio is computed over the datasets
+ * for which they are known. Exporters keep their listeners and metrics in a
+ * {@link Tracker}. The time remaining is estimated over all blocks of the
+ * export, including those of datasets that are {@link #planDataset planned}
+ * but not started yet.
+ */
+public class ExportMetrics {
+
+	/**
+	 * Receives the progress of an export. Called from the threads that write
+	 * blocks, so implementations must be thread safe and fast.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+
+		/**
+		 * @param metrics
+		 *            the metrics of the whole export
+		 * @param dataset
+		 *            the dataset that was updated
+		 */
+		void progress(ExportMetrics metrics, DatasetMetrics dataset);
+	}
+
+	/**
+	 * The metrics of a single dataset.
+	 */
+	public static class DatasetMetrics {
+
+		private final String dataset;
+
+		private final long expectedBlocks;
+
+		private final AtomicLong blocksWritten = new AtomicLong();
+
+		private final AtomicLong blocksSkipped = new AtomicLong();
+
+		private final AtomicLong bytesIn = new AtomicLong();
+
+		private final AtomicLong bytesOut = new AtomicLong();
+
+		private volatile boolean bytesOutUnknown;
+
+		private volatile boolean finished;
+
+		private DatasetMetrics(final String dataset, final long expectedBlocks) {
+
+			this.dataset = dataset;
+			this.expectedBlocks = expectedBlocks;
+		}
+
+		public String getDataset() {
+
+			return dataset;
+		}
+
+		public long getExpectedBlocks() {
+
+			return expectedBlocks;
+		}
+
+		public long getBlocksWritten() {
+
+			return blocksWritten.get();
+		}
+
+		/**
+		 * @return the number of blocks that were not written because they
+		 *         only hold the fill value
+		 */
+		public long getBlocksSkipped() {
+
+			return blocksSkipped.get();
+		}
+
+		/**
+		 * @return the number of blocks written or skipped so far
+		 */
+		public long getBlocksDone() {
+
+			return blocksWritten.get() + blocksSkipped.get();
+		}
+
+		/**
+		 * @return the uncompressed size of the blocks written or skipped so far
+		 */
+		public long getBytesIn() {
+
+			return bytesIn.get();
+		}
+
+		/**
+		 * @return the encoded size of the blocks written so far, or -1 if
+		 *         unknown
+		 */
+		public long getBytesOut() {
+
+			return bytesOutUnknown ? -1 : bytesOut.get();
+		}
+
+		public boolean isFinished() {
+
+			return finished;
+		}
+
+		/**
+		 * @return bytes in over bytes out, or NaN if unknown
+		 */
+		public double getCompressionRatio() {
+
+			final long out = getBytesOut();
+			return out > 0 ? (double)bytesIn.get() / out : Double.NaN;
+		}
+	}
+
+	/**
+	 * The listeners of an exporter, and the metrics of its current or last
+	 * export.
+	 */
+	public static class Tracker {
+
+		private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+		private volatile ExportMetrics metrics;
+
+		/**
+		 * Adds a listener that is notified of the progress of every following
+		 * export, e.g. for headless batch jobs.
+		 *
+		 * @param listener
+		 *            the listener
+		 */
+		public void addListener(final Listener listener) {
+
+			listeners.add(listener);
+		}
+
+		public void removeListener(final Listener listener) {
+
+			listeners.remove(listener);
+		}
+
+		/**
+		 * Starts the metrics of a new export, shown in the ImageJ status bar
+		 * and reported to the listeners.
+		 *
+		 * @return the metrics
+		 */
+		public ExportMetrics start() {
+
+			final ExportMetrics m = new ExportMetrics();
+			m.addListener(statusBarListener());
+			for (final Listener l : listeners)
+				m.addListener(l);
+
+			metrics = m;
+			return m;
+		}
+
+		/**
+		 * @return the metrics of the current or last export, or null
+		 */
+		public ExportMetrics getMetrics() {
+
+			return metrics;
+		}
+	}
+
+	private static final long STATUS_INTERVAL_MILLIS = 500;
+
+	private final Map<String, DatasetMetrics> datasets = new LinkedHashMap<>();
+
+	// the blocks of datasets that are planned but not started, guarded by datasets
+	private final Map<String, Long> planned = new LinkedHashMap<>();
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	private final long startNanos = System.nanoTime();
+
+	public void addListener(final Listener listener) {
+
+		listeners.add(listener);
+	}
+
+	public void removeListener(final Listener listener) {
+
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Adds a dataset to the plan of the export, so that its blocks count
+	 * towards the progress and time remaining before it is started, e.g.
+	 * while it waits for the scale level it is computed from.
+	 *
+	 * @param dataset
+	 *            the dataset path
+	 * @param numBlocks
+	 *            the number of blocks of the dataset
+	 */
+	public void planDataset(final String dataset, final long numBlocks) {
+
+		synchronized (datasets) {
+			if (!datasets.containsKey(dataset))
+				planned.put(dataset, numBlocks);
+		}
+	}
+
+	/**
+	 * Starts tracking a dataset.
+	 *
+	 * @param dataset
+	 *            the dataset path
+	 * @param expectedBlocks
+	 *            the number of blocks that will be written
+	 * @return the metrics of the dataset
+	 */
+	public DatasetMetrics startDataset(final String dataset, final long expectedBlocks) {
+
+		final DatasetMetrics d = new DatasetMetrics(dataset, expectedBlocks);
+		synchronized (datasets) {
+			datasets.put(dataset, d);
+			planned.remove(dataset);
+		}
+		notifyListeners(d);
+		return d;
+	}
+
+	/**
+	 * Records that blocks were written whose encoded size is unknown.
+	 *
+	 * @param dataset
+	 *            the metrics of the dataset
+	 * @param numBlocks
+	 *            the number of blocks
+	 * @param bytes
+	 *            their total uncompressed size
+	 */
+	public void blocksWritten(final DatasetMetrics dataset, final long numBlocks, final long bytes) {
+
+		blocksWritten(dataset, numBlocks, bytes, -1);
+	}
+
+	/**
+	 * Records that blocks were written.
+	 *
+	 * @param dataset
+	 *            the metrics of the dataset
+	 * @param numBlocks
+	 *            the number of blocks
+	 * @param bytes
+	 *            their total uncompressed size
+	 * @param encodedBytes
+	 *            their total encoded size, or -1 if unknown
+	 */
+	public void blocksWritten(final DatasetMetrics dataset, final long numBlocks, final long bytes, final long encodedBytes) {
+
+		dataset.blocksWritten.addAndGet(numBlocks);
+		dataset.bytesIn.addAndGet(bytes);
+		if (encodedBytes < 0)
+			dataset.bytesOutUnknown = true;
+		else
+			dataset.bytesOut.addAndGet(encodedBytes);
+		notifyListeners(dataset);
+	}
+
+	/**
+	 * Records that blocks were not written because they only hold the fill
+	 * value.
+	 *
+	 * @param dataset
+	 *            the metrics of the dataset
+	 * @param numBlocks
+	 *            the number of blocks
+	 * @param bytes
+	 *            their total uncompressed size
+	 */
+	public void blocksSkipped(final DatasetMetrics dataset, final long numBlocks, final long bytes) {
+
+		dataset.blocksSkipped.addAndGet(numBlocks);
+		dataset.bytesIn.addAndGet(bytes);
+		notifyListeners(dataset);
+	}
+
+	/**
+	 * Marks a dataset as finished.
+	 *
+	 * @param dataset
+	 *            the metrics of the dataset
+	 */
+	public void finishDataset(final DatasetMetrics dataset) {
+
+		dataset.finished = true;
+		notifyListeners(dataset);
+	}
+
+	/**
+	 * @return the metrics of all datasets started so far, in order
+	 */
+	public List<DatasetMetrics> getDatasets() {
+
+		synchronized (datasets) {
+			return new ArrayList<>(datasets.values());
+		}
+	}
+
+	public DatasetMetrics getDataset(final String dataset) {
+
+		synchronized (datasets) {
+			return datasets.get(dataset);
+		}
+	}
+
+	public long getBlocksWritten() {
+
+		return getDatasets().stream().mapToLong(DatasetMetrics::getBlocksWritten).sum();
+	}
+
+	public long getBlocksSkipped() {
+
+		return getDatasets().stream().mapToLong(DatasetMetrics::getBlocksSkipped).sum();
+	}
+
+	public long getBlocksDone() {
+
+		return getDatasets().stream().mapToLong(DatasetMetrics::getBlocksDone).sum();
+	}
+
+	/**
+	 * @return the number of blocks of all datasets started or planned so far
+	 */
+	public long getExpectedBlocks() {
+
+		synchronized (datasets) {
+			return datasets.values().stream().mapToLong(DatasetMetrics::getExpectedBlocks).sum() +
+					planned.values().stream().mapToLong(Long::longValue).sum();
+		}
+	}
+
+	public long getBytesIn() {
+
+		return getDatasets().stream().mapToLong(DatasetMetrics::getBytesIn).sum();
+	}
+
+	/**
+	 * @return the encoded size of the blocks of all datasets whose size is
+	 *         known, or -1 if none is
+	 */
+	public long getBytesOut() {
+
+		final long[] sizes = getDatasets().stream().mapToLong(DatasetMetrics::getBytesOut).filter(x -> x >= 0).toArray();
+		return sizes.length == 0 ? -1 : Arrays.stream(sizes).sum();
+	}
+
+	/**
+	 * @return the compression ratio over all datasets whose stored size is
+	 *         known, or NaN
+	 */
+	public double getCompressionRatio() {
+
+		long in = 0;
+		long out = 0;
+		for (final DatasetMetrics d : getDatasets()) {
+			final long bytesOut = d.getBytesOut();
+			if (bytesOut > 0) {
+				in += d.getBytesIn();
+				out += bytesOut;
+			}
+		}
+		return out > 0 ? (double)in / out : Double.NaN;
+	}
+
+	public double getElapsedSeconds() {
+
+		return (System.nanoTime() - startNanos) / 1e9;
+	}
+
+	/**
+	 * @return the uncompressed megabytes written or skipped per second
+	 */
+	public double getMegabytesPerSecond() {
+
+		final double seconds = getElapsedSeconds();
+		return seconds > 0 ? getBytesIn() / 1e6 / seconds : 0;
+	}
+
+	/**
+	 * @return the estimated seconds until all blocks of the datasets started
+	 *         or planned so far are written, or NaN if no block was written
+	 *         yet
+	 */
+	public double getEtaSeconds() {
+
+		final long done = getBlocksDone();
+		if (done == 0)
+			return Double.NaN;
+
+		final long remaining = Math.max(0, getExpectedBlocks() - done);
+		return getElapsedSeconds() * remaining / done;
+	}
+
+	/**
+	 * @return the fraction of expected blocks written or skipped so far
+	 */
+	public double getProgress() {
+
+		final long expected = getExpectedBlocks();
+		return expected > 0 ? Math.min(1.0, (double)getBlocksDone() / expected) : 0;
+	}
+
+	/**
+	 * Creates a listener that shows the progress in the ImageJ progress bar
+	 * and a summary of these metrics in the status bar, at most twice per
+	 * second.
+	 *
+	 * @return the listener
+	 */
+	public static Listener statusBarListener() {
+
+		final AtomicLong lastUpdate = new AtomicLong();
+		return (metrics, dataset) -> {
+
+			final long now = System.currentTimeMillis();
+			final long last = lastUpdate.get();
+			if (!dataset.isFinished() && now - last < STATUS_INTERVAL_MILLIS)
+				return;
+
+			if (!lastUpdate.compareAndSet(last, now))
+				return;
+
+			IJ.showProgress(metrics.getProgress());
+			IJ.showStatus(String.format("Writing %s: %d/%d blocks, %s",
+					dataset.getDataset(), dataset.getBlocksDone(), dataset.getExpectedBlocks(), metrics));
+		};
+	}
+
+	private void notifyListeners(final DatasetMetrics dataset) {
+
+		for (final Listener l : listeners)
+			l.progress(this, dataset);
+	}
+
+	@Override
+	public String toString() {
+
+		final double eta = getEtaSeconds();
+		final double ratio = getCompressionRatio();
+		final long skipped = getBlocksSkipped();
+		return String.format("%d/%d blocks%s, %.1f MB in, %.1f MB/s%s%s",
+				getBlocksDone(), getExpectedBlocks(),
+				skipped == 0 ? "" : String.format(" (%d empty skipped)", skipped),
+				getBytesIn() / 1e6, getMegabytesPerSecond(),
+				Double.isNaN(ratio) ? "" : String.format(", ratio %.2f", ratio),
+				Double.isNaN(eta) ? "" : String.format(", ETA %.0f s", eta));
+	}
+
+}
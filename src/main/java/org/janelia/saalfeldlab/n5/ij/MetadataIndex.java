@@ -0,0 +1,505 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.janelia.saalfeldlab.n5.GsonN5Reader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.universe.N5DatasetDiscoverer;
+import org.janelia.saalfeldlab.n5.universe.N5TreeNode;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5DatasetMetadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5Metadata;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+
+import ij.Prefs;
+
+/**
+ * Remembers the tree of groups and datasets of every container that was
+ * opened, so that opening a single dataset of a known container does not
+ * list the whole container again.
+ * <p>
+ * The index of a container is stored in a small gzipped file in the ImageJ
+ * preferences directory, keyed by the URI of the container. Only the
+ * structure is stored, metadata are always parsed from the container: for a
+ * known dataset, only its ancestors, its siblings and its descendants are
+ * parsed, which is what the group parsers need to find its metadata.
+ * <p>
+ * Every indexed group and dataset has a stamp, and the stamps of the nodes
+ * that are parsed for a dataset are checked whenever it is opened, except for
+ * its siblings while the stamp of its parent is unchanged, so that opening a
+ * dataset of a large remote group does not request every sibling. On the
+ * local file system, the stamp is the latest modification time of the
+ * attribute files of the node, and of its directory for groups, so that
+ * adding or removing a child changes the stamp of the group. For other
+ * containers, it is a hash of the attributes of the node, so that changed
+ * multiscale metadata are noticed, but children added to a group whose
+ * attributes are unchanged are only found once they are opened. If a stamp
+ * changed, or the dataset is not indexed, only the subtree below the
+ * outermost changed node, or below the closest indexed ancestor of the
+ * dataset, is listed again.
+ * <p>
+ * The index is off by default, because it writes to the ImageJ preferences
+ * directory, and is enabled with {@link #setEnabled(boolean)} or the
+ * {@value #ENABLED_PREFS_KEY} preference.
+ */
+public class MetadataIndex {
+
+	public static final String ENABLED_PREFS_KEY = "n5.metadataIndex";
+
+	private static final String DIRECTORY_NAME = "n5-metadata-index";
+
+	private static final String[] HEADER_FILES = new String[]{"attributes.json", ".zattrs", ".zgroup", ".zarray", "zarr.json"};
+
+	private static final long UNKNOWN_STAMP = -1;
+
+	private static MetadataIndex defaultIndex;
+
+	private static class Entry {
+
+		private String uri;
+
+		// normalized, parents before their children, without the root
+		private List<String> paths;
+
+		private List<String> datasets;
+
+		private Map<String, Long> stamps;
+	}
+
+	private final File directory;
+
+	private final Gson gson = new Gson();
+
+	private long hits;
+
+	private long misses;
+
+	/**
+	 * @param directory
+	 *            the directory the indexes are stored in
+	 */
+	public MetadataIndex(final File directory) {
+
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the index stored in the ImageJ preferences directory
+	 */
+	public static synchronized MetadataIndex getDefault() {
+
+		if (defaultIndex == null)
+			defaultIndex = new MetadataIndex(new File(Prefs.getPrefsDir(), DIRECTORY_NAME));
+
+		return defaultIndex;
+	}
+
+	/**
+	 * @return whether the importer uses the default index
+	 */
+	public static boolean isEnabled() {
+
+		return Prefs.get(ENABLED_PREFS_KEY, false);
+	}
+
+	/**
+	 * Sets whether the importer uses the default index, stored in the ImageJ
+	 * preferences.
+	 *
+	 * @param enabled
+	 *            whether to use the index
+	 */
+	public static void setEnabled(final boolean enabled) {
+
+		Prefs.set(ENABLED_PREFS_KEY, enabled);
+	}
+
+	/**
+	 * Finds the metadata of a dataset, listing only the parts of the
+	 * container that are not known or out of date.
+	 *
+	 * @param n5
+	 *            the container
+	 * @param discoverer
+	 *            the discoverer with the parsers for the container
+	 * @param dataset
+	 *            the dataset
+	 * @return the metadata, or null if the dataset has none
+	 * @throws IOException
+	 *             the container could not be crawled
+	 * @throws InterruptedException
+	 *             interrupted
+	 * @throws ExecutionException
+	 *             the metadata could not be parsed
+	 */
+	public N5Metadata find(final N5Reader n5, final N5DatasetDiscoverer discoverer, final String dataset)
+			throws IOException, InterruptedException, ExecutionException {
+
+		final String uri = n5.getURI().toString();
+		final String normalized = DatasetResolver.normalize(dataset);
+
+		Entry entry = read(uri);
+		if (entry == null) {
+			entry = new Entry();
+			entry.uri = uri;
+			entry.paths = new ArrayList<>();
+			entry.datasets = new ArrayList<>();
+			entry.stamps = new HashMap<>();
+		}
+
+		/*
+		 * List again below the outermost node of the branch whose stamp
+		 * changed, and below the closest indexed ancestor of a dataset that is
+		 * not indexed. The root has no stamp in a new or outdated index.
+		 */
+		String stale = null;
+		final Set<String> indexed = new HashSet<>(entry.paths);
+		if (!normalized.isEmpty() && !indexed.contains(normalized)) {
+			stale = normalized;
+			while (!stale.isEmpty() && !indexed.contains(stale))
+				stale = parent(stale);
+		}
+
+		/*
+		 * The parent is checked before its children, because parents are
+		 * indexed first. Siblings are only checked if the parent changed.
+		 */
+		final String parent = parent(normalized);
+		boolean parentUnchanged = false;
+		final Set<String> datasets = new HashSet<>(entry.datasets);
+		for (final String path : branchPaths(entry.paths, normalized)) {
+			if (stale != null && isWithin(path, stale))
+				continue;
+
+			final boolean sibling = !normalized.isEmpty() && !path.equals(normalized) && parent(path).equals(parent);
+			if (sibling && parentUnchanged)
+				continue;
+
+			final Long stamp = entry.stamps.get(path);
+			if (stamp == null || stamp != stamp(n5, path, datasets.contains(path)))
+				stale = stale == null ? path : commonAncestor(stale, path);
+			else if (path.equals(parent))
+				parentUnchanged = true;
+		}
+
+		if (stale != null) {
+			update(n5, discoverer, entry, stale);
+			write(entry);
+		}
+
+		synchronized (this) {
+			if (stale == null)
+				hits++;
+			else
+				misses++;
+		}
+
+		final N5TreeNode root = branch(entry.paths, normalized);
+		if (root == null)
+			return null;
+
+		discoverer.parseMetadataRecursive(root, x -> {});
+		return metadata(root, normalized);
+	}
+
+	public synchronized long getHits() {
+
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+
+		return misses;
+	}
+
+	/**
+	 * Lists the subtree below a node again and replaces it and its stamps in
+	 * the index.
+	 */
+	private static void update(final N5Reader n5, final N5DatasetDiscoverer discoverer, final Entry entry, final String base)
+			throws IOException {
+
+		final N5TreeNode node = discoverer.discoverAndParseRecursive(base);
+
+		final List<String> paths = new ArrayList<>();
+		final List<String> datasets = new ArrayList<>();
+		addPaths(node, paths, datasets);
+
+		// the node itself is kept, unless it no longer exists
+		final boolean exists = base.isEmpty() || n5.exists(base);
+		final List<String> updated = new ArrayList<>();
+		boolean inserted = false;
+		for (final String path : entry.paths) {
+			if (!isWithin(path, base)) {
+				updated.add(path);
+			} else if (path.equals(base) && exists) {
+				updated.add(path);
+				updated.addAll(paths);
+				inserted = true;
+			}
+		}
+		if (!inserted && exists) {
+			// a new node below the parents that are indexed
+			if (!base.isEmpty())
+				insertAncestors(updated, base);
+			updated.addAll(paths);
+		}
+
+		final Set<String> updatedSet = new HashSet<>(updated);
+		entry.paths = updated;
+		entry.datasets.removeIf(p -> isWithin(p, base) || !updatedSet.contains(p));
+		entry.datasets.addAll(datasets);
+		if (node.getMetadata() instanceof N5DatasetMetadata && !base.isEmpty())
+			entry.datasets.add(base);
+
+		final Set<String> datasetSet = new HashSet<>(entry.datasets);
+		entry.stamps.keySet().removeIf(p -> isWithin(p, base) || (!p.isEmpty() && !updatedSet.contains(p)));
+		if (exists)
+			entry.stamps.put(base, stamp(n5, base, datasetSet.contains(base)));
+		for (final String path : paths)
+			entry.stamps.put(path, stamp(n5, path, datasetSet.contains(path)));
+	}
+
+	/**
+	 * Adds the ancestors of a path that are not indexed yet, and the path
+	 * itself, in order.
+	 */
+	private static void insertAncestors(final List<String> paths, final String path) {
+
+		final List<String> missing = new ArrayList<>();
+		for (String p = path; !p.isEmpty() && !paths.contains(p); p = parent(p))
+			missing.add(0, p);
+
+		paths.addAll(missing);
+	}
+
+	/**
+	 * @return the paths of the indexed tree that the metadata of a dataset
+	 *         depend on, see {@link #branch}, and the root
+	 */
+	private static List<String> branchPaths(final List<String> paths, final String dataset) {
+
+		final List<String> branch = new ArrayList<>();
+		branch.add("");
+		final String parent = parent(dataset);
+		for (final String p : paths)
+			if (isNeeded(p, dataset, parent))
+				branch.add(p);
+
+		return branch;
+	}
+
+	/**
+	 * Builds the part of the indexed tree that the metadata of a dataset
+	 * depend on: its ancestors, the children of its parent, and all of its
+	 * descendants.
+	 *
+	 * @return the root of the branch, or null if the dataset is not indexed
+	 */
+	private static N5TreeNode branch(final List<String> paths, final String dataset) {
+
+		if (!dataset.isEmpty() && !paths.contains(dataset))
+			return null;
+
+		final String parent = parent(dataset);
+		final Map<String, N5TreeNode> nodes = new HashMap<>();
+		final N5TreeNode root = new N5TreeNode("");
+		nodes.put("", root);
+
+		// parents are listed before their children
+		for (final String p : paths) {
+
+			final N5TreeNode parentNode = nodes.get(parent(p));
+			if (isNeeded(p, dataset, parent) && parentNode != null) {
+				final N5TreeNode node = new N5TreeNode(p);
+				parentNode.childrenList().add(node);
+				nodes.put(p, node);
+			}
+		}
+		return root;
+	}
+
+	private static boolean isNeeded(final String p, final String dataset, final String parent) {
+
+		return dataset.startsWith(p + "/")
+				|| parent(p).equals(parent)
+				|| p.equals(dataset)
+				|| dataset.isEmpty() || p.startsWith(dataset + "/");
+	}
+
+	private static void addPaths(final N5TreeNode node, final List<String> paths, final List<String> datasets) {
+
+		for (final N5TreeNode child : node.childrenList()) {
+			final String p = DatasetResolver.normalize(child.getPath());
+			paths.add(p);
+			if (child.getMetadata() instanceof N5DatasetMetadata)
+				datasets.add(p);
+
+			addPaths(child, paths, datasets);
+		}
+	}
+
+	private static N5Metadata metadata(final N5TreeNode root, final String dataset) {
+
+		return root.getDescendant(dataset).map(N5TreeNode::getMetadata).orElse(null);
+	}
+
+	private static String parent(final String normalizedPath) {
+
+		final int i = normalizedPath.lastIndexOf('/');
+		return i < 0 ? "" : normalizedPath.substring(0, i);
+	}
+
+	/**
+	 * @return true if a path is the base or one of its descendants
+	 */
+	private static boolean isWithin(final String path, final String base) {
+
+		return base.isEmpty() || path.equals(base) || path.startsWith(base + "/");
+	}
+
+	private static String commonAncestor(final String a, final String b) {
+
+		String ancestor = a;
+		while (!isWithin(b, ancestor))
+			ancestor = parent(ancestor);
+
+		return ancestor;
+	}
+
+	/**
+	 * @return the stamp of a group or dataset, {@link #UNKNOWN_STAMP} if it
+	 *         does not exist, or 0 if it can not be checked
+	 */
+	private static long stamp(final N5Reader n5, final String path, final boolean dataset) {
+
+		try {
+			final URI uri = n5.getURI();
+			if ("file".equals(uri.getScheme())) {
+				final Path root = Paths.get(uri);
+
+				// a single file, e.g. hdf5, changes as a whole
+				if (!Files.isDirectory(root))
+					return Files.getLastModifiedTime(root).toMillis();
+
+				final Path node = path.isEmpty() ? root : root.resolve(path);
+				if (!Files.isDirectory(node))
+					return UNKNOWN_STAMP;
+
+				// the directory of a dataset changes with every chunk written
+				long stamp = dataset ? 0 : Files.getLastModifiedTime(node).toMillis();
+				for (final String name : HEADER_FILES) {
+					final Path file = node.resolve(name);
+					if (Files.exists(file))
+						stamp = Math.max(stamp, Files.getLastModifiedTime(file).toMillis());
+				}
+				return stamp;
+			}
+
+			if (n5 instanceof GsonN5Reader) {
+				if (!n5.exists(path))
+					return UNKNOWN_STAMP;
+
+				final JsonElement attributes = ((GsonN5Reader)n5).getAttributes(path);
+				final String json = attributes == null ? "" : attributes.toString();
+				return UUID.nameUUIDFromBytes(json.getBytes(StandardCharsets.UTF_8)).getMostSignificantBits();
+			}
+			return 0;
+		} catch (final IOException | RuntimeException e) {
+			return UNKNOWN_STAMP;
+		}
+	}
+
+	private File file(final String uri) {
+
+		return new File(directory, UUID.nameUUIDFromBytes(uri.getBytes(StandardCharsets.UTF_8)) + ".json.gz");
+	}
+
+	private Entry read(final String uri) {
+
+		final File file = file(uri);
+		if (!file.isFile())
+			return null;
+
+		try (final Reader reader = new InputStreamReader(new GZIPInputStream(Files.newInputStream(file.toPath())), StandardCharsets.UTF_8)) {
+			final Entry entry = gson.fromJson(reader, Entry.class);
+			// indexes without stamps are listed again
+			return entry != null && uri.equals(entry.uri) && entry.paths != null && entry.datasets != null && entry.stamps != null
+					? entry
+					: null;
+		} catch (final IOException | JsonParseException e) {
+			return null;
+		}
+	}
+
+	private void write(final Entry entry) {
+
+		final File file = file(entry.uri);
+		Path tmp = null;
+		try {
+			Files.createDirectories(directory.toPath());
+
+			// replace the index at once, so that concurrent imports never read a partial file
+			tmp = Files.createTempFile(directory.toPath(), "index", ".tmp");
+			try (final Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8)) {
+				gson.toJson(entry, writer);
+			}
+			Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final IOException e) {
+			// the container is crawled again next time
+			try {
+				if (tmp != null)
+					Files.deleteIfExists(tmp);
+			} catch (final IOException ignore) {}
+		}
+	}
+
+}
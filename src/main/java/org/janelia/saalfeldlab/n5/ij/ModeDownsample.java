@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.util.Arrays;
+
+/**
+ * Downsamples label images by replacing every window of the source with its
+ * most frequent value, so that no new label ids are created and thin
+ * structures are kept where sampling would skip them.
+ * <p>
+ * Values are compared by their bits. Ties are resolved in favor of the
+ * smallest value, with integers ordered as unsigned values, the order of the
+ * unsigned types exported from ImageJ, and floating point values ordered by
+ * their bit pattern. Windows at the end of the source that are cut off by its
+ * border only count the values inside of it.
+ */
+public final class ModeDownsample {
+
+	private ModeDownsample() {}
+
+	/**
+	 * Downsamples a flattened primitive array.
+	 *
+	 * @param src
+	 *            the source array
+	 * @param srcSize
+	 *            the dimensions of the source array
+	 * @param dest
+	 *            the destination array, of the same primitive type as src
+	 * @param destSize
+	 *            the dimensions of the destination array
+	 * @param factors
+	 *            the downsampling factors
+	 */
+	public static void downsample(
+			final Object src,
+			final int[] srcSize,
+			final Object dest,
+			final int[] destSize,
+			final int[] factors) {
+
+		final int nd = destSize.length;
+		final long[] values = toLongs(src);
+		final long[] modes = new long[PrimitiveArrays.numElements(destSize)];
+		final int[] srcStrides = PrimitiveArrays.strides(srcSize);
+
+		final long[] window = new long[PrimitiveArrays.numElements(factors)];
+		final int[] windowSize = new int[nd];
+		final int[] windowPos = new int[nd];
+		final int[] pos = new int[nd];
+		for (int o = 0; o < modes.length; o++) {
+
+			int offset = 0;
+			for (int d = 0; d < nd; d++) {
+				final int min = Math.min(pos[d] * factors[d], srcSize[d] - 1);
+				windowSize[d] = Math.min(factors[d], srcSize[d] - min);
+				offset += min * srcStrides[d];
+			}
+
+			// gather the window, first dimension fastest
+			final int n = PrimitiveArrays.numElements(windowSize);
+			Arrays.fill(windowPos, 0);
+			int i = offset;
+			for (int w = 0; w < n; w++) {
+				window[w] = values[i];
+				for (int d = 0; d < nd; d++) {
+					i += srcStrides[d];
+					if (++windowPos[d] < windowSize[d])
+						break;
+					i -= windowSize[d] * srcStrides[d];
+					windowPos[d] = 0;
+				}
+			}
+			modes[o] = mode(window, n);
+
+			for (int d = 0; d < nd; d++) {
+				if (++pos[d] < destSize[d])
+					break;
+				pos[d] = 0;
+			}
+		}
+		fromLongs(modes, dest);
+	}
+
+	private static long mode(final long[] window, final int n) {
+
+		// most windows of label images hold a single label
+		final long first = window[0];
+		int i = 1;
+		while (i < n && window[i] == first)
+			i++;
+
+		if (i == n)
+			return first;
+
+		Arrays.sort(window, 0, n);
+		long mode = window[0];
+		int maxCount = 0;
+		int start = 0;
+		for (int j = 1; j <= n; j++) {
+			if (j == n || window[j] != window[start]) {
+				if (j - start > maxCount) {
+					maxCount = j - start;
+					mode = window[start];
+				}
+				start = j;
+			}
+		}
+		return mode;
+	}
+
+	/**
+	 * Widens values to longs that sort in the order of the values, as
+	 * unsigned values. The sign bit of 64-bit values is flipped, so that the
+	 * signed sort orders them as unsigned values.
+	 */
+	private static long[] toLongs(final Object data) {
+
+		if (data instanceof byte[]) {
+			final byte[] a = (byte[])data;
+			final long[] values = new long[a.length];
+			for (int i = 0; i < a.length; i++)
+				values[i] = a[i] & 0xffL;
+			return values;
+		} else if (data instanceof short[]) {
+			final short[] a = (short[])data;
+			final long[] values = new long[a.length];
+			for (int i = 0; i < a.length; i++)
+				values[i] = a[i] & 0xffffL;
+			return values;
+		} else if (data instanceof int[]) {
+			final int[] a = (int[])data;
+			final long[] values = new long[a.length];
+			for (int i = 0; i < a.length; i++)
+				values[i] = a[i] & 0xffffffffL;
+			return values;
+		} else if (data instanceof long[]) {
+			final long[] a = (long[])data;
+			final long[] values = new long[a.length];
+			for (int i = 0; i < a.length; i++)
+				values[i] = a[i] ^ Long.MIN_VALUE;
+			return values;
+		} else if (data instanceof float[]) {
+			final float[] a = (float[])data;
+			final long[] values = new long[a.length];
+			for (int i = 0; i < a.length; i++)
+				values[i] = Float.floatToIntBits(a[i]) & 0xffffffffL;
+			return values;
+		} else if (data instanceof double[]) {
+			final double[] a = (double[])data;
+			final long[] values = new long[a.length];
+			for (int i = 0; i < a.length; i++)
+				values[i] = Double.doubleToLongBits(a[i]) ^ Long.MIN_VALUE;
+			return values;
+		} else
+			throw new IllegalArgumentException("Unsupported array type: " + data.getClass());
+	}
+
+	private static void fromLongs(final long[] values, final Object data) {
+
+		if (data instanceof byte[]) {
+			final byte[] a = (byte[])data;
+			for (int i = 0; i < values.length; i++)
+				a[i] = (byte)values[i];
+		} else if (data instanceof short[]) {
+			final short[] a = (short[])data;
+			for (int i = 0; i < values.length; i++)
+				a[i] = (short)values[i];
+		} else if (data instanceof int[]) {
+			final int[] a = (int[])data;
+			for (int i = 0; i < values.length; i++)
+				a[i] = (int)values[i];
+		} else if (data instanceof long[]) {
+			final long[] a = (long[])data;
+			for (int i = 0; i < values.length; i++)
+				a[i] = values[i] ^ Long.MIN_VALUE;
+		} else if (data instanceof float[]) {
+			final float[] a = (float[])data;
+			for (int i = 0; i < values.length; i++)
+				a[i] = Float.intBitsToFloat((int)values[i]);
+		} else if (data instanceof double[]) {
+			final double[] a = (double[])data;
+			for (int i = 0; i < values.length; i++)
+				a[i] = Double.longBitsToDouble(values[i] ^ Long.MIN_VALUE);
+		} else
+			throw new IllegalArgumentException("Unsupported array type: " + data.getClass());
+	}
+
+}
@@ -0,0 +1,541 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.awt.GraphicsEnvironment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.Timer;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.universe.N5DatasetDiscoverer;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5CosemMultiScaleMetadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5DatasetMetadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5Metadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5MetadataGroup;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5ViewerMultiscaleMetadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.SpatialMetadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.ome.ngff.v04.OmeNgffMetadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.ome.ngff.v04.OmeNgffMultiScaleMetadata;
+
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.gui.ImageCanvas;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * A virtual stack backed by all levels of a scale pyramid.
+ * <p>
+ * The stack itself always serves the finest level: {@link #getProcessor(int)}
+ * and {@link #getPixels(int)} return full resolution planes, so duplicates,
+ * stack operations and macros that read the stack see the data. Once
+ * {@link #attach(ImagePlus) attached} and {@link #start() started}, the
+ * magnification of the window showing the stack is polled, and the processor
+ * of the image plus is replaced by the current plane of the coarsest level
+ * whose downsampling factors in x and y are no larger than one over the
+ * magnification, scaled to the size of the finest level with nearest neighbor
+ * interpolation. The finest plane is shown again when the user zooms in.
+ * <p>
+ * The coarse levels are meant for browsing only, so the stack is opt-in, see
+ * {@link N5Importer#setMultiscaleVirtual(boolean)}. While a coarse plane is
+ * shown, the image plus has the {@value #DISPLAY_LEVEL_PROPERTY} property,
+ * the index of the shown level, because measurements and histograms of its
+ * processor see the upsampled pixels. Changing the slice reads the finest
+ * level again. Images that are not shown always show the finest level.
+ * <p>
+ * All levels must have the same axis order as the finest one. Planes are
+ * ordered as in {@link net.imglib2.img.display.imagej.ImageJFunctions#wrap},
+ * stack index n is the flat position n-1 of dimensions 2 and up of the finest
+ * level.
+ *
+ * @param <T>
+ *            the image data type
+ */
+public class MultiscaleVirtualStack<T extends NumericType<T> & NativeType<T>> extends VirtualStack {
+
+	/**
+	 * The property of the image plus that holds the index of the level that
+	 * is shown, while it is not the finest.
+	 */
+	public static final String DISPLAY_LEVEL_PROPERTY = "n5.displayLevel";
+
+	private static final int REFRESH_MILLIS = 250;
+
+	/**
+	 * Tolerance for factors computed from rounded dimensions, e.g. 2.02 for
+	 * a level of size 99 below one of size 200.
+	 */
+	private static final double FACTOR_TOLERANCE = 1.05;
+
+	private final List<RandomAccessibleInterval<T>> levels;
+
+	private final List<double[]> factors;
+
+	private final long[] planeDimensions;
+
+	private final int bitDepth;
+
+	private ImagePlus imp;
+
+	private Timer refreshTimer;
+
+	private int displayedLevel = 0;
+
+	// the pixels of the coarse plane that is shown, to notice when the image reloads a plane
+	private Object displayedPixels;
+
+	/**
+	 * @param levels
+	 *            the images of all levels, finest first
+	 * @param factors
+	 *            the downsampling factors of each level relative to the
+	 *            first
+	 */
+	public MultiscaleVirtualStack(final List<RandomAccessibleInterval<T>> levels, final List<double[]> factors) {
+
+		super((int)levels.get(0).dimension(0), (int)levels.get(0).dimension(1), null, null);
+		this.levels = levels;
+		this.factors = factors;
+
+		final RandomAccessibleInterval<T> s0 = levels.get(0);
+		final int nd = s0.numDimensions();
+		planeDimensions = new long[Math.max(0, nd - 2)];
+		for (int d = 2; d < nd; d++)
+			planeDimensions[d - 2] = s0.dimension(d);
+
+		final Object storage = createPlane(s0, 1, 1).update(null).getCurrentStorageArray();
+		if (storage instanceof byte[])
+			bitDepth = 8;
+		else if (storage instanceof short[])
+			bitDepth = 16;
+		else if (storage instanceof float[])
+			bitDepth = 32;
+		else
+			throw new IllegalArgumentException("Unsupported type " + Util.getTypeFromInterval(s0).getClass().getSimpleName());
+	}
+
+	/**
+	 * Opens the given dataset and all coarser levels of the pyramid it
+	 * belongs to, see {@link #discoverLevels}.
+	 *
+	 * @param <T>
+	 *            the image data type
+	 * @param n5
+	 *            the n5 reader
+	 * @param dataset
+	 *            the finest level
+	 * @return the stack, or null if the dataset has no coarser levels
+	 */
+	public static <T extends NumericType<T> & NativeType<T>> MultiscaleVirtualStack<T> open(final N5Reader n5, final String dataset) {
+
+		final List<String> paths = new ArrayList<>();
+		final List<double[]> factors = new ArrayList<>();
+		discoverLevels(n5, dataset, paths, factors);
+		if (paths.size() < 2)
+			return null;
+
+		final SharedBlockCache cache = SharedBlockCache.getDefault();
+		final List<RandomAccessibleInterval<T>> levels = new ArrayList<>();
+		for (final String path : paths) {
+			if (cache.getMaxBytes() > 0)
+				levels.add(cache.open(n5, path));
+			else
+				levels.add(N5Utils.open(n5, path));
+		}
+		return new MultiscaleVirtualStack<>(levels, factors);
+	}
+
+	/**
+	 * Finds the levels of the pyramid below a dataset, from the OME-NGFF, N5
+	 * Viewer or COSEM multiscale metadata of its parent group. Levels are
+	 * sorted from finest to coarsest, starting with the dataset itself. The
+	 * downsampling factors in x and y are taken from the transforms of the
+	 * levels, and those of other dimensions, or of levels without a
+	 * transform, are estimated from the ratio of their dimensions. Coarser
+	 * levels must have the same number of dimensions and data type, and no
+	 * dimension larger than that of the given dataset.
+	 * <p>
+	 * Only the dataset itself is found if its parent is not a multiscale
+	 * group.
+	 *
+	 * @param n5
+	 *            the n5 reader
+	 * @param dataset
+	 *            the finest level
+	 * @param paths
+	 *            receives the paths of the levels
+	 * @param factors
+	 *            receives the downsampling factors of the levels
+	 */
+	public static void discoverLevels(final N5Reader n5, final String dataset, final List<String> paths, final List<double[]> factors) {
+
+		final String normalized = DatasetResolver.normalize(dataset);
+		final DatasetAttributes s0 = n5.getDatasetAttributes(normalized);
+		final long[] s0Dims = s0.getDimensions();
+
+		final double[] ones = new double[s0Dims.length];
+		Arrays.fill(ones, 1);
+		paths.add(normalized);
+		factors.add(ones);
+
+		final List<N5Metadata> levels = multiscaleLevels(n5, normalized);
+		N5Metadata s0Level = null;
+		for (final N5Metadata level : levels)
+			if (DatasetResolver.normalize(level.getPath()).equals(normalized))
+				s0Level = level;
+
+		if (s0Level == null)
+			return;
+
+		final double[] s0Scales = scales(s0Level);
+		final List<String> candidates = new ArrayList<>();
+		final List<double[]> candidateFactors = new ArrayList<>();
+		for (final N5Metadata level : levels) {
+
+			final String path = DatasetResolver.normalize(level.getPath());
+			if (level == s0Level || !(level instanceof N5DatasetMetadata))
+				continue;
+
+			final DatasetAttributes attrs = ((N5DatasetMetadata)level).getAttributes();
+			if (attrs == null || attrs.getDataType() != s0.getDataType() || attrs.getNumDimensions() != s0Dims.length)
+				continue;
+
+			final long[] dims = attrs.getDimensions();
+			final double[] scales = scales(level);
+			final double[] f = new double[dims.length];
+			boolean coarser = false;
+			boolean valid = true;
+			for (int d = 0; d < dims.length; d++) {
+				if (dims[d] > s0Dims[d] || dims[d] <= 0) {
+					valid = false;
+					break;
+				}
+				if (d < 2 && s0Scales != null && scales != null && d < scales.length && s0Scales[d] > 0 && scales[d] > 0)
+					f[d] = scales[d] / s0Scales[d];
+				else
+					f[d] = (double)s0Dims[d] / dims[d];
+
+				coarser |= dims[d] < s0Dims[d];
+			}
+
+			if (valid && coarser) {
+				candidates.add(path);
+				candidateFactors.add(f);
+			}
+		}
+
+		final Integer[] order = new Integer[candidates.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+
+		Arrays.sort(order, Comparator.comparingDouble(i -> candidateFactors.get(i)[0] * candidateFactors.get(i)[1]));
+		for (final int i : order) {
+			paths.add(candidates.get(i));
+			factors.add(candidateFactors.get(i));
+		}
+	}
+
+	/**
+	 * Parses the metadata of the parent group of a dataset with the parsers
+	 * of the importer.
+	 *
+	 * @return the levels of the multiscale group containing the dataset, or
+	 *         an empty list if the parent is not a multiscale group
+	 */
+	private static List<N5Metadata> multiscaleLevels(final N5Reader n5, final String dataset) {
+
+		final int lastSlash = dataset.lastIndexOf('/');
+		if (lastSlash < 0)
+			return Collections.emptyList();
+
+		final N5DatasetDiscoverer discoverer = new N5DatasetDiscoverer(n5,
+				N5DatasetDiscoverer.fromParsers(N5Importer.PARSERS),
+				Arrays.asList(N5Importer.GROUP_PARSERS));
+
+		final N5Metadata group;
+		try {
+			group = DatasetResolver.resolve(n5, discoverer, dataset.substring(0, lastSlash));
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Collections.emptyList();
+		} catch (final ExecutionException e) {
+			return Collections.emptyList();
+		}
+
+		final List<N5MetadataGroup<?>> multiscales = new ArrayList<>();
+		if (group instanceof OmeNgffMetadata)
+			multiscales.addAll(Arrays.asList(((OmeNgffMetadata)group).multiscales));
+		else if (group instanceof OmeNgffMultiScaleMetadata || group instanceof N5ViewerMultiscaleMetadata ||
+				group instanceof N5CosemMultiScaleMetadata)
+			multiscales.add((N5MetadataGroup<?>)group);
+
+		for (final N5MetadataGroup<?> multiscale : multiscales) {
+			final List<N5Metadata> levels = new ArrayList<>();
+			for (final N5Metadata level : multiscale.getChildrenMetadata())
+				if (level != null)
+					levels.add(level);
+
+			for (final N5Metadata level : levels)
+				if (DatasetResolver.normalize(level.getPath()).equals(dataset))
+					return levels;
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * @return the diagonal of the spatial transform of a level, or null
+	 */
+	private static double[] scales(final N5Metadata level) {
+
+		if (!(level instanceof SpatialMetadata))
+			return null;
+
+		final AffineGet transform = ((SpatialMetadata)level).spatialTransform();
+		if (transform == null)
+			return null;
+
+		final double[] scales = new double[transform.numDimensions()];
+		for (int d = 0; d < scales.length; d++)
+			scales[d] = transform.get(d, d);
+
+		return scales;
+	}
+
+	/**
+	 * Selects the coarsest level that still has at least one pixel per screen
+	 * pixel in x and y.
+	 *
+	 * @param factors
+	 *            the downsampling factors of each level, finest first
+	 * @param magnification
+	 *            the magnification of the display
+	 * @return the index of the level
+	 */
+	public static int selectLevel(final List<double[]> factors, final double magnification) {
+
+		final double maxFactor = FACTOR_TOLERANCE / magnification;
+		int level = 0;
+		for (int i = 1; i < factors.size(); i++) {
+			final double[] f = factors.get(i);
+			if (f[0] <= maxFactor && f[1] <= maxFactor)
+				level = i;
+		}
+		return level;
+	}
+
+	/**
+	 * Sets the image plus whose magnification selects the level.
+	 *
+	 * @param imp
+	 *            the image plus showing this stack
+	 */
+	public void attach(final ImagePlus imp) {
+
+		this.imp = imp;
+	}
+
+	/**
+	 * Shows the current plane of a finer or coarser level when the
+	 * magnification of the attached image changes, and stops when it is
+	 * closed. Does nothing unless the image is shown, since images that are
+	 * never shown are never closed, and the timer and the listener would keep
+	 * them for the life of the JVM.
+	 */
+	public void start() {
+
+		if (GraphicsEnvironment.isHeadless() || imp == null || imp.getWindow() == null || refreshTimer != null)
+			return;
+
+		refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh());
+		refreshTimer.start();
+		ImagePlus.addImageListener(new ImageListener() {
+
+			@Override
+			public void imageOpened(final ImagePlus imp) {}
+
+			@Override
+			public void imageUpdated(final ImagePlus imp) {}
+
+			@Override
+			public void imageClosed(final ImagePlus closed) {
+
+				if (closed == imp) {
+					refreshTimer.stop();
+					ImagePlus.removeImageListener(this);
+				}
+			}
+		});
+	}
+
+	private void refresh() {
+
+		if (imp == null || imp.getCanvas() == null)
+			return;
+
+		// the image reads the finest level from the stack when the slice changes
+		final ImageProcessor current = imp.getProcessor();
+		if (displayedLevel > 0 && current.getPixels() != displayedPixels)
+			setDisplayedLevel(0, null);
+
+		final int level = selectLevel(factors, magnification());
+		if (level == displayedLevel)
+			return;
+
+		final ImageProcessor ip = getProcessor(imp.getCurrentSlice(), level);
+		ip.setMinAndMax(current.getMin(), current.getMax());
+		imp.setProcessor(ip);
+		setDisplayedLevel(level, ip.getPixels());
+		imp.updateAndDraw();
+	}
+
+	private void setDisplayedLevel(final int level, final Object pixels) {
+
+		displayedLevel = level;
+		displayedPixels = level == 0 ? null : pixels;
+		imp.setProperty(DISPLAY_LEVEL_PROPERTY, level == 0 ? null : level);
+	}
+
+	private double magnification() {
+
+		final ImageCanvas canvas = imp == null ? null : imp.getCanvas();
+		return canvas == null ? 1.0 : canvas.getMagnification();
+	}
+
+	public int getNumLevels() {
+
+		return levels.size();
+	}
+
+	@Override
+	public ImageProcessor getProcessor(final int n) {
+
+		return getProcessor(n, 0);
+	}
+
+	/**
+	 * Reads a plane from the given level, scaled to the size of the finest
+	 * level.
+	 *
+	 * @param n
+	 *            the stack index, starting at 1
+	 * @param level
+	 *            the level
+	 * @return the processor
+	 */
+	public ImageProcessor getProcessor(final int n, final int level) {
+
+		final RandomAccessibleInterval<T> img = levels.get(level);
+		final double[] f = factors.get(level);
+
+		final long[] planePosition = new long[planeDimensions.length];
+		IntervalIndexer.indexToPosition(n - 1, planeDimensions, planePosition);
+
+		RandomAccessibleInterval<T> slice = img;
+		for (int d = img.numDimensions() - 1; d >= 2; d--) {
+			final long pos = Math.min((long)(planePosition[d - 2] / f[d]), img.dimension(d) - 1);
+			slice = Views.hyperSlice(slice, d, img.min(d) + pos);
+		}
+
+		final int w = (int)img.dimension(0);
+		final int h = (int)img.dimension(1);
+		final ArrayImg<T, ? extends ArrayDataAccess<?>> plane = createPlane(img, w, h);
+		LoopBuilder.setImages(Views.zeroMin(slice), plane).forEachPixel((x, y) -> y.set(x));
+
+		ImageProcessor ip = processor(w, h, plane.update(null).getCurrentStorageArray());
+		if (w != getWidth() || h != getHeight()) {
+			ip.setInterpolationMethod(ImageProcessor.NONE);
+			ip = ip.resize(getWidth(), getHeight());
+		}
+		return ip;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <T extends NativeType<T>> ArrayImg<T, ? extends ArrayDataAccess<?>> createPlane(final RandomAccessibleInterval<T> img, final int w, final int h) {
+
+		return (ArrayImg)new ArrayImgFactory<>(Util.getTypeFromInterval(img)).create(w, h);
+	}
+
+	private static ImageProcessor processor(final int w, final int h, final Object pixels) {
+
+		if (pixels instanceof byte[])
+			return new ByteProcessor(w, h, (byte[])pixels);
+		else if (pixels instanceof short[])
+			return new ShortProcessor(w, h, (short[])pixels, null);
+		else
+			return new FloatProcessor(w, h, (float[])pixels);
+	}
+
+	@Override
+	public Object getPixels(final int n) {
+
+		return getProcessor(n).getPixels();
+	}
+
+	@Override
+	public int getSize() {
+
+		int size = 1;
+		for (final long d : planeDimensions)
+			size *= d;
+
+		return size;
+	}
+
+	@Override
+	public String getSliceLabel(final int n) {
+
+		return null;
+	}
+
+	@Override
+	public int getBitDepth() {
+
+		return bitDepth;
+	}
+
+}
@@ -53,6 +53,8 @@ import net.imglib2.img.cell.LazyCellImg;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.img.imageplus.ImagePlusImg;
 import net.imglib2.img.imageplus.ImagePlusImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.parallel.DefaultTaskExecutor;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.NumericType;
@@ -131,14 +133,58 @@ public class N5IJUtils {
 	 * @throws ImgLibException
 	 *             imglib2 exception
 	 */
-	@SuppressWarnings({"unchecked", "rawtypes"})
 	public static <T extends NativeType<T> & NumericType<T>, M extends N5DatasetMetadata, W extends N5MetadataParser<M>, I extends ImageplusMetadata<M>> ImagePlus load(
 			final N5Reader n5,
 			final String dataset,
 			final W metaReader,
 			final I ipMeta) throws IOException, ImgLibException {
 
+		return load(n5, dataset, metaReader, ipMeta, null);
+	}
+
+	/**
+	 * Loads and N5 dataset into an {@link ImagePlus}. Other than
+	 * {@link N5Utils#open(N5Reader, String)} which uses {@link LazyCellImg}, the data is actually
+	 * loaded completely into memory.
+	 * <p>
+	 * Unless the axes have to be permuted for ImageJ, every block is read once and
+	 * copied directly into the planes of the ImagePlus, in parallel if an
+	 * {@link ExecutorService} is given.
+	 *
+	 * @param <T>
+	 *            the image data type.
+	 * @param <M>
+	 *            the metadata type
+	 * @param <W>
+	 *            the metadata parser type
+	 * @param <I>
+	 *            the image plus metadata writer type
+	 * @param n5
+	 *            the reader
+	 * @param dataset
+	 *            the dataset
+	 * @param metaReader
+	 *            an optional metadata reader
+	 * @param ipMeta
+	 *            an optional image plus metadata writer
+	 * @param exec
+	 *            an optional executor service to read blocks in parallel
+	 * @return the ImagePlus
+	 * @throws IOException
+	 *             io exception
+	 * @throws ImgLibException
+	 *             imglib2 exception
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static <T extends NativeType<T> & NumericType<T>, M extends N5DatasetMetadata, W extends N5MetadataParser<M>, I extends ImageplusMetadata<M>> ImagePlus load(
+			final N5Reader n5,
+			final String dataset,
+			final W metaReader,
+			final I ipMeta,
+			final ExecutorService exec) throws IOException, ImgLibException {
+
 		RandomAccessibleInterval<T> rai = N5Utils.open(n5, dataset);
+		boolean preservesOrder = true;
 		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
 		long[] dimensions = attributes.getDimensions();
 
@@ -152,6 +198,7 @@ public class N5IJUtils {
 					// this permutation will be applied to the image whose dimensions
 					// are padded to 5d with a canoni
 					final int[] p = AxisUtils.findImagePlusPermutation((AxisMetadata)metadata);
+					preservesOrder = BlockwiseLoader.preservesOrder(p);
 
 					final Pair<RandomAccessibleInterval<T>, M> res = AxisUtils.permuteImageAndMetadataForImagePlus(p, rai, metadata);
 					rai = res.getA();
@@ -191,8 +238,21 @@ public class N5IJUtils {
 			return null;
 		}
 
-		for (final Pair<T, T> pair : Views.flatIterable(Views.interval(Views.pair(rai, impImg), rai)))
-			pair.getB().set(pair.getA());
+		final int planeSize = BlockwiseLoader.planeSize(impImg);
+		if (preservesOrder && BlockwiseLoader.canLoad(attributes, null, planeSize)) {
+			try {
+				BlockwiseLoader.load(n5, dataset, attributes, null, BlockwiseLoader.planes(impImg), planeSize, exec, true);
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IOException("Failed to load " + dataset, e);
+			}
+		} else if (exec != null) {
+			LoopBuilder.setImages(rai, impImg)
+					.multiThreaded(new DefaultTaskExecutor(exec))
+					.forEachPixel((x, y) -> y.set(x));
+		} else {
+			for (final Pair<T, T> pair : Views.flatIterable(Views.interval(Views.pair(rai, impImg), rai)))
+				pair.getB().set(pair.getA());
+		}
 
 		final ImagePlus imp = impImg.getImagePlus();
 		if (metadata != null)
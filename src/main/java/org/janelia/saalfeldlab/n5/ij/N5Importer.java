@@ -36,6 +36,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Function;
@@ -45,11 +46,13 @@ import java.util.stream.Stream;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.N5Exception;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5URI;
 import org.janelia.saalfeldlab.n5.converters.LabelMultisetLongConverter;
 import org.janelia.saalfeldlab.n5.converters.UnsignedShortLUTConverter;
+import org.janelia.saalfeldlab.n5.converters.UnsignedShortLinearConverter;
 import org.janelia.saalfeldlab.n5.imglib2.N5LabelMultisets;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.janelia.saalfeldlab.n5.metadata.imagej.CanonicalMetadataToImagePlus;
@@ -59,6 +62,11 @@ import org.janelia.saalfeldlab.n5.metadata.imagej.ImageplusMetadata;
 import org.janelia.saalfeldlab.n5.metadata.imagej.N5ImagePlusMetadata;
 import org.janelia.saalfeldlab.n5.metadata.imagej.N5ViewerToImagePlus;
 import org.janelia.saalfeldlab.n5.metadata.imagej.NgffToImagePlus;
+import org.janelia.saalfeldlab.n5.statistics.ChunkStatistics;
+import org.janelia.saalfeldlab.n5.statistics.StatisticsSidecar;
+import org.janelia.saalfeldlab.n5.statistics.ValueRange;
+import org.janelia.saalfeldlab.n5.statistics.ValueRangeProvider;
+import org.janelia.saalfeldlab.n5.statistics.ValueRanges;
 import org.janelia.saalfeldlab.n5.ui.DataSelection;
 import org.janelia.saalfeldlab.n5.ui.DatasetSelectorDialog;
 import org.janelia.saalfeldlab.n5.ui.N5DatasetTreeCellRenderer;
@@ -100,7 +108,6 @@ import ij.process.ImageStatistics;
 import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.cache.img.CachedCellImg;
 import net.imglib2.converter.Converter;
 import net.imglib2.converter.Converters;
 import net.imglib2.converter.RealFloatConverter;
@@ -130,6 +137,9 @@ public class N5Importer implements PlugIn {
 	public static final String hideKey = "hide";
 	public static final String minKey = "min";
 	public static final String maxKey = "max";
+	public static final String fullScanKey = "fullScan";
+	public static final String sampleRangeKey = "sampleRange";
+	public static final String multiscaleKey = "multiscale";
 	public static final String COMMAND_NAME = "HDF5/N5/Zarr/OME-NGFF ... ";
 
 	public static final String BDV_OPTION = "BigDataViewer";
@@ -161,6 +171,9 @@ public class N5Importer implements PlugIn {
 
 	private static final Predicate<N5Metadata> ALL_PASS = x -> { return true; };
 
+	// the number of histogram bins the values of a dataset must cover to set the display range from its sidecar
+	private static final int MIN_SIDECAR_BINS = 16;
+
 	private N5Reader n5;
 
 	private DatasetSelectorDialog selectionDialog;
@@ -179,6 +192,10 @@ public class N5Importer implements PlugIn {
 
 	private boolean cropOption;
 
+	private ValueRangeProvider valueRangeProvider = ValueRanges.defaultProvider();
+
+	private boolean multiscaleVirtual;
+
 	private Thread loaderThread;
 
 	private final ExecutorService exec;
@@ -236,6 +253,36 @@ public class N5Importer implements PlugIn {
 		return impMetaWriterTypes;
 	}
 
+	/**
+	 * Set the provider of value ranges used to convert virtual integer images
+	 * to 16-bit. If null, or if it only gives an estimated range, virtual
+	 * images are converted with a look-up-table computed by scanning every
+	 * value. See {@link ValueRanges#sampledFallback()} to map intensity images
+	 * over a sampled range instead.
+	 *
+	 * @param valueRangeProvider
+	 *            the value range provider
+	 */
+	public void setValueRangeProvider(final ValueRangeProvider valueRangeProvider) {
+
+		this.valueRangeProvider = valueRangeProvider;
+	}
+
+	/**
+	 * Set whether virtual images are backed by all levels of the scale pyramid
+	 * the dataset belongs to, see {@link MultiscaleVirtualStack}. This is for
+	 * browsing only: the stack always holds the finest level, but while a
+	 * window is zoomed out, its processor holds the upsampled pixels of a
+	 * coarse level, which measurements of the shown plane see too.
+	 *
+	 * @param multiscaleVirtual
+	 *            whether to read planes from coarser levels when zoomed out
+	 */
+	public void setMultiscaleVirtual(final boolean multiscaleVirtual) {
+
+		this.multiscaleVirtual = multiscaleVirtual;
+	}
+
 	public void setNumDimensionsForCropDialog(final int numDimensionsForCrop) {
 
 		this.numDimensionsForCrop = numDimensionsForCrop;
@@ -275,6 +322,7 @@ public class N5Importer implements PlugIn {
 
 			selectionDialog.setLoaderExecutor(exec);
 			selectionDialog.setTreeRenderer(new N5DatasetTreeCellRenderer(true));
+			selectionDialog.setLazyDiscovery(true);
 
 			// restrict canonical metadata to those with spatial metadata, but
 			// without
@@ -358,6 +406,11 @@ public class N5Importer implements PlugIn {
 					thisDatasetCropInterval = parseCropParameters(minString, maxString);
 				}
 				show = !options.contains(" " + hideKey);
+				if (options.contains(" " + fullScanKey))
+					valueRangeProvider = null;
+				else if (options.contains(" " + sampleRangeKey))
+					valueRangeProvider = ValueRanges.sampledFallback();
+				multiscaleVirtual = options.contains(" " + multiscaleKey);
 			}
 
 			// set recorder back
@@ -372,14 +425,20 @@ public class N5Importer implements PlugIn {
 
 			N5Metadata meta = null;
 			try {
-				final N5TreeNode root = discoverer.discoverAndParseRecursive("");
-				final Optional<N5Metadata> metaOpt = root.getDescendant(dset)
-						.filter(x -> {
-							return x.getMetadata() != null;
-						}).map(N5TreeNode::getMetadata);
-
-				if (metaOpt.isPresent())
-					meta = metaOpt.get();
+				// the container is only crawled if the dataset can not be resolved along its path
+				meta = DatasetResolver.resolve(n5ForThisDataset, discoverer, dset);
+				if (meta == null && MetadataIndex.isEnabled())
+					meta = MetadataIndex.getDefault().find(n5ForThisDataset, discoverer, dset);
+				else if (meta == null) {
+					final N5TreeNode root = discoverer.discoverAndParseRecursive("");
+					final Optional<N5Metadata> metaOpt = root.getDescendant(dset)
+							.filter(x -> {
+								return x.getMetadata() != null;
+							}).map(N5TreeNode::getMetadata);
+
+					if (metaOpt.isPresent())
+						meta = metaOpt.get();
+				}
 
 			} catch (final Exception e) {
 				throw new N5Exception("Failure to parse or find data at " + dset, e);
@@ -387,7 +446,7 @@ public class N5Importer implements PlugIn {
 
 			if (meta != null && meta instanceof N5DatasetMetadata)
 				lastResult = process(n5ForThisDataset, rootPath, exec, Collections.singletonList((N5DatasetMetadata)meta), openAsVirtual, thisDatasetCropInterval,
-						show, impMetaWriterTypes);
+						show, impMetaWriterTypes, valueRangeProvider, multiscaleVirtual);
 			else
 				System.err.println("not a dataset : " + n5Path);
 		}
@@ -511,11 +570,103 @@ public class N5Importer implements PlugIn {
 			final N5DatasetMetadata datasetMetaArg, final Interval cropIntervalIn, final boolean asVirtual,
 			final ImageplusMetadata<M> ipMeta) throws IOException {
 
+		return read(n5, exec, datasetMetaArg, cropIntervalIn, asVirtual, ipMeta, null);
+	}
+
+	/**
+	 * Read a single N5 dataset into a ImagePlus and show it
+	 * <p>
+	 * Virtual int32, uint32, int64 and uint64 images are linearly mapped to
+	 * 16-bit using the range given by the valueRangeProvider, so that opening
+	 * them does not read every value. Otherwise, or if the provider only gives
+	 * an estimated range that values outside of it would be clamped to, they
+	 * are mapped with a look-up-table of all their unique values.
+	 *
+	 * @param <T>
+	 *            the image data type
+	 * @param <M>
+	 *            the metadata type
+	 * @param n5
+	 *            the n5Reader
+	 * @param exec
+	 *            an ExecutorService to manage parallel reading
+	 * @param datasetMetaArg
+	 *            datasetMetadata containing the path
+	 * @param cropIntervalIn
+	 *            optional crop interval
+	 * @param asVirtual
+	 *            whether to open virtually
+	 * @param ipMeta
+	 *            metadata
+	 * @param valueRangeProvider
+	 *            provides the value range of virtual integer images, may be null
+	 * @return the ImagePlus
+	 * @throws IOException
+	 *             io
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public static <T extends NumericType<T> & NativeType<T>, M extends N5DatasetMetadata, A extends AxisMetadata & N5Metadata> ImagePlus read(
+			final N5Reader n5,
+			final ExecutorService exec,
+			final N5DatasetMetadata datasetMetaArg, final Interval cropIntervalIn, final boolean asVirtual,
+			final ImageplusMetadata<M> ipMeta,
+			final ValueRangeProvider valueRangeProvider) throws IOException {
+
+		return read(n5, exec, datasetMetaArg, cropIntervalIn, asVirtual, ipMeta, valueRangeProvider, false);
+	}
+
+	/**
+	 * Read a single N5 dataset into a ImagePlus and show it
+	 * <p>
+	 * If multiscale is true, uncropped virtual images whose axes need not be
+	 * permuted are backed by a {@link MultiscaleVirtualStack} over the dataset
+	 * and the coarser levels of its scale pyramid.
+	 *
+	 * @param <T>
+	 *            the image data type
+	 * @param <M>
+	 *            the metadata type
+	 * @param n5
+	 *            the n5Reader
+	 * @param exec
+	 *            an ExecutorService to manage parallel reading
+	 * @param datasetMetaArg
+	 *            datasetMetadata containing the path
+	 * @param cropIntervalIn
+	 *            optional crop interval
+	 * @param asVirtual
+	 *            whether to open virtually
+	 * @param ipMeta
+	 *            metadata
+	 * @param valueRangeProvider
+	 *            provides the value range of virtual integer images, may be null
+	 * @param multiscale
+	 *            whether virtual images read from coarser levels when zoomed
+	 *            out, for display only
+	 * @return the ImagePlus
+	 * @throws IOException
+	 *             io
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public static <T extends NumericType<T> & NativeType<T>, M extends N5DatasetMetadata, A extends AxisMetadata & N5Metadata> ImagePlus read(
+			final N5Reader n5,
+			final ExecutorService exec,
+			final N5DatasetMetadata datasetMetaArg, final Interval cropIntervalIn, final boolean asVirtual,
+			final ImageplusMetadata<M> ipMeta,
+			final ValueRangeProvider valueRangeProvider,
+			final boolean multiscale) throws IOException {
+
 		final String d = datasetMetaArg.getPath();
-		final CachedCellImg imgRaw = N5Utils.open(n5, d);
+		final SharedBlockCache blockCache = SharedBlockCache.getDefault();
+		final RandomAccessibleInterval imgRaw;
+		if (asVirtual && blockCache.getMaxBytes() > 0 && !N5LabelMultisets.isLabelMultisetType(n5, d))
+			imgRaw = blockCache.open(n5, d);
+		else
+			imgRaw = N5Utils.open(n5, d);
 
 		RandomAccessibleInterval imgNorm;
-		if (OmeNgffMultiScaleMetadata.fOrder(datasetMetaArg.getAttributes())) {
+		final boolean fOrder = OmeNgffMultiScaleMetadata.fOrder(datasetMetaArg.getAttributes());
+		if (fOrder) {
 			imgNorm = AxisUtils.reverseDimensions(imgRaw);
 			ArrayUtils.reverse(datasetMetaArg.getAttributes().getDimensions());
 		}
@@ -533,11 +684,13 @@ public class N5Importer implements PlugIn {
 
 		final RandomAccessibleInterval img;
 		final M datasetMeta;
+		boolean preservesOrder = !fOrder;
 		if (datasetMetaArg != null && datasetMetaArg instanceof AxisMetadata) {
 
 			// this permutation will be applied to the image whose dimensions
 			// are padded to 5d with a canonical axis order
 			final int[] p = AxisUtils.findImagePlusPermutation((AxisMetadata)datasetMetaArg);
+			preservesOrder &= BlockwiseLoader.preservesOrder(p);
 
 			final Pair<RandomAccessibleInterval<T>, M> res = AxisUtils.permuteImageAndMetadataForImagePlus(p, imgC, datasetMetaArg);
 			img = res.getA();
@@ -560,7 +713,8 @@ public class N5Importer implements PlugIn {
 					Converters.convert2(
 							img,
 							new LabelMultisetLongConverter(),
-							UnsignedLongType::new));
+							UnsignedLongType::new),
+					exec);
 		} else {
 
 			// Compute LUT after crop
@@ -570,7 +724,14 @@ public class N5Importer implements PlugIn {
 				convImg = convertToRGB(img);
 			} else if ( type == DataType.INT32 || type == DataType.UINT32 ||
 					    type == DataType.INT64 || type == DataType.UINT64) {
-				convImg = convertToUShortLUT(img);
+				final ValueRange range = asVirtual && valueRangeProvider != null
+						? valueRangeProvider.getValueRange(n5, d)
+						: null;
+
+				if (range != null && range.isExact())
+					convImg = convertToUShortLinear(img, range);
+				else
+					convImg = convertToUShortLUT(img, exec);
 			} else {
 				// this covers int8 -> uint8 and int16 -> uint16
 				convImg = img;
@@ -580,13 +741,44 @@ public class N5Importer implements PlugIn {
 		ImagePlus imp;
 		if (asVirtual) {
 			imp = ImageJFunctions.wrap(convImg, d, exec);
-		} else {
+
+			final MultiscaleVirtualStack<T> multiscaleStack = multiscale && cropInterval == null && preservesOrder &&
+					convImg == img && isDirectlyLoadable(type)
+							? MultiscaleVirtualStack.open(n5, d)
+							: null;
+
+			if (multiscaleStack != null) {
+				imp.setStack(multiscaleStack, imp.getNChannels(), imp.getNSlices(), imp.getNFrames());
+				multiscaleStack.attach(imp);
+			} else {
+				// reading one pixel per chunk is enough when x and y are not permuted
+				final long[] step = new long[]{1, 1};
+				if (preservesOrder) {
+					final int[] blockSize = n5.getDatasetAttributes(d).getBlockSize();
+					step[0] = blockSize[0];
+					step[1] = blockSize.length > 1 ? blockSize[1] : 1;
+				}
+				VirtualStackPrefetcher.install(imp, convImg, step);
+			}
+		} else if (convImg == img && preservesOrder && isDirectlyLoadable(type)) {
+			// read blocks straight into the planes of the image
 			final ImagePlusImg<T, ?> ipImg = new ImagePlusImgFactory<>(Util.getTypeFromInterval(convImg)).create(convImg);
-			LoopBuilder.setImages(convImg, ipImg)
-					.multiThreaded(new DefaultTaskExecutor(exec))
-					.forEachPixel((x, y) -> y.set(x));
+			final int planeSize = BlockwiseLoader.planeSize(ipImg);
+			final DatasetAttributes attributes = n5.getDatasetAttributes(d);
+			if (BlockwiseLoader.canLoad(attributes, cropInterval, planeSize)) {
+				try {
+					BlockwiseLoader.load(n5, d, attributes, cropInterval, BlockwiseLoader.planes(ipImg), planeSize, exec, true);
+				} catch (InterruptedException | ExecutionException e) {
+					throw new IOException("Failed to read " + d, e);
+				}
+			} else
+				copy(convImg, ipImg, exec);
 
 			imp = ipImg.getImagePlus();
+		} else {
+			final ImagePlusImg<T, ?> ipImg = new ImagePlusImgFactory<>(Util.getTypeFromInterval(convImg)).create(convImg);
+			copy(convImg, ipImg, exec);
+			imp = ipImg.getImagePlus();
 		}
 
 		if (ipMeta != null) {
@@ -608,6 +800,19 @@ public class N5Importer implements PlugIn {
 		return imp;
 	}
 
+	private static boolean isDirectlyLoadable(final DataType type) {
+
+		return type == DataType.UINT8 || type == DataType.UINT16 || type == DataType.FLOAT32;
+	}
+
+	private static <T extends NumericType<T>> void copy(final RandomAccessibleInterval<T> src, final RandomAccessibleInterval<T> dest,
+			final ExecutorService exec) {
+
+		LoopBuilder.setImages(src, dest)
+				.multiThreaded(new DefaultTaskExecutor(exec))
+				.forEachPixel((x, y) -> y.set(x));
+	}
+
 	private static boolean zarrFOrderAndEmptyMetadata(final N5Reader n5, N5Metadata meta) {
 
 		if (n5 instanceof ZarrKeyValueReader && meta instanceof N5DefaultSingleScaleMetadata) {
@@ -645,6 +850,61 @@ public class N5Importer implements PlugIn {
 				new UnsignedShortType());
 	}
 
+	/**
+	 * Linearly maps an integer image with values in the given range to
+	 * {@link UnsignedShortType}, clamping values outside of the range.
+	 *
+	 * @param <T>
+	 *            the image type
+	 * @param img
+	 *            the image
+	 * @param range
+	 *            the value range
+	 * @return the converted image
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public static <T extends NumericType<T> & NativeType<T>> RandomAccessibleInterval<UnsignedShortType> convertToUShortLinear(
+			final RandomAccessibleInterval<T> img,
+			final ValueRange range) {
+
+		return Converters.convert(
+				img,
+				new UnsignedShortLinearConverter((long)Math.floor(range.getMin()), (long)Math.ceil(range.getMax())),
+				new UnsignedShortType());
+	}
+
+	/**
+	 * Converts an integer image to {@link UnsignedShortType} with a sorted
+	 * look-up-table, collecting the unique values of the image in parallel.
+	 *
+	 * @param <T>
+	 *            the image type
+	 * @param img
+	 *            the image
+	 * @param exec
+	 *            the executor service
+	 * @return the converted image
+	 * @throws IOException
+	 *             if collecting the unique values failed
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public static <T extends NumericType<T> & NativeType<T>> RandomAccessibleInterval<UnsignedShortType> convertToUShortLUT(
+			final RandomAccessibleInterval<T> img,
+			final ExecutorService exec) throws IOException {
+
+		final long[] values;
+		try {
+			values = UnsignedShortLUTConverter.uniqueValues((RandomAccessibleInterval)img, exec);
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Failed to compute look-up-table for " + img, e);
+		}
+
+		return Converters.convert(
+				img,
+				new UnsignedShortLUTConverter(values),
+				new UnsignedShortType());
+	}
+
 	private static Interval processCropInterval(final RandomAccessibleInterval<?> img, final Interval cropInterval) {
 
 		assert img.numDimensions() == cropInterval.numDimensions();
@@ -840,6 +1100,45 @@ public class N5Importer implements PlugIn {
 			final boolean show,
 			final Map<Class<?>, ImageplusMetadata<?>> impMetaWriterTypes) {
 
+		return process(n5, rootPathArg, exec, datasetMetadataList, asVirtual, cropInterval, show, impMetaWriterTypes,
+				null);
+	}
+
+	/*
+	 * Read one or more N5 dataset into ImagePlus object(s) and show them, if
+	 * requested. The valueRangeProvider is used to convert virtual integer
+	 * images to 16-bit, see read.
+	 */
+	public static List<ImagePlus> process(final N5Reader n5,
+			final String rootPathArg,
+			final ExecutorService exec,
+			final List<N5DatasetMetadata> datasetMetadataList,
+			final boolean asVirtual,
+			final Interval cropInterval,
+			final boolean show,
+			final Map<Class<?>, ImageplusMetadata<?>> impMetaWriterTypes,
+			final ValueRangeProvider valueRangeProvider) {
+
+		return process(n5, rootPathArg, exec, datasetMetadataList, asVirtual, cropInterval, show, impMetaWriterTypes,
+				valueRangeProvider, false);
+	}
+
+	/*
+	 * Read one or more N5 dataset into ImagePlus object(s) and show them, if
+	 * requested. Virtual images are backed by the whole scale pyramid if
+	 * multiscale is true, see read.
+	 */
+	public static List<ImagePlus> process(final N5Reader n5,
+			final String rootPathArg,
+			final ExecutorService exec,
+			final List<N5DatasetMetadata> datasetMetadataList,
+			final boolean asVirtual,
+			final Interval cropInterval,
+			final boolean show,
+			final Map<Class<?>, ImageplusMetadata<?>> impMetaWriterTypes,
+			final ValueRangeProvider valueRangeProvider,
+			final boolean multiscale) {
+
 		// determine if the root path contains a query
 		final String rootPath = rootPathArg;
 		final ArrayList<ImagePlus> imgList = new ArrayList<>();
@@ -859,7 +1158,7 @@ public class N5Importer implements PlugIn {
 
 				// datasetMeta must have absolute path
 				ImagePlus imp;
-				imp = N5Importer.read(n5, exec, datasetMeta, cropInterval, asVirtual, impMeta);
+				imp = N5Importer.read(n5, exec, datasetMeta, cropInterval, asVirtual, impMeta, valueRangeProvider, multiscale);
 
 				FileInfo fileInfo = imp.getOriginalFileInfo();
 				if (fileInfo == null)
@@ -874,13 +1173,23 @@ public class N5Importer implements PlugIn {
 					// set the display min and max with a heuristic:
 					// set the min of the range to the min value and the max range to the 98th
 					// percentile
-					final ImageStatistics stats = ImageStatistics.getStatistics(imp.getProcessor());
-					final double[] hist = stats.histogram();
-					toCumulativeHistogram(hist);
-					final double min = stats.histMin;
-					final double max = min + (stats.binSize * nthPercentile(hist, 0.98));
-					imp.setDisplayRange(min, max);
+					// use the histogram stored at export time if there is one
+					final ChunkStatistics sidecarStats = readHistogramStatistics(n5, datasetMeta);
+					if (sidecarStats != null) {
+						imp.setDisplayRange(sidecarStats.getMin(), sidecarStats.percentile(0.98));
+					} else {
+						final ImageStatistics stats = ImageStatistics.getStatistics(imp.getProcessor());
+						final double[] hist = stats.histogram();
+						toCumulativeHistogram(hist);
+						final double min = stats.histMin;
+						final double max = min + (stats.binSize * nthPercentile(hist, 0.98));
+						imp.setDisplayRange(min, max);
+					}
 					imp.show();
+					// only shown images are closed, which stops the prefetcher and the multiscale refresh
+					VirtualStackPrefetcher.start(imp);
+					if (imp.getStack() instanceof MultiscaleVirtualStack)
+						((MultiscaleVirtualStack<?>)imp.getStack()).start();
 				}
 
 			} catch (final IOException e) {
@@ -892,6 +1201,35 @@ public class N5Importer implements PlugIn {
 		return imgList;
 	}
 
+	/**
+	 * Reads the statistics stored in the sidecar of a dataset, if it has one
+	 * with a histogram that resolves the range of its values into at least
+	 * {@value #MIN_SIDECAR_BINS} bins, and the dataset is opened without
+	 * converting its values.
+	 *
+	 * @param n5
+	 *            the n5 reader
+	 * @param datasetMeta
+	 *            the dataset metadata
+	 * @return the statistics or null
+	 */
+	private static ChunkStatistics readHistogramStatistics(final N5Reader n5, final N5DatasetMetadata datasetMeta) {
+
+		final DataType type = datasetMeta.getAttributes().getDataType();
+		if (type != DataType.UINT8 && type != DataType.UINT16)
+			return null;
+
+		final ChunkStatistics stats = StatisticsSidecar.readTotal(n5, datasetMeta.getPath(), type);
+		if (stats == null || stats.getCount() == 0 || stats.getHistogram().length == 0)
+			return null;
+
+		// the bins of 16 bit histograms are too coarse for data of a low dynamic range
+		if (stats.getMax() - stats.getMin() < MIN_SIDECAR_BINS * stats.getBinWidth())
+			return null;
+
+		return stats;
+	}
+
 	/**
 	 * Turns a histogram into a cumulative histogram, in place and returns the total sum.
 	 * <p>
@@ -944,7 +1282,8 @@ public class N5Importer implements PlugIn {
 	@SuppressWarnings({"unchecked", "rawtypes"})
 	public void process() {
 
-		process(n5, selectionDialog.getN5RootPath(), exec, (List)selection.metadata, asVirtual, cropInterval, impMetaWriterTypes);
+		process(n5, selectionDialog.getN5RootPath(), exec, (List)selection.metadata, asVirtual, cropInterval, true, impMetaWriterTypes,
+				valueRangeProvider, multiscaleVirtual);
 	}
 
 	public List<ImagePlus> process(final String n5FullPath, final boolean asVirtual) {
@@ -967,7 +1306,12 @@ public class N5Importer implements PlugIn {
 			final N5DatasetDiscoverer discoverer = new N5DatasetDiscoverer(n5,
 					N5DatasetDiscoverer.fromParsers(PARSERS),
 					Collections.singletonList(new OmeNgffMetadataParser()));
-			if( parseAllMetadata )
+			if (parseAllMetadata && MetadataIndex.isEnabled()) {
+				metadata = (N5DatasetMetadata)MetadataIndex.getDefault().find(n5, discoverer, dataset);
+				if (metadata == null)
+					throw new N5Exception("No metadata at " + dataset);
+			}
+			else if( parseAllMetadata )
 			{
 				root = discoverer.discoverAndParseRecursive("");
 				metadata = (N5DatasetMetadata)root.getDescendant(dataset).get().getMetadata();
@@ -981,7 +1325,7 @@ public class N5Importer implements PlugIn {
 		}
 
 		final List<ImagePlus> result = process(n5, dataset, exec, Collections.singletonList(metadata),
-				asVirtual, cropInterval, show, getImagePlusMetadataWriterMap());
+				asVirtual, cropInterval, show, getImagePlusMetadataWriterMap(), valueRangeProvider, multiscaleVirtual);
 
 		n5.close();
 
@@ -996,7 +1340,7 @@ public class N5Importer implements PlugIn {
 			return null;
 
 		final List<ImagePlus> result = process(n5, dataset, exec, metadataList,
-				asVirtual, cropInterval, show, getImagePlusMetadataWriterMap());
+				asVirtual, cropInterval, show, getImagePlusMetadataWriterMap(), valueRangeProvider, multiscaleVirtual);
 
 		n5.close();
 		return result;
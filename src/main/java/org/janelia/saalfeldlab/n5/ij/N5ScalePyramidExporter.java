@@ -40,11 +40,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
 
 import javax.swing.Icon;
 import javax.swing.JButton;
@@ -57,7 +55,6 @@ import javax.swing.JPanel;
 import javax.swing.JTextPane;
 import javax.swing.UIManager;
 
-import net.imglib2.algorithm.blocks.BlockAlgoUtils;
 import net.imglib2.algorithm.blocks.BlockSupplier;
 import net.imglib2.algorithm.blocks.downsample.Downsample;
 import net.imglib2.util.Util;
@@ -73,7 +70,6 @@ import org.janelia.saalfeldlab.n5.N5Writer;
 import org.janelia.saalfeldlab.n5.RawCompression;
 import org.janelia.saalfeldlab.n5.XzCompression;
 import org.janelia.saalfeldlab.n5.blosc.BloscCompression;
-import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.janelia.saalfeldlab.n5.metadata.imagej.CosemToImagePlus;
 import org.janelia.saalfeldlab.n5.metadata.imagej.ImagePlusLegacyMetadataParser;
 import org.janelia.saalfeldlab.n5.metadata.imagej.ImagePlusMetadataTemplate;
@@ -82,6 +78,7 @@ import org.janelia.saalfeldlab.n5.metadata.imagej.MetadataTemplateMapper;
 import org.janelia.saalfeldlab.n5.metadata.imagej.N5ImagePlusMetadata;
 import org.janelia.saalfeldlab.n5.metadata.imagej.N5ViewerToImagePlus;
 import org.janelia.saalfeldlab.n5.metadata.imagej.NgffToImagePlus;
+import org.janelia.saalfeldlab.n5.statistics.ValueRanges;
 import org.janelia.saalfeldlab.n5.ui.N5MetadataSpecDialog;
 import org.janelia.saalfeldlab.n5.universe.N5Factory;
 import org.janelia.saalfeldlab.n5.universe.N5Factory.StorageFormat;
@@ -152,11 +149,12 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 	public static final String ZARR_FORMAT = "Zarr";
 
 	public static enum DOWNSAMPLE_METHOD {
-		Sample, Average
+		Sample, Average, Mode
 	};
 
 	public static final String DOWN_SAMPLE = "Sample";
 	public static final String DOWN_AVERAGE = "Average";
+	public static final String DOWN_MODE = "Mode";
 
 	public static final String NONE = "None";
 
@@ -218,9 +216,47 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 			description = "Writes multiple resolutions if allowed by the choice of metadata (ImageJ and None do not).")
 	private boolean createPyramidIfPossible = true;
 
-	@Parameter(label = "Downsampling method", style = "listBox", choices = {DOWN_SAMPLE, DOWN_AVERAGE})
+	@Parameter(
+			label = "Downsampling method",
+			style = "listBox",
+			description = "Use \"" + DOWN_MODE + "\" for label images, it keeps the most frequent label of every window.",
+			choices = {DOWN_SAMPLE, DOWN_AVERAGE, DOWN_MODE})
 	private String downsampleMethod = DOWN_SAMPLE;
 
+	@Parameter(
+			label = "Downsampling factors",
+			required = false,
+			description = "The downsampling factors of every scale level relative to the previous one.\n"
+					+ "A single integer, e.g. \"2\", downsamples every spatial axis by that factor.\n"
+					+ "\"" + PyramidPlanner.ISOTROPIC + "\" chooses factors from the resolution, so that the finest axes are\n"
+					+ "downsampled until the resolution is about isotropic.\n"
+					+ "A schedule, e.g. \"2,2,1;2,2,1;2,2,2\", gives the factors of the spatial axes of each level,\n"
+					+ "and the pyramid ends after its last level.")
+	private String downsamplingFactorsArg = PyramidPlanner.DEFAULT;
+
+	@Parameter(
+			label = "Single-pass pyramid",
+			required = false,
+			description = "Write all scale levels in a single pass over the full resolution image.\n"
+					+ "Every chunk of s0 is read once, and chunks of coarser levels are written\n"
+					+ "as soon as all of the chunks they depend on are complete.")
+	private boolean singlePassPyramid = false;
+
+	@Parameter(
+			label = "Chunk statistics",
+			required = false,
+			description = "Compute the min, max, sum, count and histogram of every chunk while writing,\n"
+					+ "and store them in a dataset at the path of each scale level below the hidden\n"
+					+ "\"" + ValueRanges.STATISTICS_GROUP + "\" group of the container.")
+	private boolean writeStatistics = false;
+
+	@Parameter(
+			label = "Skip empty chunks",
+			required = false,
+			description = "Do not write chunks whose values are all zero. N5 and Zarr readers return zeros for\n"
+					+ "chunks that do not exist, so sparse images need far fewer files.")
+	private boolean skipEmptyChunks = false;
+
 	@Parameter(
 			label = "Compression",
 			style = "listBox",
@@ -253,6 +289,10 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 			max = "999")
 	private int nThreads = 1;
 
+	private ExportExecutor exportExecutor;
+
+	private final ExportMetrics.Tracker metricsTracker = new ExportMetrics.Tracker();
+
 	@Parameter(
 			label = "Overwrite",
 			description = "When selected, this plugin will, WITHOUT WARNING, delete and overwrite any existing data\n"
@@ -262,8 +302,21 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 
 	private boolean overwriteSet = false;
 
+	@Parameter(
+			label = "Resume",
+			description = "When selected, continue an interrupted export into the same dataset. Chunks that were\n"
+					+ "recorded as written are kept, only the remaining chunks and the metadata are written.\n"
+					+ "Nothing is deleted, even if overwrite is selected. Resumed exports leave an empty\n"
+					+ "\".exportComplete\" file in each finished dataset, other exports leave no extra files.",
+			required = false)
+	private boolean resume = false;
+
 	private int[] chunkSize;
 
+	private long downsamplingCacheSize = 0;
+
+	private long virtualStackMemory = 0;
+
 	private long[] currentAbsoluteDownsampling;
 
 	// the translation introduced by the downsampling method at the current
@@ -351,6 +404,89 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 		overwriteSet = false;
 	}
 
+	/**
+	 * Set whether to resume an interrupted export, see {@link ExportManifest}.
+	 *
+	 * @param resume
+	 *            the flag
+	 */
+	public void setResume(final boolean resume) {
+
+		this.resume = resume;
+	}
+
+	public void setWriteStatistics(final boolean writeStatistics) {
+
+		this.writeStatistics = writeStatistics;
+	}
+
+	public void setSkipEmptyChunks(final boolean skipEmptyChunks) {
+
+		this.skipEmptyChunks = skipEmptyChunks;
+	}
+
+	/**
+	 * @return the listeners and the metrics of the exports, e.g. for headless
+	 *         batch jobs
+	 */
+	public ExportMetrics.Tracker getMetricsTracker() {
+
+		return metricsTracker;
+	}
+
+	public void setNumThreads(final int nThreads) {
+
+		this.nThreads = nThreads;
+	}
+
+	public void setSinglePassPyramid(final boolean singlePassPyramid) {
+
+		this.singlePassPyramid = singlePassPyramid;
+	}
+
+	/**
+	 * Set the number of cells of every downsampled level that are kept in
+	 * memory. The cells of a level are computed while it is written, and read
+	 * again to compute the next level, so the cache avoids computing them
+	 * twice.
+	 *
+	 * @param maxCells
+	 *            the maximum number of cells per level, or 0 to keep cells
+	 *            until the garbage collector needs the memory
+	 */
+	public void setDownsamplingCacheSize(final long maxCells) {
+
+		this.downsamplingCacheSize = maxCells;
+	}
+
+	/**
+	 * Set the memory used to cache the slices of a virtual stack while it is
+	 * exported. Slabs of slices as deep as the chunks along z are read once and
+	 * evicted when the budget is used, so that stacks larger than the memory
+	 * can be exported in parallel. Stacks for which two slabs of every channel
+	 * do not fit the budget are read plane by plane.
+	 *
+	 * @param bytes
+	 *            the memory budget in bytes, or 0 to use a quarter of the
+	 *            maximum memory
+	 */
+	public void setVirtualStackMemory(final long bytes) {
+
+		this.virtualStackMemory = bytes;
+	}
+
+	/**
+	 * Set the downsampling factors of the scale levels, see
+	 * {@link PyramidPlanner}.
+	 *
+	 * @param downsamplingFactors
+	 *            the factor specification
+	 */
+	public void setDownsamplingFactors(final String downsamplingFactors) {
+
+		this.downsamplingFactorsArg = downsamplingFactors;
+	}
+
 	public void setOptions(
 			final ImagePlus image,
 			final String containerRoot,
@@ -515,11 +651,22 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 				.openWriter(rootWithFormatPrefix);
 		final Compression compression = getCompression();
 
-		if( !promptOverwriteAndDelete(n5, dataset, doGroupExistsWarning))
+		// a resumed export keeps what exists
+		if (!resume && !promptOverwriteAndDelete(n5, dataset, doGroupExistsWarning))
 			return;
 
 		// TODO should have better behavior for chunk size parsing when splitting channels this might be done
 		final boolean computeScales = createPyramidIfPossible && metadataSupportsScales();
+		// a single pass needs every chunk of s0 to compute the other levels, so resumed exports write level by level
+		final boolean singlePass = computeScales && singlePassPyramid && !resume;
+		if (computeScales && singlePassPyramid && resume) {
+			final String msg = "A single pass can not resume an export, writing the scale levels of " + dataset + " one after the other.";
+			if (log != null)
+				log.warn(msg);
+			else
+				System.out.println(msg);
+		}
+		final PyramidPlanner planner = PyramidPlanner.parse(downsamplingFactorsArg);
 
 		N5MetadataWriter<M> metadataWriter = null;
 		if (!metadataStyle.equals(NONE)) {
@@ -529,104 +676,156 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 			}
 		}
 
-		// get the image to save
-		final RandomAccessibleInterval<T> baseImg = getBaseImage();
-
-		final M baseMetadata;
-		if (impMeta != null)
-			baseMetadata = (M)impMeta.readMetadata(image);
-		else
-			baseMetadata = null;
-
-		currentChannelMetadata = copyMetadata(baseMetadata);
-		M currentMetadata;
-
-		// channel splitting may modify currentBlockSize, currentAbsoluteDownsampling, and channelMetadata
-		final List<RandomAccessibleInterval<T>> channelImgs = splitChannels(currentChannelMetadata, baseImg);
-		for (int c = 0; c < channelImgs.size(); c++) {
-
-			currentMetadata = copyMetadata((M)currentChannelMetadata);
-			final String channelDataset = getChannelDatasetName(c);
-			RandomAccessibleInterval<T> currentChannelImg = channelImgs.get(c);
-
-			final int nd = currentChannelImg.numDimensions();
-			final double[] baseResolution = new double[nd];
-			fillResolution(baseMetadata, baseResolution);
-
-			// every channel starts at the original scale level reset
-			// downsampling factors to 1
-			currentAbsoluteDownsampling = new long[nd];
-			Arrays.fill(currentAbsoluteDownsampling, 1);
-
-			final double[] currentResolution = new double[nd];
-			System.arraycopy(baseResolution, 0, currentResolution, 0, nd);
-
-			final N multiscaleMetadata = initializeMultiscaleMetadata((M)currentMetadata, channelDataset);
-			currentTranslation = new double[nd];
+		// one pool for all channels and scale levels of this export
+		// progress is shown by the metrics, which count the blocks written
+		exportExecutor = new ExportExecutor(nThreads);
+		metricsTracker.start();
+		try {
+			// get the image to save
+			final RandomAccessibleInterval<T> baseImg = getBaseImage();
 
-			// write scale levels
-			// we will stop early even when maxNumScales != 1
-			final int maxNumScales = computeScales ? 99 : 1;
-			boolean anyScalesWritten = false;
-			for (int s = 0; s < maxNumScales; s++) {
+			final M baseMetadata;
+			if (impMeta != null)
+				baseMetadata = (M)impMeta.readMetadata(image);
+			else
+				baseMetadata = null;
+
+			currentChannelMetadata = copyMetadata(baseMetadata);
+			M currentMetadata;
+
+			// channel splitting may modify currentBlockSize, currentAbsoluteDownsampling, and channelMetadata
+			final List<RandomAccessibleInterval<T>> channelImgs = splitChannels(currentChannelMetadata, baseImg);
+
+			/*
+			 * The levels of every channel are planned on this thread, and their
+			 * writes are chained so that a level is written after its parent.
+			 * The chains of all channels run concurrently on the pool of this
+			 * export, so that the chunks of other channels keep the threads
+			 * busy while the last chunks of a level are written.
+			 */
+			final List<CompletableFuture<Void>> channelWrites = new ArrayList<>();
+			for (int c = 0; c < channelImgs.size(); c++) {
+
+				currentMetadata = copyMetadata((M)currentChannelMetadata);
+				final String channelDataset = getChannelDatasetName(c);
+				RandomAccessibleInterval<T> currentChannelImg = channelImgs.get(c);
+
+				final int nd = currentChannelImg.numDimensions();
+				final double[] baseResolution = new double[nd];
+				fillResolution(baseMetadata, baseResolution);
+
+				// every channel starts at the original scale level reset
+				// downsampling factors to 1
+				currentAbsoluteDownsampling = new long[nd];
+				Arrays.fill(currentAbsoluteDownsampling, 1);
+
+				final double[] currentResolution = new double[nd];
+				System.arraycopy(baseResolution, 0, currentResolution, 0, nd);
+
+				final N multiscaleMetadata = initializeMultiscaleMetadata((M)currentMetadata, channelDataset);
+				currentTranslation = new double[nd];
+
+				// when writing in a single pass, levels are collected here and written after the loop
+				final SinglePassPyramidWriter<T> pyramidWriter = singlePass
+						? new SinglePassPyramidWriter<>(currentChannelImg, n5, compression, DOWNSAMPLE_METHOD.valueOf(downsampleMethod))
+						: null;
+				final List<RandomAccessibleInterval<T>> levelImgs = new ArrayList<>();
+				final List<M> levelMetadata = new ArrayList<>();
+				CompletableFuture<Void> channelWrite = CompletableFuture.completedFuture(null);
+
+				// write scale levels
+				// we will stop early even when maxNumScales != 1
+				final int maxNumScales = computeScales ? 99 : 1;
+				boolean anyScalesWritten = false;
+				for (int s = 0; s < maxNumScales; s++) {
+
+					final String dset = getScaleDatasetName(c, s);
+					// downsample when relevant
+					long[] relativeFactors = new long[nd];
+					Arrays.fill(relativeFactors, 1);
+
+					if (s > 0) {
+						relativeFactors = getRelativeDownsampleFactors(planner, currentMetadata, s,
+								currentResolution, currentChannelImg.dimensionsAsLongArray());
+
+						// the planner ends the pyramid
+						if (relativeFactors == null)
+							break;
+
+						// update absolute downsampling factors
+						for (int i = 0; i < nd; i++)
+							currentAbsoluteDownsampling[i] *= relativeFactors[i];
+
+						currentChannelImg = downsampleMethod((RandomAccessibleInterval<T>)getPreviousScaleImage(c, s), relativeFactors);
+
+						// update resolution
+						Arrays.setAll(currentResolution, i -> {
+							return currentAbsoluteDownsampling[i] * baseResolution[i];
+						});
 
-				final String dset = getScaleDatasetName(c, s);
-				// downsample when relevant
-				long[] relativeFactors = new long[nd];
-				Arrays.fill(relativeFactors, 1);
+						// averaging and mode windows are centered between the source pixels
+						if (!downsampleMethod.equals(DOWN_SAMPLE))
+							Arrays.setAll(currentTranslation, i -> {
+								if (currentAbsoluteDownsampling[i] > 1)
+									return baseResolution[i] * (0.5 * currentAbsoluteDownsampling[i] - 0.5);
+								else
+									return 0.0;
+							});
+					}
 
-				if (s > 0) {
-					relativeFactors = getRelativeDownsampleFactors(currentMetadata, currentChannelImg.numDimensions(), s, currentAbsoluteDownsampling);
+					// update metadata to reflect this scale level, returns new metadata instance
+					// the arrays are copied because the metadata is written after they are updated for the next level
+					currentMetadata = (M)metadataForThisScale(dset, currentMetadata, downsampleMethod,
+							baseResolution,
+							currentAbsoluteDownsampling.clone(),
+							currentResolution.clone(),
+							currentTranslation.clone());
+
+					// write to the appropriate dataset
+					parseBlockSize(currentChannelImg.dimensionsAsLongArray());
+					// levels that wait for their parent count towards the progress and time remaining
+					metricsTracker.getMetrics().planDataset(dset, BlockwiseWriter.numBlocks(currentChannelImg.dimensionsAsLongArray(), chunkSize));
+					if (singlePass) {
+						pyramidWriter.addLevel(dset, currentChannelImg.dimensionsAsLongArray(), chunkSize, relativeFactors);
+						levelImgs.add(currentChannelImg);
+						levelMetadata.add(currentMetadata);
+					} else {
+						final RandomAccessibleInterval<T> levelImg = currentChannelImg;
+						final M levelMeta = currentMetadata;
+						final int[] levelChunkSize = chunkSize;
+						channelWrite = channelWrite.thenCompose(x -> writeAsync(levelImg, n5, dset, compression, levelMeta, levelChunkSize));
+					}
 
-					// update absolute downsampling factors
-					for (int i = 0; i < nd; i++)
-						currentAbsoluteDownsampling[i] *= relativeFactors[i];
+					storeScaleReference(c, s, currentChannelImg);
+					updateMultiscaleMetadata(multiscaleMetadata, currentMetadata);
+					anyScalesWritten = true;
 
-					currentChannelImg = downsampleMethod((RandomAccessibleInterval<T>)getPreviousScaleImage(c, s), relativeFactors);
+					// chunkSize variable is updated by parseBlockSize
+					if (lastScale(chunkSize, currentChannelImg))
+						break;
+				}
 
-					// update resolution
-					Arrays.setAll(currentResolution, i -> {
-						return currentAbsoluteDownsampling[i] * baseResolution[i];
-					});
+				// a single pass writes all levels of a channel at once, so there are no level boundaries to overlap
+				if (singlePass)
+					channelWrite = writeSinglePass(pyramidWriter, levelImgs, levelMetadata, n5, compression);
 
-					if (downsampleMethod.equals(DOWN_AVERAGE))
-						Arrays.setAll(currentTranslation, i -> {
-							if (currentAbsoluteDownsampling[i] > 1)
-								return baseResolution[i] * (0.5 * currentAbsoluteDownsampling[i] - 0.5);
-							else
-								return 0.0;
-						});
-				}
+				if (anyScalesWritten)
+					channelWrite = channelWrite.thenRun(() -> writeMetadata(
+							// this returns null when not multiscale
+							finalizeMultiscaleMetadata(channelDataset, multiscaleMetadata),
+							n5,
+							channelDataset));
 
-				// update metadata to reflect this scale level, returns new metadata instance
-				currentMetadata = (M)metadataForThisScale(dset, currentMetadata, downsampleMethod,
-						baseResolution,
-						currentAbsoluteDownsampling,
-						currentResolution,
-						currentTranslation);
-
-				// write to the appropriate dataset
-				// if dataset exists and not overwritten, don't write metadata
-				if (!write(currentChannelImg, n5, dset, compression, currentMetadata))
-					continue;
-
-				storeScaleReference(c, s, currentChannelImg);
-				updateMultiscaleMetadata(multiscaleMetadata, currentMetadata);
-				anyScalesWritten = true;
-
-				// chunkSize variable is updated by the write method
-				if (lastScale(chunkSize, currentChannelImg))
-					break;
+				channelWrites.add(channelWrite);
 			}
 
-			if (anyScalesWritten)
-				writeMetadata(
-						// this returns null when not multiscale
-						finalizeMultiscaleMetadata(channelDataset, multiscaleMetadata),
-						n5,
-						channelDataset);
+			CompletableFuture.allOf(channelWrites.toArray(new CompletableFuture[0])).get();
+			IJ.showStatus("Exported " + dataset + ": " + metricsTracker.getMetrics());
+		} finally {
+			exportExecutor.close();
+			exportExecutor = null;
+			n5.close();
 		}
-		n5.close();
 	}
 
 	protected void initializeDataset() {
@@ -809,7 +1008,9 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 			final long[] factors) {
 
 		if (downsampleMethod.equals(DOWN_AVERAGE))
-			return downsampleAvgBy2(img, factors);
+			return downsampleAverage(img, factors);
+		else if (downsampleMethod.equals(DOWN_MODE))
+			return downsampleMode(img, factors);
 		else
 			return downsample(img, factors);
 	}
@@ -847,42 +1048,75 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 		return factors;
 	}
 
+	/**
+	 * Returns the downsampling factors of a scale level relative to the full
+	 * resolution, for the default planner.
+	 *
+	 * @deprecated the factors of every level are chosen by a
+	 *             {@link PyramidPlanner}, use
+	 *             {@link #getRelativeDownsampleFactors(PyramidPlanner, N5Metadata, int, double[], long[])}
+	 */
+	@Deprecated
 	protected <M extends N5Metadata> long[] getDownsampleFactors(final M metadata, final int nd, final int scale,
 			final long[] downsampleFactors) {
 
-		final Axis[] axes = getAxes(metadata, nd);
-
-		// under what condisions is nd != axes.length
-		final long[] factors = new long[axes.length];
-		for (int i = 0; i < nd; i++) {
-
-			// only downsample spatial dimensions
-			if (axes[i].getType().equals(Axis.SPACE))
-				factors[i] = 1 << scale; // 2 to the power of scale
-			else
-				factors[i] = 1;
+		final long[] factors = new long[nd];
+		Arrays.fill(factors, 1);
+		for (int s = 1; s <= scale; s++) {
+			final long[] relative = getRelativeDownsampleFactors(metadata, nd, s, downsampleFactors);
+			for (int i = 0; i < nd; i++)
+				factors[i] *= relative[i];
 		}
-
 		return factors;
 	}
 
+	/**
+	 * Returns the downsampling factors of a scale level relative to the
+	 * previous level, for the default planner.
+	 *
+	 * @deprecated the factors of every level are chosen by a
+	 *             {@link PyramidPlanner}, use
+	 *             {@link #getRelativeDownsampleFactors(PyramidPlanner, N5Metadata, int, double[], long[])}
+	 */
+	@Deprecated
 	protected <M extends N5Metadata> long[] getRelativeDownsampleFactors(final M metadata, final int nd, final int scale,
 			final long[] downsampleFactors) {
 
-		final Axis[] axes = getAxes(metadata, nd);
+		// the dimensions are unknown, so that no factor is clamped
+		final long[] dimensions = new long[nd];
+		Arrays.fill(dimensions, Long.MAX_VALUE);
+		final long[] factors = getRelativeDownsampleFactors(PyramidPlanner.parse(PyramidPlanner.DEFAULT), metadata, scale,
+				null, dimensions);
 
-		// under what condisions is nd != axes.length
-		final long[] factors = new long[axes.length];
-		for (int i = 0; i < nd; i++) {
+		return factors != null ? factors : initDownsampleFactors(nd);
+	}
 
-			// only downsample spatial dimensions
-			if (axes[i].getType().equals(Axis.SPACE))
-				factors[i] = 2;
-			else
-				factors[i] = 1;
-		}
+	/**
+	 * Returns the downsampling factors of a scale level relative to the
+	 * previous level, as chosen by the planner for the spatial axes.
+	 *
+	 * @param planner
+	 *            the pyramid planner
+	 * @param metadata
+	 *            the metadata of the previous level
+	 * @param scale
+	 *            the scale level
+	 * @param resolution
+	 *            the resolution of the previous level
+	 * @param dimensions
+	 *            the dimensions of the previous level
+	 * @return the factors, or null if the pyramid ends before this level
+	 */
+	protected <M extends N5Metadata> long[] getRelativeDownsampleFactors(final PyramidPlanner planner, final M metadata, final int scale,
+			final double[] resolution, final long[] dimensions) {
 
-		return factors;
+		final int nd = dimensions.length;
+		final Axis[] axes = getAxes(metadata, nd);
+		final boolean[] spatial = new boolean[nd];
+		for (int i = 0; i < nd && i < axes.length; i++)
+			spatial[i] = axes[i].getType().equals(Axis.SPACE);
+
+		return planner.relativeFactors(scale, spatial, resolution, dimensions);
 	}
 
 	protected <M extends N5Metadata> Axis[] getAxes(final M metadata, final int nd) {
@@ -898,18 +1132,66 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 	// also extending NativeType causes build failures using maven, unclear why
 	@SuppressWarnings("unchecked")
 	protected <T extends NumericType<T>> RandomAccessibleInterval<T> getBaseImage() {
-		// TODO put logic checking for virtual image special cases here
 
 		// get the image
 		final RandomAccessibleInterval<T> baseImg;
 		if (image.getType() == ImagePlus.COLOR_RGB)
 			baseImg = (RandomAccessibleInterval<T>)(N5IJUtils.wrapRgbAsInt(image));
+		else if (image.getStack().isVirtual() && image.getNSlices() > 1)
+			baseImg = (RandomAccessibleInterval<T>)slabCache(VirtualStackAdapter.wrap(image));
 		else
 			baseImg = (RandomAccessibleInterval<T>)VirtualStackAdapter.wrap(image);
 
 		return baseImg;
 	}
 
+	/**
+	 * Caches a virtual stack in slabs of whole slices that are as deep as the
+	 * chunks along z. Every slab is read from disk once, by the first chunk
+	 * that needs it, and then shared by all chunks that overlap it. Chunks are
+	 * written in the order of their grid positions, so that the oldest slabs
+	 * are no longer needed when they are evicted to stay within
+	 * {@link #setVirtualStackMemory(long) the memory budget}.
+	 * <p>
+	 * If the current and the next slab of every channel do not fit the budget,
+	 * or a slab does not fit an array, the stack is returned uncached.
+	 *
+	 * @param img
+	 *            the wrapped virtual stack, in XY[C]Z[T] order
+	 * @return the cached image, or img
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private RandomAccessibleInterval slabCache(final RandomAccessibleInterval img) {
+
+		final int nChannels = image.getNChannels();
+		final int zAxis = nChannels > 1 ? 3 : 2;
+		final long[] dims = img.dimensionsAsLongArray();
+
+		// the chunk size is parsed for the dimensions of a channel, see splitChannels
+		final boolean split = nChannels > 1 && splitsChannels();
+		final long[] channelDims = split
+				? LongStream.range(0, dims.length).filter(d -> d != 2).map(d -> dims[(int)d]).toArray()
+				: dims;
+		final int depth = parseBlockSize(chunkSizeArg, channelDims)[split ? zAxis - 1 : zAxis];
+
+		// at least the current and the next slab of every channel
+		final long slabSize = dims[0] * dims[1] * Math.min(depth, dims[zAxis]);
+		final long slabBytes = slabSize * (image.getBitDepth() / 8);
+		final long budget = virtualStackMemory > 0 ? virtualStackMemory : IJ.maxMemory() / 4;
+		if (slabSize > Integer.MAX_VALUE || 2L * nChannels * slabBytes > budget)
+			return img;
+
+		final int[] cellDims = new int[dims.length];
+		Arrays.fill(cellDims, 1);
+		cellDims[0] = (int)dims[0];
+		cellDims[1] = (int)dims[1];
+		cellDims[zAxis] = depth;
+
+		final long maxSlabs = budget / slabBytes;
+
+		return BlockDownsampling.cellImg(BlockSupplier.of(img), dims, cellDims, maxSlabs);
+	}
+
 	/**
 	 * If relevant, according to the passed {@link N5DatasetMetadata} metadata
 	 * instance, return a list containing the channels of the input image. A
@@ -932,9 +1214,7 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 		// TODO perhaps should return new metadata that is not
 		// some metadata styles never split channels, return input image in that
 		// case
-		if (metadataStyle.equals(NONE) || metadataStyle.equals(N5Importer.MetadataCustomKey) ||
-				metadataStyle.equals(N5Importer.MetadataOmeZarrKey) ||
-				metadataStyle.equals(N5Importer.MetadataImageJKey)) {
+		if (!splitsChannels()) {
 			return Collections.singletonList(img);
 		}
 
@@ -970,6 +1250,13 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 		return channels;
 	}
 
+	private boolean splitsChannels() {
+
+		return !(metadataStyle.equals(NONE) || metadataStyle.equals(N5Importer.MetadataCustomKey) ||
+				metadataStyle.equals(N5Importer.MetadataOmeZarrKey) ||
+				metadataStyle.equals(N5Importer.MetadataImageJKey));
+	}
+
 	@SuppressWarnings("unchecked")
 	protected <M extends N5DatasetMetadata> M copyMetadata(final M metadata) {
 
@@ -1067,14 +1354,14 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 		 * Rather, the half-pixel offsets that averaging downsampling introduces
 		 * are assumed when downsampling factors are not equal to ones.
 		 *
-		 * As a result, we use downsampling factors with average downsampling,
-		 * but set the factors to one otherwise.
+		 * As a result, we use downsampling factors with average and mode
+		 * downsampling, but set the factors to one otherwise.
 		 */
 		final int nd = baseResolution.length > 3 ? 3 : baseResolution.length;
 		final double[] resolution = new double[nd];
 		final double[] factors = new double[nd];
 
-		if (downsampleMethod.equals(N5ScalePyramidExporter.DOWN_AVERAGE)) {
+		if (!downsampleMethod.equals(N5ScalePyramidExporter.DOWN_SAMPLE)) {
 			System.arraycopy(baseResolution, 0, resolution, 0, nd);
 			System.arraycopy(downsamplingFactors, 0, factors, 0, nd);
 		} else {
@@ -1189,27 +1476,78 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 		return true;
 	}
 
+	/**
+	 * Submits the chunks of a dataset to the pool of this export, and writes
+	 * its statistics and metadata when they are written.
+	 *
+	 * @return a future that completes when the dataset and its metadata are
+	 *         written
+	 */
 	@SuppressWarnings({"rawtypes", "unchecked"})
-	private <T extends RealType & NativeType, M extends N5Metadata> boolean write(
+	private <T extends RealType & NativeType, M extends N5Metadata> CompletableFuture<Void> writeAsync(
 			final RandomAccessibleInterval<T> image,
 			final N5Writer n5,
 			final String dataset,
-			final Compression compression, final M metadata)
-			throws IOException, InterruptedException, ExecutionException {
-
-		parseBlockSize(image.dimensionsAsLongArray());
+			final Compression compression,
+			final M metadata,
+			final int[] blockSize) {
 
 		// Here, either allowing overwrite, or not allowing, but the dataset does not exist.
-		// use threadPool even for single threaded execution for progress monitoring
-		final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
-				new LinkedBlockingQueue<Runnable>());
-		progressMonitor(threadPool);
-		N5Utils.save(image,
-				n5, dataset, chunkSize, compression,
-				Executors.newFixedThreadPool(nThreads));
-
-		writeMetadata(metadata, n5, dataset);
-		return true;
+		// all blocks are written on the pool of this export
+		// chunk by chunk, to report them to the metrics and compute statistics in the same pass
+		final BlockwiseWriter<?> writer = new BlockwiseWriter(image, n5, dataset, blockSize, compression);
+		writer.setComputeStatistics(writeStatistics);
+		writer.setMetrics(metricsTracker.getMetrics());
+		writer.setResume(resume);
+		writer.setSkipEmptyChunks(skipEmptyChunks);
+		return writer.writeAsync(exportExecutor.getExecutor()).thenRun(() -> {
+			if (writeStatistics)
+				writer.getStatistics().write(n5, dataset, compression);
+
+			writeMetadata(metadata, n5, dataset);
+		});
+	}
+
+	/**
+	 * Submits all levels collected by the {@link SinglePassPyramidWriter} to
+	 * the pool of this export, and writes their statistics and metadata when
+	 * they are written. Falls back to writing the levels one after the other
+	 * if the chunks of neighboring levels are not aligned.
+	 *
+	 * @return a future that completes when all levels and their metadata are
+	 *         written
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private <T extends RealType & NativeType, M extends N5Metadata> CompletableFuture<Void> writeSinglePass(
+			final SinglePassPyramidWriter<?> pyramidWriter,
+			final List<RandomAccessibleInterval<T>> levelImgs,
+			final List<M> levelMetadata,
+			final N5Writer n5,
+			final Compression compression) {
+
+		if (!pyramidWriter.isAligned()) {
+			CompletableFuture<Void> levelWrites = CompletableFuture.completedFuture(null);
+			for (int s = 0; s < pyramidWriter.numLevels(); s++) {
+				final RandomAccessibleInterval<T> levelImg = levelImgs.get(s);
+				final String levelDataset = pyramidWriter.getDataset(s);
+				final M levelMeta = levelMetadata.get(s);
+				final int[] levelChunkSize = pyramidWriter.getBlockSize(s);
+				levelWrites = levelWrites.thenCompose(x -> writeAsync(levelImg, n5, levelDataset, compression, levelMeta, levelChunkSize));
+			}
+			return levelWrites;
+		}
+
+		pyramidWriter.setComputeStatistics(writeStatistics);
+		pyramidWriter.setMetrics(metricsTracker.getMetrics());
+		pyramidWriter.setSkipEmptyChunks(skipEmptyChunks);
+		return pyramidWriter.writeAsync(exportExecutor.getExecutor(), exportExecutor.getNumThreads()).thenRun(() -> {
+			for (int s = 0; s < pyramidWriter.numLevels(); s++) {
+				if (writeStatistics)
+					pyramidWriter.getStatistics(s).write(n5, pyramidWriter.getDataset(s), compression);
+
+				writeMetadata(levelMetadata.get(s), n5, pyramidWriter.getDataset(s));
+			}
+		});
 	}
 
 	private static String needOverwrite(final N5Reader n5, final String path, final boolean checkGroupExists) {
@@ -1242,14 +1580,34 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 		return null;
 	}
 
-	private static <T extends NumericType<T>> RandomAccessibleInterval<T> downsample(
+	/**
+	 * Downsamples an image by integer factors, keeping the first pixel of
+	 * every window. The result is a cell image that reads whole blocks from
+	 * the image, so that the levels of a pyramid do not form a chain of
+	 * subsampled views.
+	 *
+	 * @param <T>
+	 *            the image data type
+	 * @param img
+	 *            the image
+	 * @param downsampleFactors
+	 *            the factors
+	 * @return a downsampled image
+	 */
+	private <T extends NativeType<T>> RandomAccessibleInterval<T> downsample(
 			final RandomAccessibleInterval<T> img, final long[] downsampleFactors) {
 
-		return Views.subsample(img, downsampleFactors);
+		// same dimensions as Views.subsample
+		final int nd = downsampleFactors.length;
+		final long[] dims = new long[nd];
+		Arrays.setAll(dims, i -> (img.dimension(i) - 1) / downsampleFactors[i] + 1);
+
+		return BlockDownsampling.cellImg(img, Util.long2int(downsampleFactors), dims,
+				parseBlockSize(chunkSizeArg, dims), downsamplingCacheSize, PrimitiveArrays::subsample);
 	}
 
 	/**
-	 * Downsamples an image by factors of 2 using averaging.
+	 * Downsamples an image by integer factors using averaging.
 	 * <p>
 	 * Not the most efficient when some dimensions are not downsampled.
 	 * </p>
@@ -1262,11 +1620,11 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 	 *            the factors
 	 * @return a downsampled image
 	 */
-	private static <T extends NumericType<T>> RandomAccessibleInterval<T> downsampleAvgBy2(
+	private <T extends NumericType<T>> RandomAccessibleInterval<T> downsampleAverage(
 			final RandomAccessibleInterval<T> img, final long[] downsampleFactors) {
 
-		// ensure downsampleFactors contains only 1's and 2's
-		assert Arrays.stream(downsampleFactors).allMatch(x -> (x == 1) || (x == 2));
+		// ensure downsampleFactors are positive
+		assert Arrays.stream(downsampleFactors).allMatch(x -> x >= 1);
 
 		final int nd = downsampleFactors.length;
 		final double[] scale = new double[nd];
@@ -1276,10 +1634,11 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 
 		for (int i = 0; i < nd; i++) {
 
-			if (downsampleFactors[i] == 2) {
-				scale[i] = 0.5;
-				translation[i] = -0.25;
-				dims[i] = (long)Math.ceil(img.dimension(i) / 2);
+			if (downsampleFactors[i] > 1) {
+				// the center of the first output pixel is at the center of the first f input pixels
+				scale[i] = 1.0 / downsampleFactors[i];
+				translation[i] = -0.5 * (downsampleFactors[i] - 1) / downsampleFactors[i];
+				dims[i] = img.dimension(i) / downsampleFactors[i];
 			} else {
 				scale[i] = 1.0;
 				translation[i] = 0.0;
@@ -1288,7 +1647,7 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 		}
 
 		if (img.getType() instanceof NativeType) {
-			return downsampleAvgBy2NativeType((RandomAccessibleInterval) img, Util.long2int(downsampleFactors), dims);
+			return downsampleAverageNativeType((RandomAccessibleInterval) img, Util.long2int(downsampleFactors), dims);
 		}
 
 		// TODO clamping NLinearInterpFactory when relevant
@@ -1298,14 +1657,37 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 				new FinalInterval(dims));
 	}
 
-	private static <T extends NativeType<T>> RandomAccessibleInterval<T> downsampleAvgBy2NativeType(
+	private <T extends NativeType<T>> RandomAccessibleInterval<T> downsampleAverageNativeType(
 			final RandomAccessibleInterval<T> img, final int[] downsampleFactors, final long[] dimensions) {
 
-		final int[] cellDimensions = new int[] {32};
+		// cells are aligned with the chunks of this level, so that every chunk is computed from one cell
 		final BlockSupplier<T> blocks = BlockSupplier
 				.of(img.view().extend(Extension.border()))
 				.andThen(Downsample.downsample(downsampleFactors));
-		return BlockAlgoUtils.cellImg(blocks, dimensions, cellDimensions);
+		return BlockDownsampling.cellImg(blocks, dimensions, parseBlockSize(chunkSizeArg, dimensions), downsamplingCacheSize);
+	}
+
+	/**
+	 * Downsamples an image by integer factors, keeping the most frequent value
+	 * of every window.
+	 *
+	 * @param <T>
+	 *            the image data type
+	 * @param img
+	 *            the image
+	 * @param downsampleFactors
+	 *            the factors
+	 * @return a downsampled image
+	 */
+	private <T extends NativeType<T>> RandomAccessibleInterval<T> downsampleMode(
+			final RandomAccessibleInterval<T> img, final long[] downsampleFactors) {
+
+		final int nd = downsampleFactors.length;
+		final long[] dims = new long[nd];
+		Arrays.setAll(dims, i -> img.dimension(i) / downsampleFactors[i]);
+
+		return BlockDownsampling.cellImg(img, Util.long2int(downsampleFactors), dims,
+				parseBlockSize(chunkSizeArg, dims), downsamplingCacheSize, ModeDownsample::downsample);
 	}
 
 	private int[] sliceBlockSize(final int exclude) {
@@ -1363,31 +1745,6 @@ public class N5ScalePyramidExporter extends ContextCommand implements WindowList
 		}
 	}
 
-	private void progressMonitor(final ThreadPoolExecutor exec) {
-
-		new Thread() {
-
-			@Override
-			public void run() {
-
-				IJ.showProgress(0.01);
-				try {
-					Thread.sleep(333);
-					boolean done = false;
-					while (!done && !exec.isShutdown()) {
-						final long i = exec.getCompletedTaskCount();
-						final long N = exec.getTaskCount();
-						done = i == N;
-						IJ.showProgress((double)i / N);
-						Thread.sleep(333);
-					}
-				} catch (final InterruptedException e) {}
-				IJ.showProgress(1.0);
-			}
-		}.start();
-		return;
-	}
-
 	private Compression getCompression() {
 
 		return getCompression(compressionArg);
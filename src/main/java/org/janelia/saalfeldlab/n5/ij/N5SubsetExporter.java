@@ -29,9 +29,6 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.N5Reader;
@@ -56,7 +53,6 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.ui.UIService;
 
-import ij.IJ;
 import ij.ImagePlus;
 import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
@@ -100,6 +96,8 @@ public class N5SubsetExporter extends ContextCommand {
 	@Parameter(label = "Thread count", required = true, min = "1", max = "256")
 	private int nThreads = 1;
 
+	private final ExportMetrics.Tracker metricsTracker = new ExportMetrics.Tracker();
+
 	@Parameter(
 			label = "Offset",
 			required = false,
@@ -189,6 +187,20 @@ public class N5SubsetExporter extends ContextCommand {
 		this.compressionArg = compression;
 	}
 
+	/**
+	 * @return the listeners and the metrics of the exports, e.g. for headless
+	 *         batch jobs
+	 */
+	public ExportMetrics.Tracker getMetricsTracker() {
+
+		return metricsTracker;
+	}
+
+	public void setNumThreads(final int nThreads) {
+
+		this.nThreads = nThreads;
+	}
+
 	public void setOffset(final long[] offset) {
 
 		this.offset = offset;
@@ -293,13 +305,10 @@ public class N5SubsetExporter extends ContextCommand {
 		if (zarrFOrder(n5, dataset))
 			axisPermutedImg = AxisUtils.reverseDimensions(axisPermutedImg);
 
-		if (nThreads == 1)
-			N5Utils.saveRegion(axisPermutedImg, n5, dataset);
-		else {
-			final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-			progressMonitor(threadPool);
-			N5Utils.saveRegion(axisPermutedImg, n5, dataset, threadPool);
-			threadPool.shutdown();
+		// every block is reported to the metrics as it is written
+		final ExportMetrics metrics = metricsTracker.start();
+		try (final ExportExecutor exportExecutor = new ExportExecutor(nThreads)) {
+			BlockwiseWriter.writeRegion(axisPermutedImg, n5, dataset, metrics, exportExecutor.getExecutor());
 		}
 	}
 
@@ -318,6 +327,7 @@ public class N5SubsetExporter extends ContextCommand {
 		return (meta instanceof N5DefaultSingleScaleMetadata) && zarrFOrder(n5, meta.getPath());
 	}
 
+
 	private Interval outputInterval(final Interval interval) {
 
 		final int N = interval.numDimensions();
@@ -348,29 +358,4 @@ public class N5SubsetExporter extends ContextCommand {
 		}
 	}
 
-	private void progressMonitor(final ThreadPoolExecutor exec) {
-
-		new Thread() {
-
-			@Override
-			public void run() {
-
-				IJ.showProgress(0.01);
-				try {
-					Thread.sleep(333);
-					boolean done = false;
-					while (!done && !exec.isShutdown()) {
-						final long i = exec.getCompletedTaskCount();
-						final long N = exec.getTaskCount();
-						done = i == N;
-						IJ.showProgress((double)i / N);
-						Thread.sleep(333);
-					}
-				} catch (final InterruptedException e) {}
-				IJ.showProgress(1.0);
-			}
-		}.start();
-		return;
-	}
-
 }
@@ -31,10 +31,6 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.DoubleStream;
 
 import org.janelia.saalfeldlab.n5.Compression;
@@ -46,7 +42,6 @@ import org.janelia.saalfeldlab.n5.N5Writer;
 import org.janelia.saalfeldlab.n5.RawCompression;
 import org.janelia.saalfeldlab.n5.XzCompression;
 import org.janelia.saalfeldlab.n5.blosc.BloscCompression;
-import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.janelia.saalfeldlab.n5.metadata.imagej.CosemToImagePlus;
 import org.janelia.saalfeldlab.n5.metadata.imagej.ImagePlusLegacyMetadataParser;
 import org.janelia.saalfeldlab.n5.metadata.imagej.ImagePlusMetadataTemplate;
@@ -73,7 +68,6 @@ import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
 import org.scijava.ui.UIService;
 
-import ij.IJ;
 import ij.ImagePlus;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
@@ -142,7 +136,11 @@ public class NgffExporter implements WindowListener {
 	private String compressionArg = GZIP_COMPRESSION;
 
 	@Parameter(label = "Thread count", required = true, min = "1", max = "256")
-	private final int nThreads = 1;
+	private int nThreads = 1;
+
+	private ExportExecutor exportExecutor;
+
+	private final ExportMetrics.Tracker metricsTracker = new ExportMetrics.Tracker();
 
 	@Parameter(
 			label = "Overwrite options",
@@ -208,6 +206,20 @@ public class NgffExporter implements WindowListener {
 		this.subsetOffset = subsetOffset;
 	}
 
+	/**
+	 * @return the listeners and the metrics of the exports, e.g. for headless
+	 *         batch jobs
+	 */
+	public ExportMetrics.Tracker getMetricsTracker() {
+
+		return metricsTracker;
+	}
+
+	public void setNumThreads(final int nThreads) {
+
+		this.nThreads = nThreads;
+	}
+
 	public void parseBlockSize() {
 
 		final int nd = image.getNDimensions();
@@ -244,35 +256,51 @@ public class NgffExporter implements WindowListener {
 		// N5ImagePlusMetadata))
 		// log.warn("RGB images are best saved using ImageJ metatadata. Other
 		// choices may lead to unexpected behavior.");
-		final Img<T> img = ImageJFunctions.wrap(image);
-		final int nd = img.numDimensions();
-		write(img, n5, dataset + "/s0", compression, writer);
 
+		// one pool for all scale levels of this export
+		// progress is shown by the metrics, which count the blocks written
+		exportExecutor = new ExportExecutor(nThreads);
+		metricsTracker.start();
 		final DatasetAttributes[] dsetAttrs = new DatasetAttributes[numScales];
 		final OmeNgffDataset[] msDatasets = new OmeNgffDataset[numScales];
+		try {
+			final Img<T> img = ImageJFunctions.wrap(image);
+			final int nd = img.numDimensions();
+
+			// the coarser levels count towards the progress and time remaining before they are written
+			for (int i = 0, f = 1; i < numScales; i++, f *= 2)
+				metricsTracker.getMetrics().planDataset(
+						i == 0 ? dataset + "/s0" : String.format("%s/s%d", dataset, i),
+						BlockwiseWriter.numBlocks(downsampleSimple(img, f).dimensionsAsLongArray(), blockSize));
 
-		String dset = dataset + "/s0";
-		dsetAttrs[0] = n5.getDatasetAttributes(dset);
-		msDatasets[0] = new OmeNgffDataset();
-		msDatasets[0].path = dset;
+			write(img, n5, dataset + "/s0", compression, writer);
 
-		int scale = 1;
-		for (int i = 1; i < numScales; i++) {
+			String dset = dataset + "/s0";
+			dsetAttrs[0] = n5.getDatasetAttributes(dset);
+			msDatasets[0] = new OmeNgffDataset();
+			msDatasets[0].path = dset;
 
-			scale *= 2;
-			final SubsampleIntervalView<T> imgDown = downsampleSimple(img, scale);
-			dset = String.format("%s/s%d", dataset, i);
+			int scale = 1;
+			for (int i = 1; i < numScales; i++) {
 
-			write(imgDown, n5, dset, compression, writer);
-			dsetAttrs[i] = n5.getDatasetAttributes(dset);
+				scale *= 2;
+				final SubsampleIntervalView<T> imgDown = downsampleSimple(img, scale);
+				dset = String.format("%s/s%d", dataset, i);
 
-			msDatasets[i] = new OmeNgffDataset();
-			msDatasets[i].path = dset;
-			final double s = scale;
-			msDatasets[i].coordinateTransformations = new CoordinateTransformation[]{
-					new ScaleCoordinateTransformation(DoubleStream.generate(() -> s).limit(nd).toArray())
-			};
+				write(imgDown, n5, dset, compression, writer);
+				dsetAttrs[i] = n5.getDatasetAttributes(dset);
 
+				msDatasets[i] = new OmeNgffDataset();
+				msDatasets[i].path = dset;
+				final double s = scale;
+				msDatasets[i].coordinateTransformations = new CoordinateTransformation[]{
+						new ScaleCoordinateTransformation(DoubleStream.generate(() -> s).limit(nd).toArray())
+				};
+
+			}
+		} finally {
+			exportExecutor.close();
+			exportExecutor = null;
 		}
 
 		final OmeNgffMultiScaleMetadata ms = buildMetadata(dataset, dsetAttrs, msDatasets);
@@ -374,12 +402,9 @@ public class NgffExporter implements WindowListener {
 		}
 
 		// Here, either allowing overwrite, or not allowing, but the dataset does not exist
-
-		// use threadPool even for single threaded execution for progress monitoring
-		final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
-				new LinkedBlockingQueue<Runnable>());
-		progressMonitor(threadPool);
-		N5Utils.save(image, n5, dataset, blockSize, compression, Executors.newFixedThreadPool(nThreads));
+		final BlockwiseWriter<?> blockwiseWriter = new BlockwiseWriter(image, n5, dataset, blockSize, compression);
+		blockwiseWriter.setMetrics(metricsTracker.getMetrics());
+		blockwiseWriter.write(exportExecutor.getExecutor());
 		writeMetadata(n5, dataset, writer);
 	}
 
@@ -429,31 +454,6 @@ public class NgffExporter implements WindowListener {
 		}
 	}
 
-	private void progressMonitor(final ThreadPoolExecutor exec) {
-
-		new Thread() {
-
-			@Override
-			public void run() {
-
-				IJ.showProgress(0.01);
-				try {
-					Thread.sleep(333);
-					boolean done = false;
-					while (!done && !exec.isShutdown()) {
-						final long i = exec.getCompletedTaskCount();
-						final long N = exec.getTaskCount();
-						done = i == N;
-						IJ.showProgress((double)i / N);
-						Thread.sleep(333);
-					}
-				} catch (final InterruptedException e) {}
-				IJ.showProgress(1.0);
-			}
-		}.start();
-		return;
-	}
-
 	private Compression getCompression() {
 
 		switch (compressionArg) {
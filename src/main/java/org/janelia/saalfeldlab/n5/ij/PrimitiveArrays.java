@@ -0,0 +1,414 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DoubleArrayDataBlock;
+import org.janelia.saalfeldlab.n5.FloatArrayDataBlock;
+import org.janelia.saalfeldlab.n5.IntArrayDataBlock;
+import org.janelia.saalfeldlab.n5.LongArrayDataBlock;
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+
+import net.imglib2.img.NativeImg;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+
+/**
+ * Helpers for copying between the flattened primitive arrays backing
+ * {@link DataBlock}s, ImageJ processors and imglib2 array images.
+ * <p>
+ * All arrays are assumed to be flattened with the first dimension varying
+ * fastest, which is the layout shared by N5 data blocks and imglib2.
+ */
+public final class PrimitiveArrays {
+
+	private PrimitiveArrays() {}
+
+	/**
+	 * Copies an n-dimensional sub-region of one flattened primitive array into
+	 * another.
+	 *
+	 * @param src
+	 *            the source array
+	 * @param srcSize
+	 *            the dimensions of the source array
+	 * @param srcPos
+	 *            the position of the region in the source array
+	 * @param dest
+	 *            the destination array, of the same primitive type as src
+	 * @param destSize
+	 *            the dimensions of the destination array
+	 * @param destPos
+	 *            the position of the region in the destination array
+	 * @param size
+	 *            the size of the region
+	 */
+	public static void copy(
+			final Object src,
+			final int[] srcSize,
+			final int[] srcPos,
+			final Object dest,
+			final int[] destSize,
+			final int[] destPos,
+			final int[] size) {
+
+		final int nd = size.length;
+		for (int d = 0; d < nd; d++)
+			if (size[d] <= 0)
+				return;
+
+		final int[] srcStrides = strides(srcSize);
+		final int[] destStrides = strides(destSize);
+		copy(nd - 1, src, srcStrides, offset(srcStrides, srcPos), dest, destStrides, offset(destStrides, destPos), size);
+	}
+
+	private static void copy(
+			final int d,
+			final Object src,
+			final int[] srcStrides,
+			final int srcOffset,
+			final Object dest,
+			final int[] destStrides,
+			final int destOffset,
+			final int[] size) {
+
+		if (d == 0) {
+			System.arraycopy(src, srcOffset, dest, destOffset, size[0]);
+			return;
+		}
+
+		for (int i = 0; i < size[d]; i++)
+			copy(d - 1, src, srcStrides, srcOffset + i * srcStrides[d], dest, destStrides, destOffset + i * destStrides[d], size);
+	}
+
+	/**
+	 * Subsamples a flattened primitive array, i.e. sets
+	 * <code>dest[x] = src[x * factors]</code> for every position x in dest.
+	 *
+	 * @param src
+	 *            the source array
+	 * @param srcSize
+	 *            the dimensions of the source array
+	 * @param dest
+	 *            the destination array, of the same primitive type as src
+	 * @param destSize
+	 *            the dimensions of the destination array
+	 * @param factors
+	 *            the subsampling factors
+	 */
+	public static void subsample(
+			final Object src,
+			final int[] srcSize,
+			final Object dest,
+			final int[] destSize,
+			final int[] factors) {
+
+		final int[] srcStrides = strides(srcSize);
+		final int[] destStrides = strides(destSize);
+		subsample(destSize.length - 1, src, srcStrides, 0, dest, destStrides, 0, destSize, factors);
+	}
+
+	private static void subsample(
+			final int d,
+			final Object src,
+			final int[] srcStrides,
+			final int srcOffset,
+			final Object dest,
+			final int[] destStrides,
+			final int destOffset,
+			final int[] destSize,
+			final int[] factors) {
+
+		if (d == 0) {
+			copyStrided(src, srcOffset, factors[0], dest, destOffset, destSize[0]);
+			return;
+		}
+
+		final int srcStep = factors[d] * srcStrides[d];
+		for (int i = 0; i < destSize[d]; i++)
+			subsample(d - 1, src, srcStrides, srcOffset + i * srcStep, dest, destStrides, destOffset + i * destStrides[d], destSize, factors);
+	}
+
+	private static void copyStrided(
+			final Object src,
+			final int srcOffset,
+			final int step,
+			final Object dest,
+			final int destOffset,
+			final int length) {
+
+		if (step == 1) {
+			System.arraycopy(src, srcOffset, dest, destOffset, length);
+		} else if (src instanceof byte[]) {
+			final byte[] s = (byte[])src;
+			final byte[] t = (byte[])dest;
+			for (int i = 0; i < length; i++)
+				t[destOffset + i] = s[srcOffset + i * step];
+		} else if (src instanceof short[]) {
+			final short[] s = (short[])src;
+			final short[] t = (short[])dest;
+			for (int i = 0; i < length; i++)
+				t[destOffset + i] = s[srcOffset + i * step];
+		} else if (src instanceof int[]) {
+			final int[] s = (int[])src;
+			final int[] t = (int[])dest;
+			for (int i = 0; i < length; i++)
+				t[destOffset + i] = s[srcOffset + i * step];
+		} else if (src instanceof long[]) {
+			final long[] s = (long[])src;
+			final long[] t = (long[])dest;
+			for (int i = 0; i < length; i++)
+				t[destOffset + i] = s[srcOffset + i * step];
+		} else if (src instanceof float[]) {
+			final float[] s = (float[])src;
+			final float[] t = (float[])dest;
+			for (int i = 0; i < length; i++)
+				t[destOffset + i] = s[srcOffset + i * step];
+		} else if (src instanceof double[]) {
+			final double[] s = (double[])src;
+			final double[] t = (double[])dest;
+			for (int i = 0; i < length; i++)
+				t[destOffset + i] = s[srcOffset + i * step];
+		} else
+			throw new IllegalArgumentException("Unsupported array type: " + src.getClass());
+	}
+
+	/**
+	 * Returns the primitive array backing an {@link ArrayImg} or a single
+	 * cell of a cell img.
+	 *
+	 * @param img
+	 *            the array img
+	 * @return the storage array
+	 */
+	public static Object storageArray(final NativeImg<?, ?> img) {
+
+		return ((ArrayDataAccess<?>)img.update(null)).getCurrentStorageArray();
+	}
+
+	/**
+	 * Wraps a primitive array in a {@link DataBlock} of the given
+	 * {@link DataType} without copying it.
+	 *
+	 * @param dataType
+	 *            the data type
+	 * @param size
+	 *            the block size
+	 * @param gridPosition
+	 *            the grid position of the block
+	 * @param data
+	 *            the primitive array matching the data type
+	 * @return the data block
+	 */
+	public static DataBlock<?> dataBlock(
+			final DataType dataType,
+			final int[] size,
+			final long[] gridPosition,
+			final Object data) {
+
+		switch (dataType) {
+		case UINT8:
+		case INT8:
+			return new ByteArrayDataBlock(size, gridPosition, (byte[])data);
+		case UINT16:
+		case INT16:
+			return new ShortArrayDataBlock(size, gridPosition, (short[])data);
+		case UINT32:
+		case INT32:
+			return new IntArrayDataBlock(size, gridPosition, (int[])data);
+		case UINT64:
+		case INT64:
+			return new LongArrayDataBlock(size, gridPosition, (long[])data);
+		case FLOAT32:
+			return new FloatArrayDataBlock(size, gridPosition, (float[])data);
+		case FLOAT64:
+			return new DoubleArrayDataBlock(size, gridPosition, (double[])data);
+		default:
+			throw new IllegalArgumentException("Unsupported data type: " + dataType);
+		}
+	}
+
+	/**
+	 * Wraps a primitive array in an {@link ArrayDataAccess} without copying
+	 * it.
+	 *
+	 * @param data
+	 *            the primitive array
+	 * @return the access
+	 */
+	public static ArrayDataAccess<?> access(final Object data) {
+
+		if (data instanceof byte[])
+			return new ByteArray((byte[])data);
+		else if (data instanceof short[])
+			return new ShortArray((short[])data);
+		else if (data instanceof int[])
+			return new IntArray((int[])data);
+		else if (data instanceof long[])
+			return new LongArray((long[])data);
+		else if (data instanceof float[])
+			return new FloatArray((float[])data);
+		else if (data instanceof double[])
+			return new DoubleArray((double[])data);
+		else
+			throw new IllegalArgumentException("Unsupported array type: " + data.getClass());
+	}
+
+	/**
+	 * Returns the number of bytes used by the elements of a primitive array.
+	 *
+	 * @param data
+	 *            the primitive array
+	 * @return the size in bytes
+	 */
+	public static long sizeInBytes(final Object data) {
+
+		if (data instanceof byte[])
+			return ((byte[])data).length;
+		else if (data instanceof short[])
+			return 2L * ((short[])data).length;
+		else if (data instanceof int[])
+			return 4L * ((int[])data).length;
+		else if (data instanceof long[])
+			return 8L * ((long[])data).length;
+		else if (data instanceof float[])
+			return 4L * ((float[])data).length;
+		else if (data instanceof double[])
+			return 8L * ((double[])data).length;
+		else
+			throw new IllegalArgumentException("Unsupported array type: " + data.getClass());
+	}
+
+	/**
+	 * Checks whether all elements of a primitive array are zero, the value
+	 * that N5 and Zarr readers return for chunks that do not exist.
+	 *
+	 * @param data
+	 *            the primitive array
+	 * @return true if all elements are zero
+	 */
+	public static boolean isZero(final Object data) {
+
+		if (data instanceof byte[]) {
+			for (final byte v : (byte[])data)
+				if (v != 0)
+					return false;
+		} else if (data instanceof short[]) {
+			for (final short v : (short[])data)
+				if (v != 0)
+					return false;
+		} else if (data instanceof int[]) {
+			for (final int v : (int[])data)
+				if (v != 0)
+					return false;
+		} else if (data instanceof long[]) {
+			for (final long v : (long[])data)
+				if (v != 0)
+					return false;
+		} else if (data instanceof float[]) {
+			// by bits, so that -0 is written
+			for (final float v : (float[])data)
+				if (Float.floatToRawIntBits(v) != 0)
+					return false;
+		} else if (data instanceof double[]) {
+			for (final double v : (double[])data)
+				if (Double.doubleToRawLongBits(v) != 0)
+					return false;
+		} else
+			throw new IllegalArgumentException("Unsupported array type: " + data.getClass());
+
+		return true;
+	}
+
+	/**
+	 * Returns the number of bytes of a single element of the given type.
+	 *
+	 * @param dataType
+	 *            the data type
+	 * @return the size in bytes
+	 */
+	public static int bytesPerElement(final DataType dataType) {
+
+		switch (dataType) {
+		case INT8:
+		case UINT8:
+			return 1;
+		case INT16:
+		case UINT16:
+			return 2;
+		case INT32:
+		case UINT32:
+		case FLOAT32:
+			return 4;
+		default:
+			return 8;
+		}
+	}
+
+	/**
+	 * Returns the number of elements of an array with the given dimensions.
+	 *
+	 * @param size
+	 *            the dimensions
+	 * @return the number of elements
+	 */
+	public static int numElements(final int[] size) {
+
+		int n = 1;
+		for (final int s : size)
+			n *= s;
+
+		return n;
+	}
+
+	static int[] strides(final int[] size) {
+
+		final int[] strides = new int[size.length];
+		strides[0] = 1;
+		for (int d = 1; d < size.length; d++)
+			strides[d] = strides[d - 1] * size[d - 1];
+
+		return strides;
+	}
+
+	private static int offset(final int[] strides, final int[] pos) {
+
+		int offset = 0;
+		for (int d = 0; d < strides.length; d++)
+			offset += pos[d] * strides[d];
+
+		return offset;
+	}
+
+}
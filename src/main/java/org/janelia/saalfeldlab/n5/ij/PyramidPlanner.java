@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the downsampling factors of every level of a scale pyramid relative
+ * to the level before it. Only spatial axes are downsampled.
+ * <p>
+ * A planner is created from a specification that is one of
+ * <ul>
+ * <li>a single integer, e.g. "2", the factor of every spatial axis at every
+ * level,</li>
+ * <li>"{@value #ISOTROPIC}", factors of 2 on the spatial axes whose resolution
+ * is finest, until all spatial axes have about the same resolution, and on all
+ * spatial axes after that,</li>
+ * <li>a schedule of levels separated by ";" with comma separated factors for
+ * the spatial axes, e.g. "2,2,1;2,2,1;2,2,2". The last factor of a level is
+ * repeated for the remaining spatial axes, and the pyramid ends after the last
+ * level of the schedule.</li>
+ * </ul>
+ */
+public class PyramidPlanner {
+
+	public static final String DEFAULT = "2";
+
+	public static final String ISOTROPIC = "isotropic";
+
+	private final String spec;
+
+	private final long factor;
+
+	private final long[][] schedule;
+
+	private PyramidPlanner(final String spec, final long factor, final long[][] schedule) {
+
+		this.spec = spec;
+		this.factor = factor;
+		this.schedule = schedule;
+	}
+
+	/**
+	 * Creates a planner from a specification, see {@link PyramidPlanner}.
+	 *
+	 * @param spec
+	 *            the specification, the default if null or empty
+	 * @return the planner
+	 * @throws IllegalArgumentException
+	 *             if the specification can not be parsed
+	 */
+	public static PyramidPlanner parse(final String spec) {
+
+		final String s = spec == null || spec.trim().isEmpty() ? DEFAULT : spec.trim();
+		if (s.equalsIgnoreCase(ISOTROPIC))
+			return new PyramidPlanner(ISOTROPIC, 0, null);
+
+		try {
+			if (!s.contains(",") && !s.contains(";"))
+				return new PyramidPlanner(s, checkFactor(Long.parseLong(s)), null);
+
+			final String[] levels = s.split(";");
+			final long[][] schedule = new long[levels.length][];
+			for (int l = 0; l < levels.length; l++)
+				schedule[l] = Arrays.stream(levels[l].split(","))
+						.mapToLong(x -> checkFactor(Long.parseLong(x.trim())))
+						.toArray();
+
+			return new PyramidPlanner(s, 0, schedule);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Could not parse downsampling factors: " + spec, e);
+		}
+	}
+
+	/**
+	 * Returns the factors of a level relative to the level before it. Factors
+	 * are clamped to the size of the previous level, so that no axis becomes
+	 * empty.
+	 *
+	 * @param level
+	 *            the level, at least 1
+	 * @param spatial
+	 *            which axes are spatial
+	 * @param resolution
+	 *            the resolution of the previous level, non-positive values are
+	 *            treated as unknown
+	 * @param dimensions
+	 *            the dimensions of the previous level
+	 * @return the relative factors, or null if the pyramid ends before this
+	 *         level
+	 */
+	public long[] relativeFactors(final int level, final boolean[] spatial, final double[] resolution, final long[] dimensions) {
+
+		final int nd = spatial.length;
+		final long[] factors = new long[nd];
+		Arrays.fill(factors, 1);
+
+		if (schedule != null) {
+			if (level > schedule.length)
+				return null;
+
+			final long[] levelFactors = schedule[level - 1];
+			int j = 0;
+			for (int i = 0; i < nd; i++)
+				if (spatial[i])
+					factors[i] = levelFactors[Math.min(j++, levelFactors.length - 1)];
+
+		} else if (factor > 0) {
+			for (int i = 0; i < nd; i++)
+				if (spatial[i])
+					factors[i] = factor;
+
+		} else
+			isotropicFactors(spatial, resolution, factors);
+
+		boolean any = false;
+		for (int i = 0; i < nd; i++) {
+			factors[i] = Math.max(1, Math.min(factors[i], dimensions[i]));
+			any |= factors[i] > 1;
+		}
+
+		return any ? factors : null;
+	}
+
+	private static void isotropicFactors(final boolean[] spatial, final double[] resolution, final long[] factors) {
+
+		double max = 0;
+		for (int i = 0; i < spatial.length; i++)
+			if (spatial[i])
+				max = Math.max(max, resolution(resolution, i));
+
+		// axes that are more than sqrt(2) finer than the coarsest axis get
+		// closer to it if they alone are downsampled
+		final double threshold = max / Math.sqrt(2);
+		boolean anyFiner = false;
+		for (int i = 0; i < spatial.length; i++)
+			anyFiner |= spatial[i] && resolution(resolution, i) < threshold;
+
+		for (int i = 0; i < spatial.length; i++)
+			if (spatial[i] && (!anyFiner || resolution(resolution, i) < threshold))
+				factors[i] = 2;
+	}
+
+	private static double resolution(final double[] resolution, final int i) {
+
+		return resolution != null && i < resolution.length && resolution[i] > 0 ? resolution[i] : 1;
+	}
+
+	private static long checkFactor(final long factor) {
+
+		if (factor < 1)
+			throw new IllegalArgumentException("Downsampling factors must be positive: " + factor);
+
+		return factor;
+	}
+
+	@Override
+	public String toString() {
+
+		return spec;
+	}
+
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import ij.Prefs;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * A block cache with a fixed budget in bytes, shared by all images opened
+ * through it.
+ * <p>
+ * Blocks are evicted in least-recently-used order as soon as the total size
+ * of all cached blocks exceeds the budget, independent of garbage collection.
+ * The number of hits, misses and evictions is counted so that the budget can
+ * be sized for a given machine.
+ * <p>
+ * Opening a dataset drops its cached blocks, so that a dataset that was
+ * overwritten since it was last opened is read again. Blocks are also keyed
+ * by the data type, dimensions and block size of the dataset.
+ * <p>
+ * The budget of the {@link #getDefault() default} cache is read from the
+ * ImageJ preference {@value #BUDGET_PREFS_KEY} in megabytes, and defaults to
+ * a quarter of the maximum heap size.
+ */
+public class SharedBlockCache {
+
+	public static final String BUDGET_PREFS_KEY = "n5.blockCacheMegabytes";
+
+	private static SharedBlockCache defaultCache;
+
+	private final LinkedHashMap<Key, Object> blocks = new LinkedHashMap<>(64, 0.75f, true);
+
+	private long maxBytes;
+
+	private long bytes;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * @param maxBytes
+	 *            the budget in bytes
+	 */
+	public SharedBlockCache(final long maxBytes) {
+
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the cache shared by all virtual imports
+	 */
+	public static synchronized SharedBlockCache getDefault() {
+
+		if (defaultCache == null) {
+			final double defaultMegabytes = Runtime.getRuntime().maxMemory() / 4.0 / (1 << 20);
+			final double megabytes = Prefs.get(BUDGET_PREFS_KEY, defaultMegabytes);
+			defaultCache = new SharedBlockCache((long)(megabytes * (1 << 20)));
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Opens a dataset as a lazily loaded image whose blocks are held by this
+	 * cache. Blocks of the dataset cached by earlier calls are dropped.
+	 *
+	 * @param <T>
+	 *            the image data type
+	 * @param n5
+	 *            the reader
+	 * @param dataset
+	 *            the dataset
+	 * @return the image
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public <T extends NativeType<T>> LazyCellImg<T, ?> open(final N5Reader n5, final String dataset) {
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		final CellGrid grid = new CellGrid(attributes.getDimensions(), attributes.getBlockSize());
+		final long[] gridDimensions = grid.getGridDimensions();
+		final String container = n5.getURI().toString();
+		final String path = DatasetResolver.normalize(dataset);
+		final T type = (T)N5Utils.type(attributes.getDataType());
+
+		invalidate(container, path);
+
+		final LazyCellImg.Get<Cell<ArrayDataAccess<?>>> cells = index -> {
+
+			final long[] gridPosition = new long[gridDimensions.length];
+			IntervalIndexer.indexToPosition(index, gridDimensions, gridPosition);
+
+			final long[] cellMin = new long[gridDimensions.length];
+			final int[] cellDims = new int[gridDimensions.length];
+			grid.getCellDimensions(index, cellMin, cellDims);
+
+			final Object data = get(new Key(container, path, attributes, gridPosition),
+					() -> loadCell(n5, dataset, attributes, gridPosition, cellDims));
+			return new Cell<>(cellDims, cellMin, PrimitiveArrays.access(data));
+		};
+		return new LazyCellImg(grid, type, cells);
+	}
+
+	/**
+	 * Reads a block, copying it to the size of the cell if they differ, as
+	 * for the edge chunks of zarr arrays. Missing blocks are zero.
+	 */
+	private static Object loadCell(
+			final N5Reader n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final long[] gridPosition,
+			final int[] cellDims) {
+
+		final DataType dataType = attributes.getDataType();
+		final DataBlock<?> block = n5.readBlock(dataset, attributes, gridPosition);
+		if (block != null && Arrays.equals(block.getSize(), cellDims))
+			return block.getData();
+
+		final Object data = dataType.createDataBlock(cellDims, gridPosition).getData();
+		if (block != null) {
+			final int[] size = new int[cellDims.length];
+			Arrays.setAll(size, d -> Math.min(cellDims[d], block.getSize()[d]));
+			final int[] origin = new int[cellDims.length];
+			PrimitiveArrays.copy(block.getData(), block.getSize(), origin, data, cellDims, origin, size);
+		}
+		return data;
+	}
+
+	@FunctionalInterface
+	private interface Loader {
+
+		Object load();
+	}
+
+	private Object get(final Key key, final Loader loader) {
+
+		synchronized (this) {
+			final Object data = blocks.get(key);
+			if (data != null) {
+				hits++;
+				return data;
+			}
+			misses++;
+		}
+
+		// load outside the lock, concurrent loads of the same block are harmless
+		final Object data = loader.load();
+		synchronized (this) {
+			final Object previous = blocks.put(key, data);
+			if (previous != null)
+				bytes -= PrimitiveArrays.sizeInBytes(previous);
+
+			bytes += PrimitiveArrays.sizeInBytes(data);
+			evict();
+		}
+		return data;
+	}
+
+	/**
+	 * Removes the blocks of a dataset.
+	 *
+	 * @param container
+	 *            the container URI
+	 * @param dataset
+	 *            the normalized dataset path
+	 */
+	private synchronized void invalidate(final String container, final String dataset) {
+
+		final Iterator<Map.Entry<Key, Object>> it = blocks.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<Key, Object> entry = it.next();
+			if (entry.getKey().dataset.equals(dataset) && entry.getKey().container.equals(container)) {
+				bytes -= PrimitiveArrays.sizeInBytes(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	private void evict() {
+
+		final Iterator<Map.Entry<Key, Object>> it = blocks.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= PrimitiveArrays.sizeInBytes(it.next().getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Changes the budget, evicting blocks if necessary.
+	 *
+	 * @param maxBytes
+	 *            the budget in bytes
+	 */
+	public synchronized void setMaxBytes(final long maxBytes) {
+
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public synchronized long getMaxBytes() {
+
+		return maxBytes;
+	}
+
+	/**
+	 * @return the total size of all cached blocks in bytes
+	 */
+	public synchronized long getBytes() {
+
+		return bytes;
+	}
+
+	public synchronized int getNumBlocks() {
+
+		return blocks.size();
+	}
+
+	public synchronized long getHits() {
+
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+
+		return evictions;
+	}
+
+	/**
+	 * Removes all blocks and resets the counters.
+	 */
+	public synchronized void clear() {
+
+		blocks.clear();
+		bytes = 0;
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+
+		return String.format("%d blocks, %d of %d MB, %d hits, %d misses, %d evictions",
+				blocks.size(), bytes >> 20, maxBytes >> 20, hits, misses, evictions);
+	}
+
+	private static class Key {
+
+		private final String container;
+
+		private final String dataset;
+
+		private final DataType dataType;
+
+		private final long[] dimensions;
+
+		private final int[] blockSize;
+
+		private final long[] gridPosition;
+
+		private final int hash;
+
+		public Key(final String container, final String dataset, final DatasetAttributes attributes, final long[] gridPosition) {
+
+			this.container = container;
+			this.dataset = dataset;
+			this.dataType = attributes.getDataType();
+			this.dimensions = attributes.getDimensions();
+			this.blockSize = attributes.getBlockSize();
+			this.gridPosition = gridPosition;
+			hash = 31 * (31 * container.hashCode() + dataset.hashCode()) + Arrays.hashCode(gridPosition);
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+
+			if (!(other instanceof Key))
+				return false;
+
+			final Key k = (Key)other;
+			return Arrays.equals(gridPosition, k.gridPosition) && dataset.equals(k.dataset) && container.equals(k.container) &&
+					dataType == k.dataType && Arrays.equals(dimensions, k.dimensions) && Arrays.equals(blockSize, k.blockSize);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return hash;
+		}
+	}
+
+}
@@ -0,0 +1,686 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.ij.N5ScalePyramidExporter.DOWNSAMPLE_METHOD;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.statistics.StatisticsSidecar;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.blocks.BlockSupplier;
+import net.imglib2.algorithm.blocks.downsample.Downsample;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.view.Views;
+
+/**
+ * Writes all levels of a multi-scale pyramid in a single pass over the full
+ * resolution image.
+ * <p>
+ * The chunk grid of the coarsest level is traversed depth-first, so that the
+ * children of every block are visited consecutively. Every s0 chunk is read
+ * from the source exactly once, and a chunk at level s is downsampled and
+ * written as soon as all of its children at level s-1 are complete. Partially
+ * reduced blocks are kept in memory only until their last child arrives, and
+ * the number of blocks in flight is bounded by the parallelism, so memory use
+ * does not depend on the size of the image.
+ * <p>
+ * This requires that the chunk of every level covers a whole number of chunks
+ * of the level below it, see {@link #isAligned()}.
+ *
+ * @param <T>
+ *            the image data type
+ */
+public class SinglePassPyramidWriter<T extends NativeType<T>> {
+
+	private final RandomAccessibleInterval<T> source;
+
+	private final N5Writer n5;
+
+	private final Compression compression;
+
+	private final DOWNSAMPLE_METHOD method;
+
+	private final T type;
+
+	private final DataType dataType;
+
+	private final List<String> datasets = new ArrayList<>();
+
+	private final List<DatasetAttributes> attributes = new ArrayList<>();
+
+	private final List<int[]> relativeFactors = new ArrayList<>();
+
+	private final HashMap<BlockKey, PartialBlock> partialBlocks = new HashMap<>();
+
+	private final List<StatisticsSidecar> statistics = new ArrayList<>();
+
+	private boolean computeStatistics = false;
+
+	private boolean skipEmpty = false;
+
+	private ExportMetrics metrics;
+
+	private final List<ExportMetrics.DatasetMetrics> levelMetrics = new ArrayList<>();
+
+	private final List<ExportManifest> manifests = new ArrayList<>();
+
+	private BlockSupplier<T> sourceBlocks;
+
+	private ExecutorService exec;
+
+	// the blocks above the task level whose sub-trees are not submitted yet, depth-first
+	private final ArrayDeque<BlockKey> pending = new ArrayDeque<>();
+
+	private CompletableFuture<Void> result;
+
+	private boolean failed;
+
+	private int taskLevel;
+
+	private int maxTasksInFlight;
+
+	private int tasksInFlight;
+
+	public SinglePassPyramidWriter(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final Compression compression,
+			final DOWNSAMPLE_METHOD method) {
+
+		this.source = Views.zeroMin(source);
+		this.n5 = n5;
+		this.compression = compression;
+		this.method = method;
+
+		type = source.getType();
+		dataType = N5Utils.dataType(type);
+	}
+
+	/**
+	 * Adds the next level of the pyramid. The first level added must be the
+	 * full resolution level, its downsampling factors are ignored.
+	 *
+	 * @param dataset
+	 *            the dataset path for this level
+	 * @param dimensions
+	 *            the dimensions of this level
+	 * @param blockSize
+	 *            the chunk size of this level
+	 * @param factors
+	 *            the downsampling factors relative to the previous level
+	 */
+	public void addLevel(final String dataset, final long[] dimensions, final int[] blockSize, final long[] factors) {
+
+		datasets.add(dataset);
+		attributes.add(new DatasetAttributes(dimensions.clone(), blockSize.clone(), dataType, compression));
+		relativeFactors.add(Arrays.stream(factors).mapToInt(x -> (int)x).toArray());
+	}
+
+	public int numLevels() {
+
+		return datasets.size();
+	}
+
+	public String getDataset(final int level) {
+
+		return datasets.get(level);
+	}
+
+	public int[] getBlockSize(final int level) {
+
+		return attributes.get(level).getBlockSize();
+	}
+
+	/**
+	 * Set whether to compute the statistics of every chunk as it is written.
+	 *
+	 * @param computeStatistics
+	 *            the flag
+	 */
+	public void setComputeStatistics(final boolean computeStatistics) {
+
+		this.computeStatistics = computeStatistics;
+	}
+
+	/**
+	 * Set whether to leave out blocks whose elements are all zero.
+	 *
+	 * @param skipEmpty
+	 *            the flag
+	 * @see BlockwiseWriter#setSkipEmptyChunks(boolean)
+	 */
+	public void setSkipEmptyChunks(final boolean skipEmpty) {
+
+		this.skipEmpty = skipEmpty;
+	}
+
+	/**
+	 * Set the metrics that every written block is reported to.
+	 *
+	 * @param metrics
+	 *            the metrics, may be null
+	 */
+	public void setMetrics(final ExportMetrics metrics) {
+
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param level
+	 *            the level
+	 * @return the chunk statistics of the level after {@link #write}, or null
+	 *         if they were not computed
+	 */
+	public StatisticsSidecar getStatistics(final int level) {
+
+		return computeStatistics ? statistics.get(level) : null;
+	}
+
+	/**
+	 * Checks whether every chunk of every level covers a whole number of
+	 * chunks of the previous level. Along a dimension with a single chunk,
+	 * that chunk always covers all chunks of the previous level.
+	 *
+	 * @return true if this pyramid can be written in a single pass
+	 */
+	public boolean isAligned() {
+
+		for (int l = 1; l < numLevels(); l++) {
+
+			final long[] dims = attributes.get(l).getDimensions();
+			final int[] blockSize = attributes.get(l).getBlockSize();
+			final int[] childBlockSize = attributes.get(l - 1).getBlockSize();
+			final int[] factors = relativeFactors.get(l);
+			for (int d = 0; d < dims.length; d++) {
+				if (((long)blockSize[d] * factors[d]) % childBlockSize[d] != 0 && dims[d] > blockSize[d])
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes all levels of the pyramid.
+	 *
+	 * @param exec
+	 *            the executor service
+	 * @param parallelism
+	 *            the number of threads used by the executor service
+	 * @throws InterruptedException
+	 *             interrupted
+	 * @throws ExecutionException
+	 *             execution
+	 */
+	public void write(final ExecutorService exec, final int parallelism) throws InterruptedException, ExecutionException {
+
+		writeAsync(exec, parallelism).get();
+	}
+
+	/**
+	 * Submits the blocks of all levels without waiting for them to be
+	 * written, so that the pyramids of several images can share the executor
+	 * service, and the calling thread may itself be one of its threads. Every
+	 * completed block is passed to its parent by the thread that computed it,
+	 * which then submits the next task.
+	 *
+	 * @param exec
+	 *            the executor service
+	 * @param parallelism
+	 *            the number of threads used by the executor service
+	 * @return a future that completes when all levels are written
+	 */
+	public synchronized CompletableFuture<Void> writeAsync(final ExecutorService exec, final int parallelism) {
+
+		if (!isAligned())
+			throw new IllegalStateException("Chunks of neighboring scale levels are not aligned.");
+
+		statistics.clear();
+		levelMetrics.clear();
+		manifests.clear();
+		for (int l = 0; l < numLevels(); l++) {
+			// chunks are not recorded, so an interrupted single pass is written again in full when resumed
+			manifests.add(ExportManifest.open(n5, datasets.get(l), attributes.get(l), false));
+			if (computeStatistics)
+				statistics.add(new StatisticsSidecar(attributes.get(l)));
+			if (metrics != null)
+				levelMetrics.add(metrics.startDataset(datasets.get(l), numBlocks(l)));
+		}
+
+		sourceBlocks = BlockSupplier.of(source).threadSafe();
+		this.exec = exec;
+		maxTasksInFlight = 2 * Math.max(parallelism, 1);
+		tasksInFlight = 0;
+		failed = false;
+		partialBlocks.clear();
+		result = new CompletableFuture<>();
+
+		/*
+		 * Tasks compute and write whole sub-trees rooted at the task level.
+		 * Choose the coarsest level that still yields enough tasks to keep all
+		 * threads busy, the levels above it are reduced as their children
+		 * complete.
+		 */
+		final int top = numLevels() - 1;
+		taskLevel = 0;
+		for (int l = top; l >= 0; l--) {
+			if (numBlocks(l) >= 4 * parallelism) {
+				taskLevel = l;
+				break;
+			}
+		}
+
+		pending.clear();
+		for (final long[] gridPosition : gridPositions(new long[numDimensions()], numBlocksPerDimension(top)))
+			pending.addLast(new BlockKey(top, gridPosition));
+
+		submit();
+		return result;
+	}
+
+	/**
+	 * Submits tasks until the maximum number is in flight, and finishes the
+	 * pyramid once all tasks completed. Called with the lock held.
+	 */
+	private void submit() {
+
+		while (!failed && tasksInFlight < maxTasksInFlight) {
+			final long[] gridPosition = nextTask();
+			if (gridPosition == null)
+				break;
+
+			tasksInFlight++;
+			try {
+				CompletableFuture.supplyAsync(() -> computeBlock(taskLevel, gridPosition), exec).whenComplete(this::received);
+			} catch (final RuntimeException e) {
+				tasksInFlight--;
+				fail(e);
+			}
+		}
+
+		if (!failed && tasksInFlight == 0 && !result.isDone())
+			finish();
+	}
+
+	private synchronized void received(final DataBlock<?> block, final Throwable e) {
+
+		tasksInFlight--;
+		if (failed)
+			return;
+
+		if (e != null) {
+			fail(e);
+			return;
+		}
+
+		try {
+			deliver(taskLevel, block);
+		} catch (final RuntimeException x) {
+			fail(x);
+			return;
+		}
+		submit();
+	}
+
+	private void fail(final Throwable e) {
+
+		failed = true;
+		result.completeExceptionally(e);
+	}
+
+	private void finish() {
+
+		try {
+			for (final ExportManifest manifest : manifests)
+				manifest.finish();
+
+			for (final ExportMetrics.DatasetMetrics m : levelMetrics)
+				metrics.finishDataset(m);
+		} catch (final RuntimeException e) {
+			fail(e);
+			return;
+		}
+		result.complete(null);
+	}
+
+	/**
+	 * @return the grid position of the next block at the task level, in
+	 *         depth-first order, or null if all were submitted
+	 */
+	private long[] nextTask() {
+
+		while (!pending.isEmpty()) {
+			final BlockKey next = pending.pollFirst();
+			if (next.level == taskLevel)
+				return next.gridPosition;
+
+			final List<long[]> children = childGridPositions(next.level, next.gridPosition);
+			for (int i = children.size() - 1; i >= 0; i--)
+				pending.addFirst(new BlockKey(next.level - 1, children.get(i)));
+		}
+		return null;
+	}
+
+	/**
+	 * Passes a completed block to its parent, and recursively writes all
+	 * parents that are complete as a result.
+	 */
+	private void deliver(final int level, final DataBlock<?> block) {
+
+		if (level == numLevels() - 1)
+			return;
+
+		final long[] parentPosition = parentGridPosition(level, block.getGridPosition());
+		final BlockKey key = new BlockKey(level + 1, parentPosition);
+		PartialBlock parent = partialBlocks.get(key);
+		if (parent == null) {
+			parent = new PartialBlock(level + 1, parentPosition);
+			partialBlocks.put(key, parent);
+		}
+
+		if (parent.add(block)) {
+			partialBlocks.remove(key);
+			deliver(level + 1, parent.reduce());
+		}
+	}
+
+	/**
+	 * Computes and writes the block at the given level and grid position
+	 * together with all of its descendants.
+	 */
+	private DataBlock<?> computeBlock(final int level, final long[] gridPosition) {
+
+		if (level == 0) {
+			final DataBlock<?> block = dataType.createDataBlock(blockSize(0, gridPosition), gridPosition);
+			sourceBlocks.copy(blockMin(0, gridPosition), block.getData(), block.getSize());
+			writeBlock(0, block);
+			return block;
+		}
+
+		final PartialBlock partial = new PartialBlock(level, gridPosition);
+		for (final long[] child : childGridPositions(level, gridPosition))
+			partial.add(computeBlock(level - 1, child));
+
+		return partial.reduce();
+	}
+
+	private int numDimensions() {
+
+		return attributes.get(0).getNumDimensions();
+	}
+
+	private long[] numBlocksPerDimension(final int level) {
+
+		final long[] dims = attributes.get(level).getDimensions();
+		final int[] blockSize = attributes.get(level).getBlockSize();
+		final long[] numBlocks = new long[dims.length];
+		Arrays.setAll(numBlocks, d -> (dims[d] + blockSize[d] - 1) / blockSize[d]);
+		return numBlocks;
+	}
+
+	private long numBlocks(final int level) {
+
+		return Arrays.stream(numBlocksPerDimension(level)).reduce(1, (x, y) -> x * y);
+	}
+
+	private long[] blockMin(final int level, final long[] gridPosition) {
+
+		final int[] blockSize = attributes.get(level).getBlockSize();
+		final long[] min = new long[gridPosition.length];
+		Arrays.setAll(min, d -> gridPosition[d] * blockSize[d]);
+		return min;
+	}
+
+	private int[] blockSize(final int level, final long[] gridPosition) {
+
+		final long[] dims = attributes.get(level).getDimensions();
+		final int[] blockSize = attributes.get(level).getBlockSize();
+		final int[] size = new int[gridPosition.length];
+		Arrays.setAll(size, d -> (int)Math.min(blockSize[d], dims[d] - gridPosition[d] * blockSize[d]));
+		return size;
+	}
+
+	/**
+	 * The parent of a block is the block of the next level that contains the
+	 * downsampled minimum of the block. Trailing blocks that contribute no
+	 * pixels to the next level are assigned to the last block.
+	 */
+	private long[] parentGridPosition(final int level, final long[] gridPosition) {
+
+		final int[] blockSize = attributes.get(level).getBlockSize();
+		final int[] parentBlockSize = attributes.get(level + 1).getBlockSize();
+		final int[] factors = relativeFactors.get(level + 1);
+		final long[] numParentBlocks = numBlocksPerDimension(level + 1);
+
+		final long[] parentPosition = new long[gridPosition.length];
+		for (int d = 0; d < gridPosition.length; d++) {
+			final long p = (gridPosition[d] * blockSize[d] / factors[d]) / parentBlockSize[d];
+			parentPosition[d] = Math.min(p, numParentBlocks[d] - 1);
+		}
+		return parentPosition;
+	}
+
+	private List<long[]> childGridPositions(final int level, final long[] gridPosition) {
+
+		final int[] blockSize = attributes.get(level).getBlockSize();
+		final int[] childBlockSize = attributes.get(level - 1).getBlockSize();
+		final int[] factors = relativeFactors.get(level);
+		final long[] numBlocks = numBlocksPerDimension(level);
+		final long[] numChildBlocks = numBlocksPerDimension(level - 1);
+
+		final int nd = gridPosition.length;
+		final long[] first = new long[nd];
+		final long[] count = new long[nd];
+		for (int d = 0; d < nd; d++) {
+
+			final long sourceMin = gridPosition[d] * blockSize[d] * factors[d];
+			first[d] = sourceMin / childBlockSize[d];
+
+			final long last;
+			if (gridPosition[d] == numBlocks[d] - 1)
+				last = numChildBlocks[d] - 1;
+			else
+				last = (sourceMin + (long)blockSize[d] * factors[d] - 1) / childBlockSize[d];
+
+			count[d] = last - first[d] + 1;
+		}
+		return gridPositions(first, count);
+	}
+
+	private static List<long[]> gridPositions(final long[] first, final long[] count) {
+
+		final int nd = first.length;
+		final long n = Arrays.stream(count).reduce(1, (x, y) -> x * y);
+		final ArrayList<long[]> positions = new ArrayList<>((int)n);
+		final long[] position = first.clone();
+		for (long i = 0; i < n; i++) {
+
+			positions.add(position.clone());
+			for (int d = 0; d < nd; d++) {
+				if (++position[d] < first[d] + count[d])
+					break;
+				position[d] = first[d];
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * A block whose children are collected into a buffer, and which is
+	 * downsampled and written once all children are present.
+	 */
+	private class PartialBlock {
+
+		private final int level;
+
+		private final long[] gridPosition;
+
+		private final long[] bufferMin;
+
+		private final int[] bufferSize;
+
+		private final ArrayImg<T, ?> buffer;
+
+		private final Object bufferData;
+
+		private int remainingChildren;
+
+		public PartialBlock(final int level, final long[] gridPosition) {
+
+			this.level = level;
+			this.gridPosition = gridPosition;
+
+			final int nd = gridPosition.length;
+			final long[] min = blockMin(level, gridPosition);
+			final int[] size = blockSize(level, gridPosition);
+			final long[] childDims = attributes.get(level - 1).getDimensions();
+			final int[] factors = relativeFactors.get(level);
+
+			bufferMin = new long[nd];
+			bufferSize = new int[nd];
+			final long[] bufferDims = new long[nd];
+			for (int d = 0; d < nd; d++) {
+				bufferMin[d] = min[d] * factors[d];
+				bufferSize[d] = (int)Math.min((long)size[d] * factors[d], childDims[d] - bufferMin[d]);
+				bufferDims[d] = bufferSize[d];
+			}
+
+			buffer = new ArrayImgFactory<>(type).create(bufferDims);
+			bufferData = PrimitiveArrays.storageArray(buffer);
+			remainingChildren = childGridPositions(level, gridPosition).size();
+		}
+
+		/**
+		 * Copies the part of a child block that this block depends on into the
+		 * buffer.
+		 *
+		 * @return true if all children have been added
+		 */
+		public boolean add(final DataBlock<?> child) {
+
+			final int nd = bufferMin.length;
+			final long[] childMin = blockMin(level - 1, child.getGridPosition());
+			final int[] childSize = child.getSize();
+
+			final int[] srcPos = new int[nd];
+			final int[] destPos = new int[nd];
+			final int[] size = new int[nd];
+			for (int d = 0; d < nd; d++) {
+				final long min = Math.max(childMin[d], bufferMin[d]);
+				final long max = Math.min(childMin[d] + childSize[d], bufferMin[d] + bufferSize[d]);
+				srcPos[d] = (int)(min - childMin[d]);
+				destPos[d] = (int)(min - bufferMin[d]);
+				size[d] = (int)(max - min);
+			}
+			PrimitiveArrays.copy(child.getData(), childSize, srcPos, bufferData, bufferSize, destPos, size);
+
+			return --remainingChildren == 0;
+		}
+
+		/**
+		 * Downsamples the buffer and writes the result.
+		 *
+		 * @return the written block
+		 */
+		public DataBlock<?> reduce() {
+
+			final int[] factors = relativeFactors.get(level);
+			final DataBlock<?> block = dataType.createDataBlock(blockSize(level, gridPosition), gridPosition);
+			if (method == DOWNSAMPLE_METHOD.Average) {
+				BlockSupplier.of(Views.extendBorder(buffer))
+						.andThen(Downsample.downsample(factors))
+						.copy(new long[bufferMin.length], block.getData(), block.getSize());
+			} else if (method == DOWNSAMPLE_METHOD.Mode)
+				ModeDownsample.downsample(bufferData, bufferSize, block.getData(), block.getSize(), factors);
+			else
+				PrimitiveArrays.subsample(bufferData, bufferSize, block.getData(), block.getSize(), factors);
+
+			writeBlock(level, block);
+			return block;
+		}
+	}
+
+	private void writeBlock(final int level, final DataBlock<?> block) {
+
+		// the block is still delivered to its parent, only the file is left out
+		final boolean skip = skipEmpty && PrimitiveArrays.isZero(block.getData());
+		final long encodedBytes = skip ? 0 : BlockwiseWriter.writeBlock(n5, datasets.get(level), attributes.get(level), block);
+		if (computeStatistics)
+			statistics.get(level).add(block.getGridPosition(), block.getData());
+		if (metrics != null) {
+			final long bytes = PrimitiveArrays.sizeInBytes(block.getData());
+			if (skip)
+				metrics.blocksSkipped(levelMetrics.get(level), 1, bytes);
+			else
+				metrics.blocksWritten(levelMetrics.get(level), 1, bytes, encodedBytes);
+		}
+	}
+
+	private static class BlockKey {
+
+		private final int level;
+
+		private final long[] gridPosition;
+
+		public BlockKey(final int level, final long[] gridPosition) {
+
+			this.level = level;
+			this.gridPosition = gridPosition;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+
+			if (!(other instanceof BlockKey))
+				return false;
+
+			final BlockKey key = (BlockKey)other;
+			return level == key.level && Arrays.equals(gridPosition, key.gridPosition);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return 31 * level + Arrays.hashCode(gridPosition);
+		}
+	}
+
+}
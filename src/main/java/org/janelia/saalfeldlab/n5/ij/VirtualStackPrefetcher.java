@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2018--2020, Saalfeld lab
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.ij;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImageListener;
+import ij.ImagePlus;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Loads the chunks of the planes around the one shown by a virtual
+ * {@link ImagePlus} in the background, so that they are cached by the time
+ * the user scrolls to them.
+ * <p>
+ * The planes within {@link #getRadius() radius} of the current slice in z,
+ * and the neighboring time points, are read on a pool of low priority daemon
+ * threads shared by all prefetchers. Whenever the current plane changes,
+ * prefetches that have not finished are cancelled, so jumping through a stack
+ * never queues up reads of planes that are no longer near the one shown.
+ * <p>
+ * The image must be the one the {@link ImagePlus} was wrapped from, with
+ * stack index n at flat position n-1 of dimensions 2 and up.
+ * <p>
+ * A prefetcher listens to its image only from {@link #start(ImagePlus)},
+ * which is called once the image is shown, until the image is closed.
+ * Listeners are held by ImageJ for the life of the JVM, so images that are
+ * never shown, and therefore never closed, must not register one.
+ */
+public class VirtualStackPrefetcher implements ImageListener {
+
+	public static final int DEFAULT_RADIUS = 2;
+
+	public static final String PROPERTY_KEY = "n5-prefetcher";
+
+	private static ExecutorService prefetchPool;
+
+	private final ImagePlus imp;
+
+	private final RandomAccessibleInterval<?> img;
+
+	private final long[] step;
+
+	private final long[] planeDimensions;
+
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private final List<Future<?>> pending = new ArrayList<>();
+
+	private int radius = DEFAULT_RADIUS;
+
+	private int currentIndex = -1;
+
+	/**
+	 * @param imp
+	 *            the virtual image plus
+	 * @param img
+	 *            the image wrapped by imp
+	 * @param step
+	 *            the distance between the pixels read in x and y, at most the
+	 *            chunk size so that every chunk of a plane is read
+	 */
+	public VirtualStackPrefetcher(final ImagePlus imp, final RandomAccessibleInterval<?> img, final long[] step) {
+
+		this.imp = imp;
+		this.img = img;
+		this.step = step;
+
+		final int nd = img.numDimensions();
+		planeDimensions = new long[Math.max(0, nd - 2)];
+		for (int d = 2; d < nd; d++)
+			planeDimensions[d - 2] = img.dimension(d);
+	}
+
+	/**
+	 * Creates a prefetcher for a virtual image plus and keeps it in the
+	 * {@value #PROPERTY_KEY} property of the image, for {@link #start(ImagePlus)}
+	 * to start it once the image is shown. Does nothing for single planes.
+	 *
+	 * @param imp
+	 *            the virtual image plus
+	 * @param img
+	 *            the image wrapped by imp
+	 * @param step
+	 *            the distance between the pixels read in x and y
+	 * @return the prefetcher, or null
+	 */
+	public static VirtualStackPrefetcher install(final ImagePlus imp, final RandomAccessibleInterval<?> img, final long[] step) {
+
+		if (imp.getStackSize() < 2 || img.numDimensions() < 3)
+			return null;
+
+		final VirtualStackPrefetcher prefetcher = new VirtualStackPrefetcher(imp, img, step);
+		imp.setProperty(PROPERTY_KEY, prefetcher);
+		return prefetcher;
+	}
+
+	/**
+	 * Starts listening to the slice changes of a shown image plus, and
+	 * prefetches the planes around the current one, if a prefetcher was
+	 * {@link #install installed} for it. Stops when the image is closed.
+	 *
+	 * @param imp
+	 *            the image plus
+	 */
+	public static void start(final ImagePlus imp) {
+
+		final Object prefetcher = imp.getProperty(PROPERTY_KEY);
+		if (prefetcher instanceof VirtualStackPrefetcher) {
+			// started at most once
+			imp.setProperty(PROPERTY_KEY, null);
+			ImagePlus.addImageListener((VirtualStackPrefetcher)prefetcher);
+			((VirtualStackPrefetcher)prefetcher).imageUpdated(imp);
+		}
+	}
+
+	private static synchronized ExecutorService getPool() {
+
+		if (prefetchPool == null) {
+			final int numThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+			prefetchPool = Executors.newFixedThreadPool(numThreads, r -> {
+				final Thread t = new Thread(r, "n5-prefetch");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			});
+		}
+		return prefetchPool;
+	}
+
+	public int getRadius() {
+
+		return radius;
+	}
+
+	public void setRadius(final int radius) {
+
+		this.radius = radius;
+	}
+
+	@Override
+	public void imageOpened(final ImagePlus imp) {
+
+		if (imp == this.imp)
+			imageUpdated(imp);
+	}
+
+	@Override
+	public void imageClosed(final ImagePlus imp) {
+
+		if (imp == this.imp) {
+			ImagePlus.removeImageListener(this);
+			cancel();
+		}
+	}
+
+	@Override
+	public void imageUpdated(final ImagePlus imp) {
+
+		if (imp != this.imp)
+			return;
+
+		final int index = imp.getCurrentSlice();
+		synchronized (this) {
+			if (index == currentIndex)
+				return;
+
+			currentIndex = index;
+		}
+		prefetch(neighbors(imp.getChannel(), imp.getSlice(), imp.getFrame()));
+	}
+
+	/**
+	 * Returns the stack indexes to prefetch around a position, nearest first.
+	 */
+	List<Integer> neighbors(final int c, final int z, final int t) {
+
+		final Set<Integer> indexes = new LinkedHashSet<>();
+		for (int r = 1; r <= radius; r++) {
+			if (z + r <= imp.getNSlices())
+				indexes.add(imp.getStackIndex(c, z + r, t));
+			if (z - r >= 1)
+				indexes.add(imp.getStackIndex(c, z - r, t));
+		}
+
+		if (t + 1 <= imp.getNFrames())
+			indexes.add(imp.getStackIndex(c, z, t + 1));
+		if (t - 1 >= 1)
+			indexes.add(imp.getStackIndex(c, z, t - 1));
+
+		indexes.remove(imp.getStackIndex(c, z, t));
+		return new ArrayList<>(indexes);
+	}
+
+	/**
+	 * Cancels all pending prefetches and reads the given planes.
+	 *
+	 * @param indexes
+	 *            the stack indexes of the planes, starting at 1
+	 * @return the prefetches
+	 */
+	public synchronized List<Future<?>> prefetch(final List<Integer> indexes) {
+
+		cancel();
+		final int gen = generation.get();
+		final ExecutorService pool = getPool();
+		for (final int index : indexes)
+			pending.add(pool.submit(() -> readPlane(index - 1, gen)));
+
+		return new ArrayList<>(pending);
+	}
+
+	/**
+	 * Cancels all pending prefetches.
+	 */
+	public synchronized void cancel() {
+
+		generation.incrementAndGet();
+		for (final Future<?> f : pending)
+			f.cancel(false);
+
+		pending.clear();
+	}
+
+	private void readPlane(final int planeIndex, final int gen) {
+
+		if (gen != generation.get())
+			return;
+
+		final int nd = img.numDimensions();
+		final long[] planePosition = new long[planeDimensions.length];
+		IntervalIndexer.indexToPosition(planeIndex, planeDimensions, planePosition);
+
+		final RandomAccess<?> ra = img.randomAccess();
+		for (int d = 2; d < nd; d++)
+			ra.setPosition(img.min(d) + planePosition[d - 2], d);
+
+		final long minX = img.min(0), maxX = img.max(0);
+		final long minY = img.min(1), maxY = img.max(1);
+		for (long y = minY; y <= maxY; y = next(y, maxY, step[1])) {
+
+			// stale, the user has moved on
+			if (gen != generation.get())
+				return;
+
+			ra.setPosition(y, 1);
+			for (long x = minX; x <= maxX; x = next(x, maxX, step[0])) {
+				ra.setPosition(x, 0);
+				ra.get();
+			}
+		}
+	}
+
+	/**
+	 * Steps to the next position, visiting the max even if it is not a
+	 * multiple of the step away from the min.
+	 */
+	private static long next(final long pos, final long max, final long step) {
+
+		if (pos == max)
+			return max + 1;
+
+		return Math.min(pos + Math.max(1, step), max);
+	}
+
+}
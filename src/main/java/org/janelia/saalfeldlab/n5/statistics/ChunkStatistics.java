@@ -0,0 +1,280 @@
+package org.janelia.saalfeldlab.n5.statistics;
+
+import java.util.Arrays;
+
+import org.janelia.saalfeldlab.n5.DataType;
+
+/**
+ * Summary statistics of the values in a chunk, or of any set of chunks they
+ * were merged from: min, max, sum, count and, for 8- and 16-bit types, a
+ * histogram with {@value #NUM_BINS} bins over the full range of the type.
+ * <p>
+ * Statistics are stored as a flat array of doubles, see {@link #toArray()}.
+ */
+public class ChunkStatistics {
+
+	public static final int NUM_BINS = 64;
+
+	/**
+	 * The number of fields before the histogram in {@link #toArray()}.
+	 */
+	public static final int NUM_FIELDS = 4;
+
+	private double min = Double.POSITIVE_INFINITY;
+
+	private double max = Double.NEGATIVE_INFINITY;
+
+	private double sum;
+
+	private long count;
+
+	private final double histogramMin;
+
+	private final double binWidth;
+
+	private final long[] histogram;
+
+	/**
+	 * Creates empty statistics for values of the given type.
+	 *
+	 * @param type
+	 *            the data type
+	 */
+	public ChunkStatistics(final DataType type) {
+
+		final double[] range = histogramRange(type);
+		if (range == null) {
+			histogramMin = 0;
+			binWidth = 0;
+			histogram = new long[0];
+		} else {
+			histogramMin = range[0];
+			binWidth = (range[1] - range[0]) / NUM_BINS;
+			histogram = new long[NUM_BINS];
+		}
+	}
+
+	/**
+	 * Computes the statistics of a primitive array.
+	 *
+	 * @param type
+	 *            the data type
+	 * @param data
+	 *            the primitive array
+	 * @return the statistics
+	 */
+	public static ChunkStatistics of(final DataType type, final Object data) {
+
+		final ChunkStatistics stats = new ChunkStatistics(type);
+		if (data instanceof byte[]) {
+			final boolean unsigned = type == DataType.UINT8;
+			for (final byte v : (byte[])data)
+				stats.add(unsigned ? v & 0xff : v);
+		} else if (data instanceof short[]) {
+			final boolean unsigned = type == DataType.UINT16;
+			for (final short v : (short[])data)
+				stats.add(unsigned ? v & 0xffff : v);
+		} else if (data instanceof int[]) {
+			final boolean unsigned = type == DataType.UINT32;
+			for (final int v : (int[])data)
+				stats.add(unsigned ? v & 0xffffffffL : v);
+		} else if (data instanceof long[]) {
+			final boolean unsigned = type == DataType.UINT64;
+			for (final long v : (long[])data)
+				stats.add(unsigned ? unsignedToDouble(v) : v);
+		} else if (data instanceof float[]) {
+			for (final float v : (float[])data)
+				stats.add(v);
+		} else if (data instanceof double[]) {
+			for (final double v : (double[])data)
+				stats.add(v);
+		}
+		return stats;
+	}
+
+	/**
+	 * Converts a long holding an unsigned 64-bit value to the nearest double.
+	 *
+	 * @param v
+	 *            the unsigned value
+	 * @return the double
+	 */
+	public static double unsignedToDouble(final long v) {
+
+		// halve the value so that it fits into a signed long, keeping the lowest bit for rounding
+		return v >= 0 ? v : 2.0 * ((v >>> 1) | (v & 1));
+	}
+
+	/**
+	 * Reads statistics from an array as written by {@link #toArray()}.
+	 *
+	 * @param type
+	 *            the data type
+	 * @param array
+	 *            the array
+	 * @return the statistics
+	 */
+	public static ChunkStatistics fromArray(final DataType type, final double[] array) {
+
+		final ChunkStatistics stats = new ChunkStatistics(type);
+		stats.min = array[0];
+		stats.max = array[1];
+		stats.sum = array[2];
+		stats.count = (long)array[3];
+		for (int i = 0; i < stats.histogram.length && NUM_FIELDS + i < array.length; i++)
+			stats.histogram[i] = (long)array[NUM_FIELDS + i];
+
+		return stats;
+	}
+
+	/**
+	 * Returns the range covered by the histogram of the given type.
+	 *
+	 * @param type
+	 *            the data type
+	 * @return the {min, max} of the histogram, or null if values of this type
+	 *         are not binned
+	 */
+	public static double[] histogramRange(final DataType type) {
+
+		switch (type) {
+		case UINT8:
+			return new double[]{0, 256};
+		case INT8:
+			return new double[]{-128, 128};
+		case UINT16:
+			return new double[]{0, 65536};
+		case INT16:
+			return new double[]{-32768, 32768};
+		default:
+			return null;
+		}
+	}
+
+	public void add(final double v) {
+
+		if (v < min)
+			min = v;
+
+		if (v > max)
+			max = v;
+
+		sum += v;
+		count++;
+		if (histogram.length > 0)
+			histogram[Math.min(NUM_BINS - 1, (int)((v - histogramMin) / binWidth))]++;
+	}
+
+	/**
+	 * Adds the values summarized by other statistics of the same type to
+	 * these.
+	 *
+	 * @param other
+	 *            the other statistics
+	 */
+	public void merge(final ChunkStatistics other) {
+
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		sum += other.sum;
+		count += other.count;
+		for (int i = 0; i < histogram.length; i++)
+			histogram[i] += other.histogram[i];
+	}
+
+	public double getMin() {
+
+		return min;
+	}
+
+	public double getMax() {
+
+		return max;
+	}
+
+	public double getSum() {
+
+		return sum;
+	}
+
+	public long getCount() {
+
+		return count;
+	}
+
+	public double getMean() {
+
+		return sum / count;
+	}
+
+	/**
+	 * @return the histogram, empty if values of this type are not binned
+	 */
+	public long[] getHistogram() {
+
+		return histogram;
+	}
+
+	public double getHistogramMin() {
+
+		return histogramMin;
+	}
+
+	public double getBinWidth() {
+
+		return binWidth;
+	}
+
+	/**
+	 * Returns the value below which the given fraction of values lie,
+	 * estimated from the histogram by interpolating linearly within the bin
+	 * containing that fraction. The bins are clipped to the min and max, so
+	 * that values in fewer bins than the histogram has are estimated within
+	 * their own range.
+	 *
+	 * @param fraction
+	 *            the fraction in the range [0,1]
+	 * @return the percentile, or the max if there is no histogram
+	 */
+	public double percentile(final double fraction) {
+
+		if (histogram.length == 0)
+			return max;
+
+		final double threshold = fraction * count;
+		long cumulative = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] > 0 && cumulative + histogram[i] >= threshold) {
+				final double lo = Math.max(min, histogramMin + i * binWidth);
+				final double hi = Math.min(max, histogramMin + (i + 1) * binWidth);
+				final double t = Math.max(0, threshold - cumulative) / histogram[i];
+				return lo + t * Math.max(0, hi - lo);
+			}
+			cumulative += histogram[i];
+		}
+		return max;
+	}
+
+	/**
+	 * @return {min, max, sum, count, histogram...}
+	 */
+	public double[] toArray() {
+
+		final double[] array = new double[NUM_FIELDS + histogram.length];
+		array[0] = min;
+		array[1] = max;
+		array[2] = sum;
+		array[3] = count;
+		for (int i = 0; i < histogram.length; i++)
+			array[NUM_FIELDS + i] = histogram[i];
+
+		return array;
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format("min=%s max=%s sum=%s count=%d histogram=%s", min, max, sum, count, Arrays.toString(histogram));
+	}
+
+}
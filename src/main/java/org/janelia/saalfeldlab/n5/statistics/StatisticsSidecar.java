@@ -0,0 +1,239 @@
+package org.janelia.saalfeldlab.n5.statistics;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DoubleArrayDataBlock;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Collects the {@link ChunkStatistics} of every chunk of a dataset while it is
+ * written, and stores them in a sidecar dataset at
+ * {@link ValueRanges#sidecarPath(String)}, in a group that is hidden from
+ * discovery.
+ * <p>
+ * The sidecar is a float64 dataset with one more dimension than the chunk
+ * grid of the dataset. Position (i, g0, g1, ...) holds field i of the
+ * statistics of the chunk at grid position (g0, g1, ...), in the layout of
+ * {@link ChunkStatistics#toArray()}. Chunks without statistics hold NaN.
+ * <p>
+ * The statistics of all chunks are merged and stored as attributes of the
+ * sidecar, so that the summary of a dataset can be read without reading any
+ * of its values.
+ */
+public class StatisticsSidecar {
+
+	public static final String SUM_KEY = "sum";
+
+	public static final String COUNT_KEY = "count";
+
+	public static final String HISTOGRAM_KEY = "histogram";
+
+	public static final String HISTOGRAM_MIN_KEY = "histogramMin";
+
+	public static final String BIN_WIDTH_KEY = "binWidth";
+
+	private static final int SIDECAR_BLOCK_SIZE = 16;
+
+	private final DataType type;
+
+	private final long[] gridSize;
+
+	private final ChunkStatistics[] chunks;
+
+	/**
+	 * @param attributes
+	 *            the attributes of the dataset whose chunks are collected
+	 */
+	public StatisticsSidecar(final DatasetAttributes attributes) {
+
+		type = attributes.getDataType();
+
+		final long[] dimensions = attributes.getDimensions();
+		final int[] blockSize = attributes.getBlockSize();
+		gridSize = new long[dimensions.length];
+		long numChunks = 1;
+		for (int d = 0; d < dimensions.length; d++) {
+			gridSize[d] = (dimensions[d] + blockSize[d] - 1) / blockSize[d];
+			numChunks *= gridSize[d];
+		}
+
+		if (numChunks > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many chunks for statistics: " + numChunks);
+
+		chunks = new ChunkStatistics[(int)numChunks];
+	}
+
+	/**
+	 * Computes and stores the statistics of a chunk. Chunks may be added from
+	 * different threads.
+	 *
+	 * @param gridPosition
+	 *            the grid position of the chunk
+	 * @param data
+	 *            the primitive array of the chunk
+	 * @return the statistics of the chunk
+	 */
+	public ChunkStatistics add(final long[] gridPosition, final Object data) {
+
+		final ChunkStatistics stats = ChunkStatistics.of(type, data);
+		chunks[index(gridPosition)] = stats;
+		return stats;
+	}
+
+	/**
+	 * @param gridPosition
+	 *            the grid position of a chunk
+	 * @return the statistics of the chunk, or null
+	 */
+	public ChunkStatistics get(final long[] gridPosition) {
+
+		return chunks[index(gridPosition)];
+	}
+
+	/**
+	 * @return the statistics of all chunks added so far
+	 */
+	public ChunkStatistics total() {
+
+		final ChunkStatistics total = new ChunkStatistics(type);
+		for (final ChunkStatistics c : chunks)
+			if (c != null)
+				total.merge(c);
+
+		return total;
+	}
+
+	/**
+	 * Writes the sidecar of the given dataset.
+	 *
+	 * @param n5
+	 *            the n5 writer
+	 * @param dataset
+	 *            the path of the dataset, not of the sidecar
+	 * @param compression
+	 *            the compression of the sidecar
+	 */
+	public void write(final N5Writer n5, final String dataset, final Compression compression) {
+
+		final String path = ValueRanges.sidecarPath(dataset);
+		final int numFields = ChunkStatistics.NUM_FIELDS + new ChunkStatistics(type).getHistogram().length;
+		final int nd = gridSize.length;
+
+		final long[] dimensions = new long[nd + 1];
+		final int[] blockSize = new int[nd + 1];
+		final long[] sidecarGridSize = new long[nd];
+		dimensions[0] = numFields;
+		blockSize[0] = numFields;
+		long numBlocks = 1;
+		for (int d = 0; d < nd; d++) {
+			dimensions[d + 1] = gridSize[d];
+			blockSize[d + 1] = (int)Math.min(gridSize[d], SIDECAR_BLOCK_SIZE);
+			sidecarGridSize[d] = (gridSize[d] + blockSize[d + 1] - 1) / blockSize[d + 1];
+			numBlocks *= sidecarGridSize[d];
+		}
+
+		final DatasetAttributes attributes = new DatasetAttributes(dimensions, blockSize, DataType.FLOAT64, compression);
+		n5.createDataset(path, attributes);
+
+		final long[] blockGridPosition = new long[nd];
+		final long[] chunkGridPosition = new long[nd];
+		for (long b = 0; b < numBlocks; b++) {
+
+			IntervalIndexer.indexToPosition(b, sidecarGridSize, blockGridPosition);
+
+			final int[] size = new int[nd + 1];
+			final long[] offset = new long[nd];
+			final long[] count = new long[nd];
+			size[0] = numFields;
+			int numChunks = 1;
+			for (int d = 0; d < nd; d++) {
+				offset[d] = blockGridPosition[d] * blockSize[d + 1];
+				count[d] = Math.min(blockSize[d + 1], gridSize[d] - offset[d]);
+				size[d + 1] = (int)count[d];
+				numChunks *= count[d];
+			}
+
+			final double[] data = new double[numFields * numChunks];
+			for (int i = 0; i < numChunks; i++) {
+				IntervalIndexer.indexToPositionWithOffset(i, count, offset, chunkGridPosition);
+				final ChunkStatistics c = get(chunkGridPosition);
+				if (c == null) {
+					for (int f = 0; f < numFields; f++)
+						data[i * numFields + f] = Double.NaN;
+				} else
+					System.arraycopy(c.toArray(), 0, data, i * numFields, numFields);
+			}
+
+			final long[] gridPosition = new long[nd + 1];
+			System.arraycopy(blockGridPosition, 0, gridPosition, 1, nd);
+			n5.writeBlock(path, attributes, new DoubleArrayDataBlock(size, gridPosition, data));
+		}
+
+		final ChunkStatistics total = total();
+		n5.setAttribute(path, SUM_KEY, total.getSum());
+		n5.setAttribute(path, COUNT_KEY, total.getCount());
+		if (total.getCount() > 0) {
+			n5.setAttribute(path, ValueRanges.MIN_KEY, total.getMin());
+			n5.setAttribute(path, ValueRanges.MAX_KEY, total.getMax());
+		}
+
+		if (total.getHistogram().length > 0) {
+			n5.setAttribute(path, HISTOGRAM_KEY, total.getHistogram());
+			n5.setAttribute(path, HISTOGRAM_MIN_KEY, total.getHistogramMin());
+			n5.setAttribute(path, BIN_WIDTH_KEY, total.getBinWidth());
+		}
+	}
+
+	/**
+	 * Reads the statistics of a whole dataset from the attributes of its
+	 * sidecar.
+	 *
+	 * @param n5
+	 *            the n5 reader
+	 * @param dataset
+	 *            the path of the dataset, not of the sidecar
+	 * @param type
+	 *            the data type of the dataset
+	 * @return the statistics, or null if the dataset has no sidecar
+	 */
+	public static ChunkStatistics readTotal(final N5Reader n5, final String dataset, final DataType type) {
+
+		final String path = ValueRanges.sidecarPath(dataset);
+		try {
+			if (!n5.exists(path))
+				return null;
+
+			final Double min = n5.getAttribute(path, ValueRanges.MIN_KEY, Double.class);
+			final Double max = n5.getAttribute(path, ValueRanges.MAX_KEY, Double.class);
+			final Double sum = n5.getAttribute(path, SUM_KEY, Double.class);
+			final Long count = n5.getAttribute(path, COUNT_KEY, Long.class);
+			if (min == null || max == null || sum == null || count == null)
+				return null;
+
+			final long[] histogram = n5.getAttribute(path, HISTOGRAM_KEY, long[].class);
+			final int numBins = histogram == null ? 0 : histogram.length;
+			final double[] array = new double[ChunkStatistics.NUM_FIELDS + numBins];
+			array[0] = min;
+			array[1] = max;
+			array[2] = sum;
+			array[3] = count;
+			for (int i = 0; i < numBins; i++)
+				array[ChunkStatistics.NUM_FIELDS + i] = histogram[i];
+
+			return ChunkStatistics.fromArray(type, array);
+		} catch (final N5Exception e) {
+			return null;
+		}
+	}
+
+	private int index(final long[] gridPosition) {
+
+		return (int)IntervalIndexer.positionToIndex(gridPosition, gridSize);
+	}
+
+}
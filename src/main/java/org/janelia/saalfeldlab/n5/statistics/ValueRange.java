@@ -0,0 +1,65 @@
+package org.janelia.saalfeldlab.n5.statistics;
+
+/**
+ * The range of values of a dataset, and whether it is known exactly or was
+ * estimated from a subset of the data.
+ */
+public class ValueRange {
+
+	private final double min;
+
+	private final double max;
+
+	private final boolean exact;
+
+	public ValueRange(final double min, final double max, final boolean exact) {
+
+		this.min = min;
+		this.max = max;
+		this.exact = exact;
+	}
+
+	public double getMin() {
+
+		return min;
+	}
+
+	public double getMax() {
+
+		return max;
+	}
+
+	/**
+	 * @return true if all values of the dataset lie in this range, false if
+	 *         the range is an estimate
+	 */
+	public boolean isExact() {
+
+		return exact;
+	}
+
+	/**
+	 * Returns the smallest range containing this and another range.
+	 *
+	 * @param other
+	 *            the other range, may be null
+	 * @return the union
+	 */
+	public ValueRange union(final ValueRange other) {
+
+		if (other == null)
+			return this;
+
+		return new ValueRange(
+				Math.min(min, other.min),
+				Math.max(max, other.max),
+				exact && other.exact);
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format("[%s, %s]%s", min, max, exact ? "" : " (estimated)");
+	}
+
+}
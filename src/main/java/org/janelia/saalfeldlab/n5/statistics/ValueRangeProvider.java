@@ -0,0 +1,40 @@
+package org.janelia.saalfeldlab.n5.statistics;
+
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+/**
+ * Provides the {@link ValueRange} of a dataset.
+ *
+ * @see ValueRanges
+ */
+@FunctionalInterface
+public interface ValueRangeProvider {
+
+	/**
+	 * Returns the range of values of a dataset.
+	 *
+	 * @param n5
+	 *            the n5 reader
+	 * @param dataset
+	 *            the dataset path
+	 * @return the range, or null if this provider can not determine it
+	 */
+	ValueRange getValueRange(N5Reader n5, String dataset);
+
+	/**
+	 * Returns a provider that asks this provider first, and the other
+	 * provider if this one can not determine the range.
+	 *
+	 * @param other
+	 *            the fallback provider
+	 * @return the combined provider
+	 */
+	default ValueRangeProvider orElse(final ValueRangeProvider other) {
+
+		return (n5, dataset) -> {
+			final ValueRange range = getValueRange(n5, dataset);
+			return range != null ? range : other.getValueRange(n5, dataset);
+		};
+	}
+
+}
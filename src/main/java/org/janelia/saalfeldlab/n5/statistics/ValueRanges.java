@@ -0,0 +1,263 @@
+package org.janelia.saalfeldlab.n5.statistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * {@link ValueRangeProvider}s for datasets, ordered from cheapest to most
+ * expensive:
+ * <ol>
+ * <li>{@link #attributes()} reads "min" and "max" attributes of the dataset,</li>
+ * <li>{@link #sidecar()} reads the same attributes from the statistics
+ * sidecar written at export time (see {@link #sidecarPath(String)}),</li>
+ * <li>{@link #sampled(int)} estimates the range from a few chunks,</li>
+ * <li>{@link #fullScan(ExecutorService)} reads every chunk.</li>
+ * </ol>
+ * The {@link #defaultProvider()} chains the first two, which give exact
+ * ranges without reading any chunk. Sampled ranges are estimates that may
+ * miss values, so they are never used in place of an exact range, unless
+ * explicitly requested with {@link #asExact(ValueRangeProvider)}.
+ */
+public class ValueRanges {
+
+	public static final String MIN_KEY = "min";
+
+	public static final String MAX_KEY = "max";
+
+	/**
+	 * The group below the root of a container that holds the statistics
+	 * sidecars of its datasets, at the paths of the datasets. It is hidden
+	 * from discovery, see {@link #isSidecarPath(String)}.
+	 */
+	public static final String STATISTICS_GROUP = ".statistics";
+
+	/**
+	 * The number of chunks that {@link #sampledFallback()} reads.
+	 */
+	public static final int DEFAULT_NUM_SAMPLES = 8;
+
+	private ValueRanges() {}
+
+	/**
+	 * @return a provider reading stored attributes, then the statistics
+	 *         sidecar
+	 */
+	public static ValueRangeProvider defaultProvider() {
+
+		return attributes().orElse(sidecar());
+	}
+
+	/**
+	 * Returns the {@link #defaultProvider()}, falling back to sampling
+	 * {@link #DEFAULT_NUM_SAMPLES} chunks whose range is used as if it were
+	 * exact. Values outside of it are clamped, so this must only be requested
+	 * for intensity images, never for labels.
+	 *
+	 * @return the provider
+	 */
+	public static ValueRangeProvider sampledFallback() {
+
+		return defaultProvider().orElse(asExact(sampled(DEFAULT_NUM_SAMPLES)));
+	}
+
+	/**
+	 * Returns a provider that gives the ranges of another provider as exact,
+	 * so that they are used even if they are estimates.
+	 *
+	 * @param provider
+	 *            the provider
+	 * @return the provider of exact ranges
+	 */
+	public static ValueRangeProvider asExact(final ValueRangeProvider provider) {
+
+		return (n5, dataset) -> {
+			final ValueRange range = provider.getValueRange(n5, dataset);
+			return range == null ? null : new ValueRange(range.getMin(), range.getMax(), true);
+		};
+	}
+
+	/**
+	 * Returns the path of the statistics sidecar of a dataset.
+	 *
+	 * @param dataset
+	 *            the dataset path
+	 * @return the sidecar path
+	 */
+	public static String sidecarPath(final String dataset) {
+
+		return STATISTICS_GROUP + "/" + dataset.replaceAll("^/+|/+$", "");
+	}
+
+	/**
+	 * Tells whether a path is the statistics group or below it, so that
+	 * sidecars are not shown as datasets.
+	 *
+	 * @param path
+	 *            the path, relative to the root of the container
+	 * @return true if the path belongs to the statistics sidecars
+	 */
+	public static boolean isSidecarPath(final String path) {
+
+		final String normalized = path.replaceAll("^/+", "");
+		return normalized.equals(STATISTICS_GROUP) || normalized.startsWith(STATISTICS_GROUP + "/");
+	}
+
+	/**
+	 * @return a provider reading the "min" and "max" attributes of the dataset
+	 */
+	public static ValueRangeProvider attributes() {
+
+		return ValueRanges::readAttributes;
+	}
+
+	/**
+	 * @return a provider reading the "min" and "max" attributes of the
+	 *         dataset's statistics sidecar
+	 */
+	public static ValueRangeProvider sidecar() {
+
+		return (n5, dataset) -> readAttributes(n5, sidecarPath(dataset));
+	}
+
+	/**
+	 * Returns a provider that estimates the range from the given number of
+	 * chunks, spread evenly over the dataset.
+	 *
+	 * @param numSamples
+	 *            the number of chunks to read
+	 * @return the provider
+	 */
+	public static ValueRangeProvider sampled(final int numSamples) {
+
+		return (n5, dataset) -> {
+
+			final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+			if (attributes == null)
+				return null;
+
+			final long[] gridSize = gridSize(attributes);
+			final long numBlocks = numElements(gridSize);
+			if (numBlocks <= numSamples)
+				return scan(n5, dataset, attributes, gridSize, 0, numBlocks, 1);
+
+			ValueRange range = null;
+			for (int i = 0; i < numSamples; i++) {
+				final long index = numSamples == 1 ? numBlocks / 2 : i * (numBlocks - 1) / (numSamples - 1);
+				range = scan(n5, dataset, attributes, gridSize, index, index + 1, 1).union(range);
+			}
+			return new ValueRange(range.getMin(), range.getMax(), false);
+		};
+	}
+
+	/**
+	 * Returns a provider that reads every chunk of the dataset. Only use this
+	 * when an exact range is explicitly requested.
+	 *
+	 * @param exec
+	 *            the executor service reading chunks in parallel
+	 * @return the provider
+	 */
+	public static ValueRangeProvider fullScan(final ExecutorService exec) {
+
+		return (n5, dataset) -> {
+
+			final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+			if (attributes == null)
+				return null;
+
+			final long[] gridSize = gridSize(attributes);
+			final long numBlocks = numElements(gridSize);
+			final int numTasks = (int)Math.min(numBlocks, 4L * Runtime.getRuntime().availableProcessors());
+
+			final List<Future<ValueRange>> futures = new ArrayList<>();
+			for (int t = 0; t < numTasks; t++) {
+				final long start = t;
+				futures.add(exec.submit(() -> scan(n5, dataset, attributes, gridSize, start, numBlocks, numTasks)));
+			}
+
+			ValueRange range = null;
+			try {
+				for (final Future<ValueRange> f : futures)
+					range = f.get().union(range);
+			} catch (InterruptedException | ExecutionException e) {
+				throw new N5Exception("Failed to compute the value range of " + dataset, e);
+			}
+			return range;
+		};
+	}
+
+	private static ValueRange readAttributes(final N5Reader n5, final String path) {
+
+		try {
+			if (!n5.exists(path))
+				return null;
+
+			final Double min = n5.getAttribute(path, MIN_KEY, Double.class);
+			final Double max = n5.getAttribute(path, MAX_KEY, Double.class);
+			if (min == null || max == null)
+				return null;
+
+			return new ValueRange(min, max, true);
+		} catch (final N5Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the blocks with flat grid index start, start + step, ... below end.
+	 * Missing blocks contribute a zero.
+	 */
+	private static ValueRange scan(
+			final N5Reader n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final long[] gridSize,
+			final long start,
+			final long end,
+			final long step) {
+
+		final ChunkStatistics stats = new ChunkStatistics(attributes.getDataType());
+		final long[] gridPosition = new long[gridSize.length];
+		for (long i = start; i < end; i += step) {
+
+			IntervalIndexer.indexToPosition(i, gridSize, gridPosition);
+			final DataBlock<?> block = n5.readBlock(dataset, attributes, gridPosition);
+			if (block == null)
+				stats.add(0);
+			else
+				stats.merge(ChunkStatistics.of(attributes.getDataType(), block.getData()));
+		}
+		return new ValueRange(stats.getMin(), stats.getMax(), true);
+	}
+
+	private static long[] gridSize(final DatasetAttributes attributes) {
+
+		final long[] dimensions = attributes.getDimensions();
+		final int[] blockSize = attributes.getBlockSize();
+		final long[] gridSize = new long[dimensions.length];
+		for (int d = 0; d < dimensions.length; d++)
+			gridSize[d] = (dimensions[d] + blockSize[d] - 1) / blockSize[d];
+
+		return gridSize;
+	}
+
+	private static long numElements(final long[] size) {
+
+		long n = 1;
+		for (final long s : size)
+			n *= s;
+
+		return n;
+	}
+
+}
@@ -35,11 +35,17 @@ import java.net.URI;
 import java.nio.file.Paths;
 import java.text.Collator;
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -62,6 +68,9 @@ import javax.swing.JTabbedPane;
 import javax.swing.JTree;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.tree.DefaultTreeModel;
@@ -83,6 +92,7 @@ import org.janelia.saalfeldlab.n5.universe.N5TreeNode;
 import org.janelia.saalfeldlab.n5.universe.metadata.N5GenericSingleScaleMetadataParser;
 import org.janelia.saalfeldlab.n5.universe.metadata.N5Metadata;
 import org.janelia.saalfeldlab.n5.universe.metadata.N5MetadataParser;
+import org.janelia.saalfeldlab.n5.statistics.ValueRanges;
 import org.janelia.saalfeldlab.n5.universe.translation.TranslatedN5Reader;
 
 import com.formdev.flatlaf.util.UIScale;
@@ -109,6 +119,11 @@ public class DatasetSelectorDialog {
 	 */
 	private N5DatasetDiscoverer datasetDiscoverer;
 
+	// the parsers of the discoverer, for lazy discovery
+	private List<N5MetadataParser<?>> parserList;
+
+	private List<N5MetadataParser<?>> groupParserList;
+
 	private Consumer<DataSelection> okCallback;
 
 	private JFrame dialog;
@@ -183,6 +198,60 @@ public class DatasetSelectorDialog {
 
 	private final AlphanumericComparator comp = new AlphanumericComparator(Collator.getInstance());
 
+	// parsed nodes are applied to the tree at most this often
+	private static final int UPDATE_INTERVAL_MILLIS = 50;
+
+	// the nodes of the tree by normalized path, only accessed on the event dispatch thread
+	private final Map<String, N5SwingTreeNode> nodesByPath = new HashMap<>();
+
+	private boolean lazyDiscovery = false;
+
+	private ExecutorService crawlExec;
+
+	// the discovery of the container shown in the tree
+	private volatile Discovery discovery;
+
+	/**
+	 * The state of the discovery of one opened container. Threads that still
+	 * work on a container opened before hold on to its discovery, whose nodes
+	 * are dropped instead of reaching the tree.
+	 */
+	private class Discovery {
+
+		private final ConcurrentLinkedQueue<N5TreeNode> parsedNodes = new ConcurrentLinkedQueue<>();
+
+		// applies parsed nodes while there are any
+		private final Timer updateTimer = new Timer(UPDATE_INTERVAL_MILLIS, e -> applyParsedNodes(this));
+
+		// the state of lazy discovery
+		private final Map<String, List<String>> listedChildren = new ConcurrentHashMap<>();
+
+		private final Set<String> parsedPaths = ConcurrentHashMap.newKeySet();
+
+		// the metadata found by the dataset parsers, and by all parsers
+		private final Map<String, Optional<N5Metadata>> datasetMetadata = new ConcurrentHashMap<>();
+
+		private final Map<String, Optional<N5Metadata>> parsedMetadata = new ConcurrentHashMap<>();
+
+		private void parsed(final N5TreeNode node) {
+
+			parsedNodes.add(node);
+			if (!updateTimer.isRunning())
+				updateTimer.start();
+		}
+
+		private boolean isCurrent() {
+
+			return discovery == this;
+		}
+
+		private void stop() {
+
+			updateTimer.stop();
+			parsedNodes.clear();
+		}
+	}
+
 	public DatasetSelectorDialog(
 			final Function<String, N5Reader> n5Fun,
 			final Function<String, String> pathFun,
@@ -280,6 +349,23 @@ public class DatasetSelectorDialog {
 		this.selectionFilter = selectionFilter;
 	}
 
+	/**
+	 * Set whether to discover the container one level at a time instead of
+	 * listing and parsing all of it before the tree can be used.
+	 * <p>
+	 * The children of the root are shown as soon as they are listed. The
+	 * metadata of a node and its children are parsed when the node becomes
+	 * visible or is expanded, while a background crawler with low priority
+	 * parses the rest of the container.
+	 *
+	 * @param lazyDiscovery
+	 *            the flag
+	 */
+	public void setLazyDiscovery(final boolean lazyDiscovery) {
+
+		this.lazyDiscovery = lazyDiscovery;
+	}
+
 	public void setCancelCallback(final Consumer<Void> cancelCallback) {
 
 		this.cancelCallback = cancelCallback;
@@ -437,6 +523,23 @@ public class DatasetSelectorDialog {
 		treeSelectionListener.setSelectionFilter(selectionFilter);
 		containerTree.addTreeSelectionListener(treeSelectionListener);
 
+		// parse the nodes a user expands before the crawler gets to them
+		containerTree.addTreeExpansionListener(new TreeExpansionListener() {
+
+			@Override
+			public void treeExpanded(final TreeExpansionEvent event) {
+
+				final Discovery d = discovery;
+				if (lazyDiscovery && d != null && parseExec != null && !parseExec.isShutdown()) {
+					final String path = ((N5SwingTreeNode)event.getPath().getLastPathComponent()).getPath();
+					parseExec.submit(() -> parseLazily(d, path));
+				}
+			}
+
+			@Override
+			public void treeCollapsed(final TreeExpansionEvent event) {}
+		});
+
 		// By default leaf nodes (datasets) are displayed as files. This changes
 		// the default behavior to display them as folders
 		// final DefaultTreeCellRenderer treeCellRenderer =
@@ -567,7 +670,8 @@ public class DatasetSelectorDialog {
 		} else
 			parserList.addAll(Arrays.asList(parsers));
 
-		final List<N5MetadataParser<?>> groupParserList = Arrays.asList(groupParsers);
+		groupParserList = Arrays.asList(groupParsers);
+		this.parserList = parserList;
 		datasetDiscoverer = new N5DatasetDiscoverer(n5, loaderExecutor, n5NodeFilter,
 				parserList, groupParserList);
 
@@ -687,106 +791,99 @@ public class DatasetSelectorDialog {
 		if (ijProgressBar != null)
 			ijProgressBar.show(0.3);
 
-		final Consumer<N5TreeNode> callback = (x) -> {
-			SwingUtilities.invokeLater(() -> {
-				if (x.getMetadata() != null) {
-					// get the node at the requested path, or add it if not present
-					final N5SwingTreeNode node = (N5SwingTreeNode)rootNode.getDescendants(y -> pathsEqual(y.getPath(), x.getPath())).findFirst()
-							.orElseGet( () -> {
-								if (rootNode.getPath().equals(x.getPath()))
-									return null;
-								else
-									return rootNode.addPath(x.getPath());
-							});
-
-					// update the node's metadata
-					if (node != null) {
-						// set metadata, update ui
-						node.setMetadata(x.getMetadata());
-
-						// sort children, update ui
-						final N5SwingTreeNode parent = (N5SwingTreeNode)node.getParent();
-						sortRecursive(parent);
-
-						treeModel.nodeChanged(node);
-					}
-				} else {
-					final Optional<N5TreeNode> desc = rootNode.getDescendant(x.getNodeName());
-					if (desc.isPresent()) {
-						final N5SwingTreeNode node = (N5SwingTreeNode)desc.get();
-						if (node.getParent() != null && node.getChildCount() == 0) {
-							treeModel.removeNodeFromParent(node);
-						}
-
-					}
-				}
-			});
-		};
-
-		parseExec = Executors.newSingleThreadExecutor();
-		parseExec.submit(() -> {
-			try {
-				String[] datasetPaths;
-				try {
-
-					if (ijProgressBar != null)
-						ijProgressBar.show(0.3);
-
-
-					SwingUtilities.invokeLater(() -> {
-						messageLabel.setText("Listing...");
-						messageLabel.repaint();
-					});
-
-					// build a temporary tree
-					datasetPaths = n5.deepList(rootPath, loaderExecutor);
-					N5SwingTreeNode.fromFlatList(tmpRootNode, datasetPaths, "/");
-					for (final String p : datasetPaths)
-						rootNode.addPath(rootPath + "/" + p);
-
-
-					sortRecursive(rootNode);
-					containerTree.expandRow(0);
-
-					if (ijProgressBar != null)
-						ijProgressBar.show(0.5);
-
-
-					SwingUtilities.invokeLater(() -> {
-						messageLabel.setText("Parsing...");
-						messageLabel.repaint();
-					});
+		// nodes of a container opened before must not reach this tree
+		if (parseExec != null)
+			parseExec.shutdownNow();
 
-					// callback copies values from temporary tree into the ui
-					// when metadata is parsed
-					datasetDiscoverer.parseMetadataRecursive(tmpRootNode, callback);
+		if (crawlExec != null)
+			crawlExec.shutdownNow();
 
-					if (ijProgressBar != null)
-						ijProgressBar.show(0.8);
+		if (discovery != null)
+			discovery.stop();
 
-					SwingUtilities.invokeLater(() -> {
-						messageLabel.setText("Done");
-						messageLabel.repaint();
-					});
+		nodesByPath.clear();
+		nodesByPath.put(normalDatasetName(rootPath, "/"), rootNode);
 
-					if (ijProgressBar != null)
-						ijProgressBar.show(1.1);
+		// parsed nodes are collected here and applied to the tree in batches
+		final Discovery d = new Discovery();
+		discovery = d;
+		final Consumer<N5TreeNode> callback = d::parsed;
 
-					Thread.sleep(1000);
-					SwingUtilities.invokeLater(() -> {
-						messageLabel.setText("");
-						messageLabel.setVisible(false);
-						messageLabel.repaint();
-					});
-				} catch (final InterruptedException e) {
-					// can ignore
-				} catch (final ExecutionException e) {
-					// can ignore
+		parseExec = Executors.newSingleThreadExecutor();
+		if (lazyDiscovery)
+			discoverLazily(d, rootPath);
+		else {
+			parseExec.submit(() -> {
+				try {
+					String[] datasetPaths;
+					try {
+
+						if (ijProgressBar != null)
+							ijProgressBar.show(0.3);
+
+
+						SwingUtilities.invokeLater(() -> {
+							messageLabel.setText("Listing...");
+							messageLabel.repaint();
+						});
+
+						// build a temporary tree without the statistics sidecars
+						datasetPaths = Arrays.stream(n5.deepList(rootPath, loaderExecutor))
+								.filter(p -> !ValueRanges.isSidecarPath(rootPath.isEmpty() ? p : rootPath + "/" + p))
+								.toArray(String[]::new);
+						N5SwingTreeNode.fromFlatList(tmpRootNode, datasetPaths, "/");
+
+						// the tree is built before any node is shown, and shown at once
+						final String[] paths = datasetPaths;
+						SwingUtilities.invokeLater(() -> {
+							if (!d.isCurrent())
+								return;
+
+							rootNode.addPaths(paths, comp);
+							indexNodes(rootNode);
+							containerTree.expandRow(0);
+						});
+
+						if (ijProgressBar != null)
+							ijProgressBar.show(0.5);
+
+
+						SwingUtilities.invokeLater(() -> {
+							messageLabel.setText("Parsing...");
+							messageLabel.repaint();
+						});
+
+						// callback copies values from temporary tree into the ui
+						// when metadata is parsed
+						datasetDiscoverer.parseMetadataRecursive(tmpRootNode, callback);
+
+						if (ijProgressBar != null)
+							ijProgressBar.show(0.8);
+
+						SwingUtilities.invokeLater(() -> {
+							messageLabel.setText("Done");
+							messageLabel.repaint();
+						});
+
+						if (ijProgressBar != null)
+							ijProgressBar.show(1.1);
+
+						Thread.sleep(1000);
+						SwingUtilities.invokeLater(() -> {
+							messageLabel.setText("");
+							messageLabel.setVisible(false);
+							messageLabel.repaint();
+						});
+					} catch (final InterruptedException e) {
+						// can ignore
+					} catch (final ExecutionException e) {
+						// can ignore
+					}
+				} catch (final N5Exception e) {
+					e.printStackTrace();
 				}
-			} catch (final N5Exception e) {
-				e.printStackTrace();
-			}
-		});
+			});
+		}
 
 		if (isTranslated) {
 			final TranslatedN5Reader xlatedN5 = (TranslatedN5Reader)n5;
@@ -805,6 +902,14 @@ public class DatasetSelectorDialog {
 		if (parseExec != null)
 			parseExec.shutdownNow();
 
+		if (crawlExec != null)
+			crawlExec.shutdownNow();
+
+		if (discovery != null)
+			discovery.stop();
+
+		discovery = null;
+
 		// validate and update input
 		containerPathText.validateAndUpdate();
 
@@ -863,6 +968,14 @@ public class DatasetSelectorDialog {
 		if (parseExec != null)
 			parseExec.shutdownNow();
 
+		if (crawlExec != null)
+			crawlExec.shutdownNow();
+
+		if (discovery != null)
+			discovery.stop();
+
+		discovery = null;
+
 		dialog.setVisible(false);
 		dialog.dispose();
 
@@ -877,6 +990,178 @@ public class DatasetSelectorDialog {
 			cancelCallback.accept(null);
 	}
 
+	/**
+	 * Shows the children of the root as soon as they are listed, parses the
+	 * root, then crawls the rest of the container breadth first on a thread
+	 * with low priority.
+	 */
+	private void discoverLazily(final Discovery d, final String rootPath) {
+
+		SwingUtilities.invokeLater(() -> {
+			messageLabel.setText("Discovering...");
+			messageLabel.repaint();
+		});
+
+		parseExec.submit(() -> {
+			listLazily(d, rootPath);
+			SwingUtilities.invokeLater(() -> {
+				if (d.isCurrent())
+					containerTree.expandRow(0);
+			});
+			parseLazily(d, rootPath);
+		});
+
+		crawlExec = Executors.newSingleThreadExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "n5-container-crawler");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		crawlExec.submit(() -> {
+			final ArrayDeque<String> queue = new ArrayDeque<>();
+			queue.add(rootPath);
+			while (!queue.isEmpty() && !Thread.currentThread().isInterrupted() && d.isCurrent())
+				queue.addAll(parseLazily(d, queue.poll()));
+
+			if (!d.isCurrent())
+				return;
+
+			if (ijProgressBar != null)
+				ijProgressBar.show(1.1);
+
+			SwingUtilities.invokeLater(() -> {
+				messageLabel.setText("");
+				messageLabel.setVisible(false);
+				messageLabel.repaint();
+			});
+		});
+	}
+
+	/**
+	 * Lists the children of a group once and adds them to the tree.
+	 *
+	 * @return the paths of the children
+	 */
+	private List<String> listLazily(final Discovery d, final String path) {
+
+		return d.listedChildren.computeIfAbsent(path, p -> {
+
+			final String[] names;
+			try {
+				// the chunks of some formats are stored in subdirectories of the dataset
+				names = n5.datasetExists(p) ? new String[0] : n5.list(p);
+			} catch (final N5Exception e) {
+				return Collections.emptyList();
+			}
+
+			Arrays.sort(names, comp);
+			final List<String> paths = new ArrayList<>();
+			for (final String name : names) {
+				final String path = p.isEmpty() ? name : p + "/" + name;
+				if (!ValueRanges.isSidecarPath(path))
+					paths.add(path);
+			}
+
+			SwingUtilities.invokeLater(() -> {
+				if (!d.isCurrent())
+					return;
+
+				final N5SwingTreeNode parent = nodesByPath.get(normalDatasetName(p, "/"));
+				if (parent == null || parent.getChildCount() > 0 || paths.isEmpty())
+					return;
+
+				final int[] indexes = new int[paths.size()];
+				for (int i = 0; i < indexes.length; i++) {
+					final N5SwingTreeNode node = new N5SwingTreeNode(paths.get(i), parent, treeModel);
+					parent.add(node);
+					nodesByPath.put(normalDatasetName(paths.get(i), "/"), node);
+					indexes[i] = i;
+				}
+				treeModel.nodesWereInserted(parent, indexes);
+			});
+			return paths;
+		});
+	}
+
+	/**
+	 * Parses the metadata of a node and of its children, unless that was done
+	 * before. The children of the children are listed too, so that group
+	 * parsers see the datasets of the node and its children, and so that the
+	 * children can be expanded.
+	 *
+	 * @return the paths of the children
+	 */
+	private List<String> parseLazily(final Discovery d, final String path) {
+
+		final List<String> children = listLazily(d, path);
+		if (d.isCurrent())
+			parseLazily(d, path, 2);
+
+		return children;
+	}
+
+	/**
+	 * Parses the metadata of a node once. Group parsers are only run if no
+	 * dataset parser matches, and see the metadata of the children parsed to
+	 * the given depth. Nodes parsed to a depth of at least one are added to
+	 * the tree, and are not parsed again.
+	 *
+	 * @return the metadata of the node
+	 */
+	private Optional<N5Metadata> parseLazily(final Discovery d, final String path, final int depth) {
+
+		final Optional<N5Metadata> parsed = d.parsedMetadata.get(path);
+		if (parsed != null)
+			return parsed;
+
+		Optional<N5Metadata> metadata = d.datasetMetadata.get(path);
+		if (metadata == null) {
+			metadata = parseMetadata(parserList, new N5TreeNode(path));
+			d.datasetMetadata.put(path, metadata);
+		}
+
+		if (depth == 0)
+			return metadata;
+
+		if (!metadata.isPresent()) {
+			final List<String> children = listLazily(d, path);
+			if (!children.isEmpty()) {
+				final N5TreeNode node = new N5TreeNode(path);
+				for (final String childPath : children) {
+					final N5TreeNode child = new N5TreeNode(childPath);
+					parseLazily(d, childPath, depth - 1).ifPresent(child::setMetadata);
+					node.childrenList().add(child);
+				}
+				metadata = parseMetadata(groupParserList, node);
+			}
+		}
+
+		d.parsedMetadata.put(path, metadata);
+		if (d.parsedPaths.add(path) && metadata.isPresent()) {
+			final N5TreeNode node = new N5TreeNode(path);
+			node.setMetadata(metadata.get());
+			d.parsed(node);
+		}
+		return metadata;
+	}
+
+	/**
+	 * Gets the metadata of the first parser that matches a node.
+	 */
+	private Optional<N5Metadata> parseMetadata(final List<N5MetadataParser<?>> parsers, final N5TreeNode node) {
+
+		for (final N5MetadataParser<?> parser : parsers) {
+			try {
+				final Optional<? extends N5Metadata> metadata = parser.parseMetadata(n5, node);
+				if (metadata.isPresent())
+					return Optional.of(metadata.get());
+			} catch (final Exception e) {
+				// try the next parser
+			}
+		}
+		return Optional.empty();
+	}
+
 	public void detectDatasets() {
 
 		openContainer(n5Fun, () -> getN5RootPath(), pathFun);
@@ -925,27 +1210,97 @@ public class DatasetSelectorDialog {
 		}
 	}
 
-	private void sortRecursive(final N5SwingTreeNode node) {
+	/**
+	 * Applies the nodes parsed since the last call to the tree, on the event
+	 * dispatch thread, and stops the updates when there are none.
+	 */
+	private void applyParsedNodes(final Discovery d) {
 
-		if (node != null) {
-			final List<N5TreeNode> children = node.childrenList();
-			if (!children.isEmpty()) {
-				children.sort(Comparator.comparing(N5TreeNode::toString, comp));
+		if (!d.isCurrent()) {
+			d.stop();
+			return;
+		}
+
+		final ConcurrentLinkedQueue<N5TreeNode> parsedNodes = d.parsedNodes;
+		if (parsedNodes.isEmpty()) {
+			d.updateTimer.stop();
+			// a node may have been added before the timer was stopped
+			if (!parsedNodes.isEmpty())
+				d.updateTimer.start();
+
+			return;
+		}
+
+		N5TreeNode x;
+		while ((x = parsedNodes.poll()) != null) {
+
+			final String path = normalDatasetName(x.getPath(), "/");
+			if (x.getMetadata() != null) {
+				// get the node at the requested path, or add it if not present
+				final N5SwingTreeNode node = addPath(path);
+				if (node != null) {
+					node.setMetadata(x.getMetadata());
+					treeModel.nodeChanged(node);
+				}
+			} else if (!lazyDiscovery) {
+				// groups of a lazily discovered tree may be parsed before their children are listed
+				final N5SwingTreeNode node = nodesByPath.get(path);
+				if (node != null && node.getParent() != null && node.getChildCount() == 0) {
+					treeModel.removeNodeFromParent(node);
+					nodesByPath.remove(path);
+				}
 			}
-			treeModel.nodeStructureChanged(node);
-			for (final N5TreeNode child : children)
-				sortRecursive((N5SwingTreeNode)child);
 		}
 	}
 
-	private static String normalDatasetName(final String fullPath, final String groupSeparator) {
+	/**
+	 * Gets the node at a path, or adds it and its missing ancestors at their
+	 * sorted positions.
+	 *
+	 * @param path
+	 *            the normalized path
+	 * @return the node, or null if the path is not below the root
+	 */
+	private N5SwingTreeNode addPath(final String path) {
+
+		final N5SwingTreeNode existing = nodesByPath.get(path);
+		if (existing != null || path.isEmpty())
+			return existing;
+
+		final int i = path.lastIndexOf('/');
+		final N5SwingTreeNode parent = addPath(i < 0 ? "" : path.substring(0, i));
+		if (parent == null)
+			return null;
 
-		return fullPath.replaceAll("(^" + groupSeparator + "*)|(" + groupSeparator + "*$)", "");
+		final N5SwingTreeNode node = new N5SwingTreeNode(path, parent, treeModel);
+		final List<N5TreeNode> children = parent.childrenList();
+		final String name = node.toString();
+		int lo = 0;
+		int hi = children.size();
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (comp.compare(children.get(mid).toString(), name) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		parent.insert(node, lo);
+		nodesByPath.put(path, node);
+		treeModel.nodesWereInserted(parent, new int[]{lo});
+
+		return node;
 	}
 
-	private static boolean pathsEqual(final String a, final String b) {
+	private void indexNodes(final N5SwingTreeNode node) {
+
+		nodesByPath.put(normalDatasetName(node.getPath(), "/"), node);
+		for (final N5TreeNode child : node.childrenList())
+			indexNodes((N5SwingTreeNode)child);
+	}
+
+	private static String normalDatasetName(final String fullPath, final String groupSeparator) {
 
-		return normalDatasetName(a, "/").equals(normalDatasetName(b, "/"));
+		return N5SwingTreeNode.normalDatasetName(fullPath, groupSeparator);
 	}
 
 	public static class UriValidator extends AbstractFormatter {
@@ -2,10 +2,9 @@ package org.janelia.saalfeldlab.n5.ui;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Optional;
-import java.util.stream.Stream;
 
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.MutableTreeNode;
@@ -19,6 +18,9 @@ public class N5SwingTreeNode extends N5TreeNode implements MutableTreeNode {
 
 	private DefaultTreeModel treeModel;
 
+	// children by name, children added to childrenList() directly are found by a scan
+	private final HashMap<String, N5SwingTreeNode> childrenByName = new HashMap<>();
+
 	public N5SwingTreeNode( final String path ) {
 		super( path );
 	}
@@ -48,19 +50,40 @@ public class N5SwingTreeNode extends N5TreeNode implements MutableTreeNode {
 	public void add(final N5SwingTreeNode child) {
 
 		childrenList().add(child);
+		childrenByName.put(child.getNodeName(), child);
+	}
+
+	/**
+	 * @param name
+	 *            the name of a child
+	 * @return the child, or null
+	 */
+	public N5SwingTreeNode getChild(final String name) {
+
+		final N5SwingTreeNode child = childrenByName.get(name);
+		if (child != null || childrenByName.size() == childrenList().size())
+			return child;
+
+		for (final N5TreeNode c : childrenList()) {
+			if (c instanceof N5SwingTreeNode && c.getNodeName().equals(name)) {
+				childrenByName.put(name, (N5SwingTreeNode)c);
+				return (N5SwingTreeNode)c;
+			}
+		}
+		return null;
 	}
 
 	@Override
 	public N5SwingTreeNode addPath(final String path) {
 
-		String normPath = removeLeadingSlash(path);
+		final String normPath = removeLeadingSlash(path);
 		if (!getPath().isEmpty() && !normPath.startsWith(getPath()))
 			return null;
 
 		if (getPath().equals(normPath))
 			return this;
 
-		final String relativePath = removeLeadingSlash(normPath.replaceAll("^" + getPath(), ""));
+		final String relativePath = removeLeadingSlash(normPath.substring(getPath().length()));
 
 		final int sepIdx = relativePath.indexOf("/");
 		final String childName;
@@ -71,12 +94,8 @@ public class N5SwingTreeNode extends N5TreeNode implements MutableTreeNode {
 
 		// get the appropriate child along the path if it exists, otherwise add
 		// it
-		N5TreeNode child = null;
-		Stream<N5TreeNode> cs = childrenList().stream().filter(n -> n.getNodeName().equals(childName));;
-		Optional<N5TreeNode> copt = cs.findFirst();
-		if (copt.isPresent())
-			child = copt.get();
-		else {
+		N5SwingTreeNode child = getChild(childName);
+		if (child == null) {
 			child = new N5SwingTreeNode(
 					getPath().isEmpty() ? childName : getPath() + "/" + childName,
 					this, treeModel);
@@ -86,7 +105,55 @@ public class N5SwingTreeNode extends N5TreeNode implements MutableTreeNode {
 			if (treeModel != null)
 				treeModel.nodesWereInserted(this, new int[]{childrenList().size() - 1});
 		}
-		return (N5SwingTreeNode)child.addPath(normPath);
+		return child.addPath(normPath);
+	}
+
+	/**
+	 * Adds the nodes of many paths at once, e.g. the result of
+	 * {@link org.janelia.saalfeldlab.n5.N5Reader#deepList}, in time linear in
+	 * the number of paths, and notifies the tree model of a single structure
+	 * change.
+	 *
+	 * @param relativePaths
+	 *            the paths relative to this node
+	 * @param order
+	 *            the order of the children of every node, or null to keep
+	 *            the order of the paths
+	 */
+	public void addPaths(final String[] relativePaths, final Comparator<? super String> order) {
+
+		for (final String relativePath : relativePaths) {
+			N5SwingTreeNode node = this;
+			for (final String name : relativePath.split("/")) {
+				if (name.isEmpty())
+					continue;
+
+				N5SwingTreeNode child = node.getChild(name);
+				if (child == null) {
+					child = new N5SwingTreeNode(
+							node.getPath().isEmpty() ? name : node.getPath() + "/" + name,
+							node, treeModel);
+					node.add(child);
+				}
+				node = child;
+			}
+		}
+
+		if (order != null)
+			sortRecursive(this, Comparator.comparing(N5TreeNode::toString, order));
+
+		if (treeModel != null)
+			treeModel.nodeStructureChanged(this);
+	}
+
+	private static void sortRecursive(final N5SwingTreeNode node, final Comparator<N5TreeNode> order) {
+
+		if (node.childrenList().isEmpty())
+			return;
+
+		node.childrenList().sort(order);
+		for (final N5TreeNode child : node.childrenList())
+			sortRecursive((N5SwingTreeNode)child, order);
 	}
 
 	@Override
@@ -151,31 +218,46 @@ public class N5SwingTreeNode extends N5TreeNode implements MutableTreeNode {
 		}
 	}
 
-	private static String normalDatasetName(final String fullPath, final String groupSeparator) {
+	static String normalDatasetName(final String fullPath, final String groupSeparator) {
 
-		return fullPath.replaceAll("(^" + groupSeparator + "*)|(" + groupSeparator + "*$)", "");
+		int start = 0;
+		int end = fullPath.length();
+		while (fullPath.startsWith(groupSeparator, start) && start < end)
+			start += groupSeparator.length();
+		while (end - groupSeparator.length() >= start && fullPath.startsWith(groupSeparator, end - groupSeparator.length()))
+			end -= groupSeparator.length();
+
+		return fullPath.substring(start, end);
 	}
 
 	@Override
 	public void insert(MutableTreeNode child, int index) {
-		if( child instanceof N5SwingTreeNode )
+		if( child instanceof N5SwingTreeNode ) {
 			childrenList().add(index, (N5SwingTreeNode)child);
+			childrenByName.put(((N5SwingTreeNode)child).getNodeName(), (N5SwingTreeNode)child);
+		}
 	}
 
 	@Override
 	public void remove(int index) {
-		childrenList().remove(index);
+		unindex(childrenList().remove(index));
 	}
 
 	@SuppressWarnings("unlikely-arg-type")
 	@Override
 	public void remove(MutableTreeNode node) {
-		childrenList().remove(node);
+		if (childrenList().remove(node))
+			unindex((N5TreeNode)node);
 	}
 
 	@Override
 	public void removeFromParent() {
-		parent.childrenList().remove(this);
+		parent.remove(this);
+	}
+
+	private void unindex(final N5TreeNode child) {
+		if (childrenByName.get(child.getNodeName()) == child)
+			childrenByName.remove(child.getNodeName());
 	}
 
 	@Override
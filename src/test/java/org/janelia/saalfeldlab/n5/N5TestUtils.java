@@ -0,0 +1,44 @@
+package org.janelia.saalfeldlab.n5;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Temporary containers shared by the tests.
+ */
+public class N5TestUtils {
+
+	private N5TestUtils() {}
+
+	/**
+	 * Creates a temporary directory that is deleted on exit.
+	 *
+	 * @param prefix
+	 *            the prefix of the directory name
+	 * @return the canonical path of the directory
+	 */
+	public static String tempN5PathName(final String prefix) {
+
+		try {
+			final File tmpFile = Files.createTempDirectory(prefix).toFile();
+			tmpFile.deleteOnExit();
+			return tmpFile.getCanonicalPath();
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Creates a writer for a new container "test.n5" in a temporary directory.
+	 * Tests remove and close it when they are done.
+	 *
+	 * @param prefix
+	 *            the prefix of the directory name
+	 * @return the writer
+	 */
+	public static N5Writer tempN5Writer(final String prefix) {
+
+		return new N5FSWriter(tempN5PathName(prefix) + "/test.n5");
+	}
+
+}
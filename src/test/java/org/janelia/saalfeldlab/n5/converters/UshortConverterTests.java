@@ -1,5 +1,11 @@
 package org.janelia.saalfeldlab.n5.converters;
 
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.janelia.saalfeldlab.n5.converters.UnsignedShortLinearConverter;
 import org.junit.Assert;
 import org.junit.Before;
@@ -10,6 +16,7 @@ import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.array.ArrayRandomAccess;
 import net.imglib2.img.basictypeaccess.array.LongArray;
 import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 
 public class UshortConverterTests
@@ -90,4 +97,109 @@ public class UshortConverterTests
 
 	}
 
+	@Test
+	public void testLinearConvertEstimatedRange()
+	{
+		// the true range of the data may exceed an estimated range
+		UnsignedShortLinearConverter< LongType > conv = new UnsignedShortLinearConverter<>( -100, 100 );
+
+		LongType in = new LongType();
+		UnsignedShortType v = new UnsignedShortType();
+		in.set( -100 );
+		conv.accept( in, v );
+		Assert.assertEquals( "estimated range, min to zero", 0, v.getInteger() );
+
+		in.set( -200 );
+		conv.accept( in, v );
+		Assert.assertEquals( "estimated range, below min clamped", 0, v.getInteger() );
+
+		in.set( 100 );
+		conv.accept( in, v );
+		Assert.assertEquals( "estimated range, max to 200", 200, v.getInteger() );
+
+		UnsignedShortLinearConverter< LongType > identity = new UnsignedShortLinearConverter<>( 1, maxUshort );
+		in.set( 2 * maxUshort );
+		identity.accept( in, v );
+		Assert.assertEquals( "identity, above max clamped", maxUshort, v.getInteger() );
+	}
+
+	@Test
+	public void testParallelUniqueValues() throws InterruptedException, ExecutionException
+	{
+		final Random rnd = new Random( 7 );
+		final ArrayImg< LongType, LongArray > noise = ArrayImgs.longs( 64, 64, 64 );
+		for ( final LongType t : noise )
+			t.set( rnd.nextInt( 5000 ) - 2500 );
+
+		final TreeSet< Long > expected = new TreeSet<>();
+		for ( final LongType t : noise )
+			expected.add( t.get() );
+
+		final ExecutorService exec = Executors.newFixedThreadPool( 4 );
+		final long[] values = UnsignedShortLUTConverter.uniqueValues( noise, exec );
+		exec.shutdown();
+
+		Assert.assertEquals( "number of unique values", expected.size(), values.length );
+		int i = 0;
+		for ( final Long v : expected )
+			Assert.assertEquals( "sorted unique value " + i, v.longValue(), values[ i++ ] );
+
+		final UnsignedShortLUTConverter< LongType > conv = new UnsignedShortLUTConverter<>( values );
+		final LongType in = new LongType();
+		final UnsignedShortType v = new UnsignedShortType();
+		in.set( expected.first() );
+		conv.accept( in, v );
+		Assert.assertEquals( "parallel lut, min to zero", 0, v.getInteger() );
+
+		in.set( expected.last() );
+		conv.accept( in, v );
+		Assert.assertEquals( "parallel lut, max to n-1", expected.size() - 1, v.getInteger() );
+	}
+
+	@Test
+	public void testUnsignedLongOrdering()
+	{
+		final ArrayImg< UnsignedLongType, LongArray > ulongs = ArrayImgs.unsignedLongs( new long[]{ -1, 0, 5 }, 3 );
+		final UnsignedShortLUTConverter< UnsignedLongType > conv = new UnsignedShortLUTConverter<>( ulongs );
+
+		final UnsignedLongType in = new UnsignedLongType();
+		final UnsignedShortType v = new UnsignedShortType();
+
+		in.set( 0 );
+		conv.accept( in, v );
+		Assert.assertEquals( "unsigned lut, zero to zero", 0, v.getInteger() );
+
+		in.set( 5 );
+		conv.accept( in, v );
+		Assert.assertEquals( "unsigned lut, five to one", 1, v.getInteger() );
+
+		in.set( -1 );
+		conv.accept( in, v );
+		Assert.assertEquals( "unsigned lut, max to two", 2, v.getInteger() );
+	}
+
+	@Test
+	public void testLongHashSet()
+	{
+		final LongHashSet set = new LongHashSet( 2 );
+		for ( long i = -500; i < 500; i++ )
+		{
+			set.add( i );
+			set.add( i );
+		}
+
+		Assert.assertEquals( "set size", 1000, set.size() );
+		Assert.assertTrue( "contains zero", set.contains( 0 ) );
+		Assert.assertFalse( "does not contain 500", set.contains( 500 ) );
+
+		final long[] sorted = set.toSortedArray( false );
+		for ( int i = 0; i < sorted.length; i++ )
+			Assert.assertEquals( "sorted", i - 500, sorted[ i ] );
+
+		final LongIntHashMap map = LongIntHashMap.indexOf( sorted, -1 );
+		Assert.assertEquals( "map size", 1000, map.size() );
+		Assert.assertEquals( "index of zero", 500, map.get( 0 ) );
+		Assert.assertEquals( "missing value", -1, map.get( 1000 ) );
+	}
+
 }
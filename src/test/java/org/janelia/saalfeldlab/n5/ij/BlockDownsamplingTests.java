@@ -0,0 +1,55 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.blocks.BlockSupplier;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+public class BlockDownsamplingTests {
+
+	@Test
+	public void testSubsample() {
+
+		final RandomAccessibleInterval<UnsignedShortType> img = ArrayImgs.unsignedShorts(77, 41, 13);
+		final Random random = new Random(17);
+		for (final UnsignedShortType t : Views.flatIterable(img))
+			t.set(random.nextInt(65536));
+
+		// two levels, each reading from the cells of the one before
+		final int[] f1 = new int[]{2, 3, 1};
+		final int[] f2 = new int[]{3, 2, 2};
+		final RandomAccessibleInterval<UnsignedShortType> s1 = BlockDownsampling.cellImg(img, f1,
+				new long[]{39, 14, 13}, new int[]{16, 16, 16}, 0, PrimitiveArrays::subsample);
+		final RandomAccessibleInterval<UnsignedShortType> s2 = BlockDownsampling.cellImg(s1, f2,
+				new long[]{13, 7, 7}, new int[]{5, 5, 5}, 2, PrimitiveArrays::subsample);
+
+		final RandomAccessibleInterval<UnsignedShortType> expected = Views.subsample(Views.subsample(img, 2, 3, 1), 3, 2, 2);
+		assertArrayEquals(expected.dimensionsAsLongArray(), s2.dimensionsAsLongArray());
+		LoopBuilder.setImages(expected, s2).forEachPixel((e, a) -> assertEquals(e.get(), a.get()));
+	}
+
+	@Test
+	public void testBlockSupplier() {
+
+		final RandomAccessibleInterval<UnsignedShortType> img = ArrayImgs.unsignedShorts(30, 20, 10);
+		int v = 0;
+		for (final UnsignedShortType t : Views.flatIterable(img))
+			t.set(v++);
+
+		// a small bounded cache evicts cells, which are copied again when needed
+		final RandomAccessibleInterval<UnsignedShortType> cells = BlockDownsampling.cellImg(
+				BlockSupplier.of(img), img.dimensionsAsLongArray(), new int[]{8, 8, 8}, 3);
+		LoopBuilder.setImages(img, cells).forEachPixel((e, a) -> assertEquals(e.get(), a.get()));
+		LoopBuilder.setImages(img, cells).forEachPixel((e, a) -> assertEquals(e.get(), a.get()));
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import net.imglib2.FinalInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+public class BlockwiseLoaderTests {
+
+	private static final String DATASET = "shorts";
+
+	private static final long[] DIMS = new long[]{37, 29, 11};
+
+	private String rootPath;
+
+	private N5Writer n5;
+
+	private ArrayImg<UnsignedShortType, ShortArray> img;
+
+	private ExecutorService exec;
+
+	@Before
+	public void setUp() throws Exception {
+
+		rootPath = tempN5PathName("n5-blockwise-loader-test-") + "/test.n5";
+		n5 = new N5FSWriter(rootPath);
+
+		img = ArrayImgs.unsignedShorts(DIMS);
+		int v = 0;
+		for (final UnsignedShortType t : img)
+			t.set(v++ % 65536);
+
+		N5Utils.save(img, n5, DATASET, new int[]{8, 7, 5}, new RawCompression());
+		exec = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+
+		exec.shutdown();
+		n5.remove();
+		n5.close();
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+
+		final ImagePlus imp = N5IJUtils.load(n5, DATASET, null, null, exec);
+		assertEquals(DIMS[0], imp.getWidth());
+		assertEquals(DIMS[1], imp.getHeight());
+		assertEquals(DIMS[2], imp.getStackSize());
+
+		final ImageStack stack = imp.getStack();
+		for (int z = 0; z < DIMS[2]; z++)
+			for (int y = 0; y < DIMS[1]; y++)
+				for (int x = 0; x < DIMS[0]; x++)
+					assertEquals(expected(x, y, z), (int)stack.getVoxel(x, y, z));
+	}
+
+	@Test
+	public void testLoadRegion() throws Exception {
+
+		final FinalInterval region = new FinalInterval(new long[]{3, 6, 2}, new long[]{30, 20, 9});
+		final int w = (int)region.dimension(0);
+		final int h = (int)region.dimension(1);
+		final int d = (int)region.dimension(2);
+
+		final Object[] planes = new Object[d];
+		for (int i = 0; i < d; i++)
+			planes[i] = new short[w * h];
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(DATASET);
+		BlockwiseLoader.load(n5, DATASET, attributes, region, planes, w * h, exec, false);
+
+		for (int z = 0; z < d; z++) {
+			final short[] plane = (short[])planes[z];
+			for (int y = 0; y < h; y++)
+				for (int x = 0; x < w; x++)
+					assertEquals(
+							expected(x + 3, y + 6, z + 2),
+							plane[y * w + x] & 0xffff);
+		}
+	}
+
+	@Test
+	public void testImporterCrop() {
+
+		final N5Importer reader = new N5Importer();
+		reader.setShow(false);
+
+		final FinalInterval crop = new FinalInterval(new long[]{5, 0, 3}, new long[]{33, 28, 7});
+		final List<ImagePlus> impList = reader.process(rootPath + "/" + DATASET, false, crop);
+		assertEquals(1, impList.size());
+
+		final ImagePlus imp = impList.get(0);
+		assertEquals(crop.dimension(0), imp.getWidth());
+		assertEquals(crop.dimension(1), imp.getHeight());
+		assertEquals(crop.dimension(2), imp.getStackSize());
+
+		final ImageStack stack = imp.getStack();
+		for (int z = 0; z < crop.dimension(2); z++)
+			for (int y = 0; y < crop.dimension(1); y++)
+				for (int x = 0; x < crop.dimension(0); x++)
+					assertEquals(expected(x + 5, y, z + 3), (int)stack.getVoxel(x, y, z));
+	}
+
+	private static int expected(final long x, final long y, final long z) {
+
+		return (int)((x + DIMS[0] * (y + DIMS[1] * z)) % 65536);
+	}
+
+}
@@ -0,0 +1,55 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.universe.N5DatasetDiscoverer;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+import org.janelia.saalfeldlab.n5.universe.N5TreeNode;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5Metadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.ome.ngff.v04.OmeNgffMetadataParser;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+
+public class DatasetResolverTests {
+
+	@Test
+	public void testResolveOmeNgff() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-dataset-resolver-test-") + "/test.zarr";
+
+		final ImagePlus imp = NewImage.createImage("test", 64, 48, 8, 8, NewImage.FILL_NOISE);
+		for (final String dataset : new String[]{"plate/a/img", "plate/b/img"}) {
+			final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+			writer.setOptions(imp, rootPath, dataset, N5ScalePyramidExporter.ZARR_FORMAT, "16", true,
+					N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataOmeZarrKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+			writer.run();
+		}
+
+		final N5Reader n5 = new N5Factory().openReader(rootPath);
+		final N5DatasetDiscoverer discoverer = new N5DatasetDiscoverer(n5, N5DatasetDiscoverer.fromParsers(N5Importer.PARSERS),
+				Collections.singletonList(new OmeNgffMetadataParser()));
+		final N5TreeNode root = discoverer.discoverAndParseRecursive("");
+
+		// the same metadata as from crawling the container, for arrays and multiscale groups
+		for (final String dataset : new String[]{"plate/a/img/s0", "/plate/a/img/s1", "plate/b/img"}) {
+			final N5Metadata expected = root.getDescendant(dataset).get().getMetadata();
+			final N5Metadata resolved = DatasetResolver.resolve(n5, discoverer, dataset);
+			assertNotNull(dataset, expected);
+			assertNotNull(dataset, resolved);
+			assertEquals(dataset, expected.getClass(), resolved.getClass());
+			assertEquals(dataset, DatasetResolver.normalize(expected.getPath()), DatasetResolver.normalize(resolved.getPath()));
+		}
+
+		assertNull(DatasetResolver.resolve(n5, discoverer, "plate/c"));
+		n5.close();
+	}
+
+}
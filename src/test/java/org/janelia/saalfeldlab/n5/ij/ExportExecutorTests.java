@@ -0,0 +1,106 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import ij.process.ImageProcessor;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+public class ExportExecutorTests {
+
+	private static long numExportThreads() {
+
+		return Thread.getAllStackTraces().keySet().stream()
+				.filter(t -> t.isAlive() && t.getName().startsWith(ExportExecutor.THREAD_NAME_PREFIX))
+				.count();
+	}
+
+	@Test
+	public void testClose() throws Exception {
+
+		final ExportExecutor executor = new ExportExecutor(3);
+		assertEquals(3, executor.getNumThreads());
+
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++)
+			futures.add(executor.getExecutor().submit(() -> {}));
+
+		for (final Future<?> f : futures)
+			f.get();
+
+		executor.close();
+		assertTrue(executor.getExecutor().isTerminated());
+	}
+
+	@Test
+	public void testNoPoolsLeftAfterExport() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-export-executor-test-") + "/test.n5";
+
+		// two channels with several scale levels each
+		final ImagePlus imp = NewImage.createImage("test", 64, 64, 2 * 16, 8, NewImage.FILL_NOISE);
+		imp.setDimensions(2, 16, 1);
+
+		final long before = numExportThreads();
+		final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+		writer.setOptions(imp, rootPath, "pyramid", N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+				N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+		writer.setNumThreads(4);
+		writer.run();
+
+		assertEquals(before, numExportThreads());
+
+		final N5Reader n5 = new N5FSReader(rootPath);
+		assertTrue(n5.datasetExists("pyramid/c1/s2"));
+		n5.remove();
+		n5.close();
+	}
+
+	@Test
+	public void testParallelChannels() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-export-executor-test-") + "/test.n5";
+
+		final int nc = 3;
+		final ImagePlus imp = NewImage.createImage("test", 37, 29, nc * 11, 8, NewImage.FILL_NOISE);
+		imp.setDimensions(nc, 11, 1);
+
+		final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+		writer.setOptions(imp, rootPath, "channels", N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+				N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+		writer.setNumThreads(4);
+		writer.run();
+
+		final N5Reader n5 = new N5FSReader(rootPath);
+		for (int c = 0; c < nc; c++) {
+
+			assertTrue(n5.datasetExists("channels/c" + c + "/s1"));
+			assertNotNull(n5.getAttribute("channels/c" + c + "/s1", "downsamplingFactors", double[].class));
+
+			final RandomAccess<UnsignedByteType> ra = N5Utils.<UnsignedByteType>open(n5, "channels/c" + c + "/s0").randomAccess();
+			for (int z = 0; z < 11; z++) {
+				final ImageProcessor ip = imp.getStack().getProcessor(imp.getStackIndex(c + 1, z + 1, 1));
+				for (int y = 0; y < 29; y++)
+					for (int x = 0; x < 37; x++)
+						assertEquals(ip.get(x, y), ra.setPositionAndGet(x, y, z).get());
+			}
+		}
+		n5.remove();
+		n5.close();
+	}
+
+}
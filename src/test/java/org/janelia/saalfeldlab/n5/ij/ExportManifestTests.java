@@ -0,0 +1,226 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+public class ExportManifestTests {
+
+	@Test
+	public void testCheckpoint() throws Exception {
+
+		final N5Writer n5 = new N5FSWriter(tempN5PathName("n5-export-manifest-test-") + "/test.n5");
+		final DatasetAttributes attributes = new DatasetAttributes(new long[]{100, 100}, new int[]{10, 10}, DataType.UINT8, new RawCompression());
+
+		final ExportManifest manifest = ExportManifest.open(n5, "data", attributes, true);
+		assertTrue(ExportManifest.exists(n5, "data"));
+		manifest.completed(3);
+		manifest.completed(42);
+		manifest.checkpoint();
+		manifest.completed(7);
+
+		// chunks after the last checkpoint are lost
+		final ExportManifest resumed = ExportManifest.open(n5, "data", attributes, true);
+		assertEquals(2, resumed.getNumCompleted());
+		assertTrue(resumed.isCompleted(3));
+		assertTrue(resumed.isCompleted(42));
+		assertFalse(resumed.isCompleted(7));
+
+		resumed.finish();
+		assertFalse(ExportManifest.exists(n5, "data"));
+		assertTrue(ExportManifest.isComplete(n5, "data"));
+		assertEquals(100, ExportManifest.open(n5, "data", attributes, true).getNumCompleted());
+
+		// starting over forgets the chunks
+		ExportManifest.open(n5, "data", attributes, true).checkpoint();
+		assertEquals(0, ExportManifest.open(n5, "data", attributes, false).getNumCompleted());
+		assertTrue(ExportManifest.exists(n5, "data"));
+		assertFalse(ExportManifest.isComplete(n5, "data"));
+
+		// exports that are not resumed keep a manifest too, but leave nothing when finished
+		final ExportManifest other = ExportManifest.open(n5, "other", attributes, false);
+		other.completed(1);
+		other.checkpoint();
+		assertTrue(ExportManifest.exists(n5, "other"));
+		assertEquals(1, ExportManifest.open(n5, "other", attributes, true).getNumCompleted());
+		other.finish();
+		assertFalse(ExportManifest.exists(n5, "other"));
+		assertFalse(ExportManifest.isComplete(n5, "other"));
+		assertNull(n5.getAttribute("other", "exportComplete", Boolean.class));
+
+		// a dataset with neither a manifest nor a marker is not complete
+		n5.createDataset("unknown", attributes);
+		assertEquals(0, ExportManifest.open(n5, "unknown", attributes, true).getNumCompleted());
+
+		final DatasetAttributes otherChunks = new DatasetAttributes(new long[]{100, 100}, new int[]{20, 20}, DataType.UINT8, new RawCompression());
+		try {
+			ExportManifest.open(n5, "data", otherChunks, true);
+			throw new AssertionError("resumed a dataset with a different chunk size");
+		} catch (final N5Exception e) {}
+
+		n5.remove();
+		n5.close();
+	}
+
+	@Test
+	public void testResume() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-export-manifest-test-") + "/test.n5";
+		final ImagePlus imp = NewImage.createImage("test", 37, 29, 11, 8, NewImage.FILL_NOISE);
+
+		final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+		writer.setOptions(imp, rootPath, "resume", N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+				N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+		writer.run();
+
+		// pretend the export of s0 stopped after the first half of its 40 chunks
+		final N5Writer n5 = new N5FSWriter(rootPath);
+		final String s0 = "resume/c0/s0";
+		final DatasetAttributes attributes = n5.getDatasetAttributes(s0);
+		final BitSet completed = new BitSet();
+		completed.set(0, 20);
+		ExportManifest.write(n5, s0, completed);
+
+		final DataBlock<?> marked = DataType.UINT8.createDataBlock(new int[]{8, 8, 8}, new long[]{0, 0, 0});
+		n5.writeBlock(s0, attributes, marked);
+		n5.deleteBlock(s0, new long[]{4, 3, 1});
+
+		final N5ScalePyramidExporter resumer = new N5ScalePyramidExporter();
+		resumer.setOptions(imp, rootPath, "resume", N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+				N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+		resumer.setResume(true);
+		resumer.run();
+
+		// recorded chunks are kept, the others are written again
+		final byte[] kept = (byte[])n5.readBlock(s0, attributes, 0, 0, 0).getData();
+		for (final byte b : kept)
+			assertEquals(0, b);
+
+		final DataBlock<?> rewritten = n5.readBlock(s0, attributes, 4, 3, 1);
+		assertNotNull(rewritten);
+		final byte[] data = (byte[])rewritten.getData();
+		final int[] size = rewritten.getSize();
+		for (int z = 0; z < size[2]; z++)
+			for (int y = 0; y < size[1]; y++)
+				for (int x = 0; x < size[0]; x++)
+					assertEquals(
+							imp.getStack().getProcessor(9 + z).get(32 + x, 24 + y),
+							data[x + size[0] * (y + size[1] * z)] & 0xff);
+
+		assertFalse(ExportManifest.exists(n5, s0));
+		// the other levels were finished without resuming, so nothing is known about them
+		final ExportMetrics.DatasetMetrics s0Metrics = resumer.getMetricsTracker().getMetrics().getDatasets().stream()
+				.filter(d -> d.getDataset().endsWith("c0/s0")).findFirst().get();
+		assertEquals(20, s0Metrics.getBlocksWritten());
+		assertTrue(ExportManifest.isComplete(n5, s0));
+		n5.remove();
+		n5.close();
+	}
+
+	@Test
+	public void testExportLeavesNoFiles() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-export-manifest-test-") + "/test.n5";
+		final ImagePlus imp = NewImage.createImage("test", 37, 29, 11, 8, NewImage.FILL_NOISE);
+
+		for (final boolean singlePass : new boolean[]{false, true}) {
+
+			final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+			writer.setOptions(imp, rootPath, "export" + singlePass, N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+					N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+			writer.setSinglePassPyramid(singlePass);
+			writer.run();
+		}
+
+		try (final Stream<Path> files = Files.walk(Paths.get(rootPath))) {
+			final List<String> names = files.map(p -> p.getFileName().toString())
+					.filter(n -> n.equals(ExportManifest.MANIFEST_KEY) || n.equals(ExportManifest.COMPLETE_KEY))
+					.collect(Collectors.toList());
+			assertTrue(names.toString(), names.isEmpty());
+		}
+
+		final N5Writer n5 = new N5FSWriter(rootPath);
+		n5.remove();
+		n5.close();
+	}
+
+	@Test
+	public void testResumeInterrupted() throws Exception {
+
+		final N5Writer n5 = new N5FSWriter(tempN5PathName("n5-export-manifest-test-") + "/test.n5");
+		final int[] blockSize = new int[]{10, 10};
+		final ExecutorService exec = Executors.newSingleThreadExecutor();
+
+		// an export that was not resumed fails in the chunk at flat index 35
+		final AtomicLong converted = new AtomicLong();
+		final RandomAccessibleInterval<UnsignedByteType> failing = Converters.convert(
+				(RandomAccessibleInterval<UnsignedByteType>)ArrayImgs.unsignedBytes(100, 100),
+				(a, b) -> {
+					if (converted.incrementAndGet() > 35 * 100)
+						throw new IllegalStateException("interrupted");
+					b.set(1);
+				},
+				new UnsignedByteType());
+
+		final BlockwiseWriter<UnsignedByteType> interrupted = new BlockwiseWriter<>(failing, n5, "data", blockSize, new RawCompression());
+		try {
+			interrupted.write(exec);
+			throw new AssertionError("the export was not interrupted");
+		} catch (final ExecutionException e) {}
+
+		assertTrue(ExportManifest.exists(n5, "data"));
+		assertFalse(ExportManifest.isComplete(n5, "data"));
+
+		final ArrayImg<UnsignedByteType, ?> twos = ArrayImgs.unsignedBytes(100, 100);
+		twos.forEach(t -> t.set(2));
+		final BlockwiseWriter<UnsignedByteType> resumer = new BlockwiseWriter<>(twos, n5, "data", blockSize, new RawCompression());
+		resumer.setResume(true);
+		resumer.write(exec);
+		exec.shutdown();
+
+		// the chunks written before the interruption are kept, the others are written
+		final DatasetAttributes attributes = n5.getDatasetAttributes("data");
+		for (int i = 0; i < 100; i++) {
+			final byte[] data = (byte[])n5.readBlock("data", attributes, i % 10, i / 10).getData();
+			assertEquals(i < 35 ? 1 : 2, data[0]);
+		}
+
+		assertFalse(ExportManifest.exists(n5, "data"));
+		assertTrue(ExportManifest.isComplete(n5, "data"));
+		n5.remove();
+		n5.close();
+	}
+
+}
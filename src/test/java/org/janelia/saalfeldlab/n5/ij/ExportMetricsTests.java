@@ -0,0 +1,180 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+
+public class ExportMetricsTests {
+
+	@Test
+	public void testMetrics() {
+
+		final ExportMetrics metrics = new ExportMetrics();
+		final AtomicInteger calls = new AtomicInteger();
+		metrics.addListener((m, d) -> calls.incrementAndGet());
+
+		final ExportMetrics.DatasetMetrics a = metrics.startDataset("a", 4);
+		final ExportMetrics.DatasetMetrics b = metrics.startDataset("b", 4);
+		metrics.blocksWritten(a, 3, 300);
+		metrics.blocksWritten(b, 1, 100, 25);
+
+		assertEquals(4, metrics.getBlocksWritten());
+		assertEquals(8, metrics.getExpectedBlocks());
+		assertEquals(400, metrics.getBytesIn());
+		assertEquals(0.5, metrics.getProgress(), 1e-9);
+		assertFalse(a.isFinished());
+
+		// the encoded size is only known for b
+		assertEquals(-1, a.getBytesOut());
+		assertEquals(25, b.getBytesOut());
+		assertEquals(25, metrics.getBytesOut());
+		assertEquals(4.0, metrics.getCompressionRatio(), 1e-9);
+
+		// planned datasets count until they are started, started ones are not planned again
+		metrics.planDataset("c", 8);
+		metrics.planDataset("b", 8);
+		assertEquals(16, metrics.getExpectedBlocks());
+		assertEquals(0.25, metrics.getProgress(), 1e-9);
+		metrics.startDataset("c", 6);
+		assertEquals(14, metrics.getExpectedBlocks());
+
+		metrics.blocksWritten(a, 1, 100);
+		metrics.finishDataset(a);
+		assertTrue(a.isFinished());
+		assertEquals(-1, a.getBytesOut());
+		assertEquals(7, calls.get());
+	}
+
+	@Test
+	public void testExportReportsEveryBlock() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-export-metrics-test-") + "/test.n5";
+
+		final ImagePlus imp = NewImage.createImage("test", 37, 29, 11, 8, NewImage.FILL_NOISE);
+		final AtomicInteger calls = new AtomicInteger();
+
+		for (final boolean singlePass : new boolean[]{false, true}) {
+
+			final String dataset = "/metrics" + singlePass;
+			final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+			writer.setOptions(imp, rootPath, dataset, N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+					N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+			writer.setSinglePassPyramid(singlePass);
+			writer.getMetricsTracker().addListener((m, d) -> calls.incrementAndGet());
+			writer.run();
+
+			final ExportMetrics metrics = writer.getMetricsTracker().getMetrics();
+			assertTrue(metrics.getDatasets().size() > 1);
+			assertEquals(metrics.getExpectedBlocks(), metrics.getBlocksWritten());
+
+			final N5Reader n5 = new N5FSReader(rootPath);
+			for (final ExportMetrics.DatasetMetrics d : metrics.getDatasets()) {
+
+				final DatasetAttributes attrs = n5.getDatasetAttributes(d.getDataset());
+				long numBlocks = 1;
+				long numElements = 1;
+				for (int i = 0; i < attrs.getNumDimensions(); i++) {
+					numBlocks *= (attrs.getDimensions()[i] + attrs.getBlockSize()[i] - 1) / attrs.getBlockSize()[i];
+					numElements *= attrs.getDimensions()[i];
+				}
+
+				assertTrue(d.getDataset() + " finished", d.isFinished());
+				assertEquals(d.getDataset() + " expected blocks", numBlocks, d.getExpectedBlocks());
+				assertEquals(d.getDataset() + " blocks", numBlocks, d.getBlocksWritten());
+				assertEquals(d.getDataset() + " bytes in", numElements, d.getBytesIn());
+				// raw blocks are stored with a header
+				assertTrue(d.getDataset() + " bytes out", d.getBytesOut() > numElements);
+			}
+			n5.close();
+		}
+
+		assertTrue(calls.get() > 0);
+	}
+
+	@Test
+	public void testSkipEmptyChunks() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-export-metrics-test-") + "/test.n5";
+
+		// a single bright voxel in the first chunk
+		final ImagePlus imp = NewImage.createImage("test", 32, 32, 16, 8, NewImage.FILL_BLACK);
+		imp.getStack().setVoxel(3, 2, 1, 200);
+
+		for (final boolean singlePass : new boolean[]{false, true}) {
+
+			final String dataset = "/sparse" + singlePass;
+			final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+			writer.setOptions(imp, rootPath, dataset, N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+					N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+			writer.setSinglePassPyramid(singlePass);
+			writer.setSkipEmptyChunks(true);
+			writer.run();
+
+			final ExportMetrics metrics = writer.getMetricsTracker().getMetrics();
+			final ExportMetrics.DatasetMetrics s0 = metrics.getDatasets().stream()
+					.filter(d -> d.getDataset().endsWith("c0/s0")).findFirst().get();
+			assertEquals(32, s0.getExpectedBlocks());
+			assertEquals(1, s0.getBlocksWritten());
+			assertEquals(31, s0.getBlocksSkipped());
+			assertEquals(metrics.getExpectedBlocks(), metrics.getBlocksDone());
+			// only the chunk that was written is stored
+			assertTrue(s0.getBytesOut() > 8 * 8 * 8);
+			assertTrue(s0.getBytesOut() < 2 * 8 * 8 * 8);
+
+			final N5Reader n5 = new N5FSReader(rootPath);
+			final String path = dataset + "/c0/s0";
+			final DatasetAttributes attrs = n5.getDatasetAttributes(path);
+			assertNotNull(n5.readBlock(path, attrs, 0, 0, 0));
+			assertNull(n5.readBlock(path, attrs, 1, 0, 0));
+			assertEquals(200, ((byte[])n5.readBlock(path, attrs, 0, 0, 0).getData())[3 + 8 * (2 + 8 * 1)] & 0xff);
+			n5.close();
+		}
+	}
+
+	@Test
+	public void testSubsetExportReportsEveryBlock() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-export-metrics-test-") + "/test.n5";
+
+		final ImagePlus base = NewImage.createImage("test", 32, 32, 4, 8, NewImage.FILL_BLACK);
+		final N5SubsetExporter creator = new N5SubsetExporter();
+		creator.setOptions(base, rootPath, "subset", "0,0,0", "8", N5ScalePyramidExporter.RAW_COMPRESSION);
+		creator.process();
+
+		// a patch at 3,3,1 overlaps 2 x 2 x 1 chunks of size 8
+		final ImagePlus patch = NewImage.createImage("patch", 10, 10, 2, 8, NewImage.FILL_WHITE);
+		final N5SubsetExporter writer = new N5SubsetExporter();
+		writer.setOptions(patch, rootPath, "subset", "3,3,1", "8", N5ScalePyramidExporter.RAW_COMPRESSION);
+		final AtomicInteger calls = new AtomicInteger();
+		writer.getMetricsTracker().addListener((m, d) -> calls.incrementAndGet());
+		writer.process();
+
+		final ExportMetrics metrics = writer.getMetricsTracker().getMetrics();
+		assertEquals(4, metrics.getExpectedBlocks());
+		assertEquals(4, metrics.getBlocksWritten());
+		assertEquals(10 * 10 * 2, metrics.getBytesIn());
+
+		// started, every block, finished
+		assertEquals(6, calls.get());
+
+		final N5Writer n5 = new N5FSWriter(rootPath);
+		n5.remove();
+		n5.close();
+	}
+
+}
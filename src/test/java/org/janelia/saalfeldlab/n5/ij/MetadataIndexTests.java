@@ -0,0 +1,123 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.universe.N5DatasetDiscoverer;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5DatasetMetadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5Metadata;
+import org.janelia.saalfeldlab.n5.universe.metadata.ome.ngff.v04.OmeNgffMetadataParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.imglib2.img.array.ArrayImgs;
+
+public class MetadataIndexTests {
+
+	private File tmp;
+
+	private N5Writer n5;
+
+	private N5DatasetDiscoverer discoverer;
+
+	@Before
+	public void setUp() throws Exception {
+
+		tmp = new File(tempN5PathName("n5-metadata-index-test-"));
+		n5 = new N5FSWriter(new File(tmp, "test.n5").getPath());
+
+		for (final String dataset : new String[]{"a/b/c", "a/d", "e"})
+			N5Utils.save(ArrayImgs.unsignedBytes(8, 6, 4), n5, dataset, new int[]{4, 4, 4}, new RawCompression());
+
+		discoverer = new N5DatasetDiscoverer(n5, N5DatasetDiscoverer.fromParsers(N5Importer.PARSERS),
+				Collections.singletonList(new OmeNgffMetadataParser()));
+	}
+
+	@After
+	public void tearDown() {
+
+		n5.remove();
+		n5.close();
+	}
+
+	@Test
+	public void testIndex() throws Exception {
+
+		final MetadataIndex index = new MetadataIndex(new File(tmp, "index"));
+
+		final N5Metadata first = index.find(n5, discoverer, "a/b/c");
+		assertNotNull(first);
+		assertEquals(0, index.getHits());
+		assertEquals(1, index.getMisses());
+
+		// reopening uses the index, for any dataset of the container
+		for (final String dataset : new String[]{"a/b/c", "/a/d", "e"}) {
+			final N5Metadata metadata = index.find(n5, discoverer, dataset);
+			assertNotNull(dataset, metadata);
+			assertArrayEquals(dataset, new long[]{8, 6, 4}, ((N5DatasetMetadata)metadata).getAttributes().getDimensions());
+		}
+		assertEquals(3, index.getHits());
+		assertEquals(1, index.getMisses());
+
+		// a dataset that is not indexed yet updates the index
+		N5Utils.save(ArrayImgs.unsignedBytes(5, 5), n5, "a/b/f", new int[]{4, 4}, new RawCompression());
+		assertNotNull(index.find(n5, discoverer, "a/b/f"));
+		assertEquals(2, index.getMisses());
+		assertNotNull(index.find(n5, discoverer, "a/b/f"));
+		assertEquals(2, index.getMisses());
+
+		// and so does a removed one
+		n5.remove("e");
+		assertNull(index.find(n5, discoverer, "e"));
+		assertEquals(3, index.getMisses());
+
+		// the index is shared through its directory
+		final MetadataIndex other = new MetadataIndex(new File(tmp, "index"));
+		assertNotNull(other.find(n5, discoverer, "a/d"));
+		assertEquals(1, other.getHits());
+	}
+
+	@Test
+	public void testIncrementalUpdate() throws Exception {
+
+		final MetadataIndex index = new MetadataIndex(new File(tmp, "index"));
+		assertNotNull(index.find(n5, discoverer, "a/d"));
+		assertEquals(1, index.getMisses());
+
+		// a dataset added below the root changes the stamp of its group, which is listed again
+		N5Utils.save(ArrayImgs.unsignedBytes(5, 5), n5, "a/g", new int[]{4, 4}, new RawCompression());
+		assertNotNull(index.find(n5, discoverer, "a/d"));
+		assertEquals(2, index.getMisses());
+
+		// and it is known from then on, as is the rest of the container
+		assertNotNull(index.find(n5, discoverer, "a/g"));
+		assertNotNull(index.find(n5, discoverer, "e"));
+		assertEquals(2, index.getHits());
+		assertEquals(2, index.getMisses());
+
+		// changed attributes of a dataset
+		n5.setAttribute("a/d", "note", "changed");
+		assertNotNull(index.find(n5, discoverer, "a/d"));
+		assertEquals(3, index.getMisses());
+		assertNotNull(index.find(n5, discoverer, "a/d"));
+		assertEquals(3, index.getHits());
+
+		// siblings are not checked while their group is unchanged
+		n5.setAttribute("a/g", "note", "changed");
+		assertNotNull(index.find(n5, discoverer, "a/d"));
+		assertEquals(4, index.getHits());
+		assertEquals(3, index.getMisses());
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ShortProcessor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+public class ModeDownsampleTests {
+
+	@Test
+	public void testArrays() {
+
+		// 2x2 windows of a 5x2 array, the last window is cut off by the border
+		final int[] src = new int[]{
+				1, 1, 2, 3, 7,
+				1, 5, 3, 2, 9};
+		final int[] dest = new int[3];
+		ModeDownsample.downsample(src, new int[]{5, 2}, dest, new int[]{3, 1}, new int[]{2, 2});
+
+		// ties are resolved in favor of the smallest value
+		assertArrayEquals(new int[]{1, 2, 7}, dest);
+
+		// values are compared by their bits
+		final short[] labels = new short[]{(short)60000, (short)60000, 4, (short)60000};
+		final short[] mode = new short[1];
+		ModeDownsample.downsample(labels, new int[]{4}, mode, new int[]{1}, new int[]{4});
+		assertEquals(60000, mode[0] & 0xffff);
+
+		// and ties are resolved in unsigned order
+		final short[] tie = new short[]{(short)60000, 4, (short)60000, 4};
+		ModeDownsample.downsample(tie, new int[]{4}, mode, new int[]{1}, new int[]{4});
+		assertEquals(4, mode[0]);
+
+		// also for uint64, where -1 is the largest value
+		final long[] longs = new long[]{-1, 4, -1, 4, -1, -1};
+		final long[] longModes = new long[2];
+		ModeDownsample.downsample(longs, new int[]{6}, longModes, new int[]{2}, new int[]{4});
+		assertArrayEquals(new long[]{4, -1}, longModes);
+		assertArrayEquals(new long[]{-1, 4, -1, 4, -1, -1}, longs);
+
+		final double[] values = new double[]{0.5, 0.25, 0.25, 0.5, 0.5, 0.5};
+		final double[] modes = new double[2];
+		ModeDownsample.downsample(values, new int[]{6}, modes, new int[]{2}, new int[]{3});
+		assertArrayEquals(new double[]{0.25, 0.5}, modes, 0);
+	}
+
+	@Test
+	public void testExport() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-mode-downsample-test-") + "/test.n5";
+
+		// labels in blocks of 3x3x3 voxels
+		final int w = 37, h = 29, d = 11;
+		final ImageStack stack = new ImageStack(w, h);
+		for (int z = 0; z < d; z++) {
+			final ShortProcessor ip = new ShortProcessor(w, h);
+			for (int y = 0; y < h; y++)
+				for (int x = 0; x < w; x++)
+					ip.set(x, y, label(x, y, z));
+			stack.addSlice(ip);
+		}
+		final ImagePlus imp = new ImagePlus("labels", stack);
+
+		for (final boolean singlePass : new boolean[]{false, true}) {
+
+			final String dataset = "/labels" + singlePass;
+			final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+			writer.setOptions(imp, rootPath, dataset, N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+					N5ScalePyramidExporter.DOWN_MODE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+			writer.setSinglePassPyramid(singlePass);
+			writer.run();
+
+			final N5Reader n5 = new N5FSReader(rootPath);
+			final RandomAccessibleInterval<UnsignedShortType> s1 = N5Utils.open(n5, dataset + "/c0/s1");
+			assertArrayEquals(new long[]{w / 2, h / 2, d / 2}, s1.dimensionsAsLongArray());
+
+			// every voxel holds the most frequent label of its 2x2x2 window
+			final RandomAccess<UnsignedShortType> ra = s1.randomAccess();
+			for (int z = 0; z < d / 2; z++)
+				for (int y = 0; y < h / 2; y++)
+					for (int x = 0; x < w / 2; x++)
+						assertEquals(singlePass + " " + x + "," + y + "," + z,
+								expectedMode(2 * x, 2 * y, 2 * z),
+								ra.setPositionAndGet(x, y, z).get());
+			n5.close();
+		}
+	}
+
+	private static int label(final int x, final int y, final int z) {
+
+		return 1000 + x / 3 + 13 * (y / 3) + 130 * (z / 3);
+	}
+
+	private static int expectedMode(final int x, final int y, final int z) {
+
+		final int[] counts = new int[65536];
+		for (int k = z; k < z + 2; k++)
+			for (int j = y; j < y + 2; j++)
+				for (int i = x; i < x + 2; i++)
+					counts[label(i, j, k)]++;
+
+		int mode = 0;
+		for (int v = 0; v < counts.length; v++)
+			if (counts[v] > counts[mode])
+				mode = v;
+
+		return mode;
+	}
+
+}
@@ -0,0 +1,116 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5Writer;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+public class MultiscaleVirtualStackTests {
+
+	private N5Writer n5;
+
+	private ArrayImg<UnsignedByteType, ByteArray> s1;
+
+	@Before
+	public void setUp() throws Exception {
+
+		n5 = tempN5Writer("n5-multiscale-stack-test-");
+
+		final ArrayImg<UnsignedByteType, ByteArray> s0 = ArrayImgs.unsignedBytes(32, 24, 4);
+		for (final UnsignedByteType t : s0)
+			t.set(1);
+
+		// values that identify the position in s1
+		s1 = ArrayImgs.unsignedBytes(16, 12, 2);
+		int v = 0;
+		for (final UnsignedByteType t : s1)
+			t.set(v++ % 251);
+
+		// an N5 Viewer pyramid
+		N5Utils.save(s0, n5, "pyramid/s0", new int[]{16, 16, 2}, new RawCompression());
+		N5Utils.save(s1, n5, "pyramid/s1", new int[]{16, 16, 2}, new RawCompression());
+		n5.setAttribute("pyramid/s1", "downsamplingFactors", new double[]{2, 2, 2});
+		N5Utils.save(ArrayImgs.unsignedBytes(8, 6, 1), n5, "single/s0", new int[]{8, 8, 1}, new RawCompression());
+
+		// datasets of a flat container that are not levels of a pyramid
+		N5Utils.save(ArrayImgs.unsignedBytes(8, 6, 2), n5, "flat/raw", new int[]{8, 8, 2}, new RawCompression());
+		N5Utils.save(ArrayImgs.unsignedBytes(4, 3, 2), n5, "flat/raw_crop", new int[]{8, 8, 2}, new RawCompression());
+	}
+
+	@After
+	public void tearDown() {
+
+		n5.remove();
+		n5.close();
+	}
+
+	@Test
+	public void testDiscoverLevels() {
+
+		final List<String> paths = new ArrayList<>();
+		final List<double[]> factors = new ArrayList<>();
+		MultiscaleVirtualStack.discoverLevels(n5, "/pyramid/s0", paths, factors);
+
+		assertEquals(Arrays.asList("pyramid/s0", "pyramid/s1"), paths);
+		assertArrayEquals(new double[]{1, 1, 1}, factors.get(0), 0);
+		assertArrayEquals(new double[]{2, 2, 2}, factors.get(1), 0);
+
+		assertNull(MultiscaleVirtualStack.open(n5, "single/s0"));
+		assertNull(MultiscaleVirtualStack.open(n5, "flat/raw"));
+	}
+
+	@Test
+	public void testSelectLevel() {
+
+		final List<double[]> factors = Arrays.asList(new double[]{1, 1}, new double[]{2, 2}, new double[]{4.1, 4.1});
+		assertEquals(0, MultiscaleVirtualStack.selectLevel(factors, 2.0));
+		assertEquals(0, MultiscaleVirtualStack.selectLevel(factors, 1.0));
+		assertEquals(1, MultiscaleVirtualStack.selectLevel(factors, 0.5));
+		assertEquals(1, MultiscaleVirtualStack.selectLevel(factors, 0.33));
+		assertEquals(2, MultiscaleVirtualStack.selectLevel(factors, 0.25));
+		assertEquals(2, MultiscaleVirtualStack.selectLevel(factors, 0.01));
+	}
+
+	@Test
+	public void testCoarsePlane() {
+
+		final MultiscaleVirtualStack<UnsignedByteType> stack = MultiscaleVirtualStack.open(n5, "pyramid/s0");
+		assertEquals(2, stack.getNumLevels());
+		assertEquals(4, stack.getSize());
+		assertEquals(8, stack.getBitDepth());
+
+		// not shown, so the finest level is used, and nothing is started
+		final ImagePlus imp = new ImagePlus("test", stack);
+		stack.attach(imp);
+		stack.start();
+		assertEquals(1, stack.getProcessor(1).get(5, 7));
+		assertNull(imp.getProperty(MultiscaleVirtualStack.DISPLAY_LEVEL_PROPERTY));
+
+		// slice 3 is in the second plane of s1, scaled to the size of s0
+		final ImageProcessor ip = stack.getProcessor(3, 1);
+		assertEquals(32, ip.getWidth());
+		assertEquals(24, ip.getHeight());
+		for (int y = 0; y < 24; y++)
+			for (int x = 0; x < 32; x++)
+				assertEquals(s1.getAt(x / 2, y / 2, 1).get(), ip.get(x, y));
+	}
+
+}
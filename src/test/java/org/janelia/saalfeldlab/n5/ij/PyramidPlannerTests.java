@@ -0,0 +1,91 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+
+public class PyramidPlannerTests {
+
+	private static final boolean[] XYZ = new boolean[]{true, true, true};
+
+	private static final long[] DIMS = new long[]{1000, 1000, 1000};
+
+	@Test
+	public void testUniform() {
+
+		final PyramidPlanner planner = PyramidPlanner.parse(null);
+		assertArrayEquals(new long[]{2, 2, 2}, planner.relativeFactors(1, XYZ, null, DIMS));
+
+		// non-spatial axes are not downsampled, and factors are clamped to the size
+		final long[] factors = PyramidPlanner.parse("3").relativeFactors(4, new boolean[]{true, true, false, true},
+				null, new long[]{100, 100, 3, 2});
+		assertArrayEquals(new long[]{3, 3, 1, 2}, factors);
+	}
+
+	@Test
+	public void testIsotropic() {
+
+		final PyramidPlanner planner = PyramidPlanner.parse(PyramidPlanner.ISOTROPIC);
+		final double[] resolution = new double[]{8, 8, 40};
+
+		final long[][] expected = new long[][]{{2, 2, 1}, {2, 2, 1}, {2, 2, 2}, {2, 2, 2}};
+		for (int l = 0; l < expected.length; l++) {
+			final long[] factors = planner.relativeFactors(l + 1, XYZ, resolution, DIMS);
+			assertArrayEquals("level " + (l + 1), expected[l], factors);
+			for (int i = 0; i < 3; i++)
+				resolution[i] *= factors[i];
+		}
+
+		// unknown resolutions are treated as isotropic
+		assertArrayEquals(new long[]{2, 2, 2}, planner.relativeFactors(1, XYZ, new double[]{0, 0, 0}, DIMS));
+	}
+
+	@Test
+	public void testSchedule() {
+
+		final PyramidPlanner planner = PyramidPlanner.parse("4,4,1; 2");
+		assertArrayEquals(new long[]{4, 4, 1}, planner.relativeFactors(1, XYZ, null, DIMS));
+		assertArrayEquals(new long[]{2, 2, 2}, planner.relativeFactors(2, XYZ, null, DIMS));
+		assertNull(planner.relativeFactors(3, XYZ, null, DIMS));
+
+		// no level without downsampling
+		assertNull(PyramidPlanner.parse("2").relativeFactors(1, XYZ, null, new long[]{1, 1, 1}));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalid() {
+
+		PyramidPlanner.parse("2,0");
+	}
+
+	@Test
+	public void testExport() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-pyramid-planner-test-") + "/test.n5";
+
+		final ImagePlus imp = NewImage.createImage("test", 100, 90, 40, 8, NewImage.FILL_NOISE);
+		final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+		writer.setOptions(imp, rootPath, "planned", N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+				N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+		writer.setDownsamplingFactors("3,3,1;4,4,2");
+		writer.run();
+
+		final N5Reader n5 = new N5FSReader(rootPath);
+		assertArrayEquals(new long[]{33, 30, 40}, n5.getDatasetAttributes("planned/c0/s1").getDimensions());
+		assertArrayEquals(new long[]{8, 7, 20}, n5.getDatasetAttributes("planned/c0/s2").getDimensions());
+		assertArrayEquals(new double[]{12, 12, 2}, n5.getAttribute("planned/c0/s2", "downsamplingFactors", double[].class), 0);
+		assertTrue(n5.datasetExists("planned/c0/s2"));
+		assertFalse(n5.exists("planned/c0/s3"));
+		n5.close();
+	}
+
+}
@@ -0,0 +1,109 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5Writer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.DoubleType;
+
+public class SharedBlockCacheTests {
+
+	private static final String DATASET = "ints";
+
+	private N5Writer n5;
+
+	private ArrayImg<IntType, IntArray> img;
+
+	@Before
+	public void setUp() throws Exception {
+
+		n5 = tempN5Writer("n5-block-cache-test-");
+
+		img = ArrayImgs.ints(19, 13, 7);
+		int v = 0;
+		for (final IntType t : img)
+			t.set(v++);
+
+		N5Utils.save(img, n5, DATASET, new int[]{8, 8, 4}, new RawCompression());
+	}
+
+	@After
+	public void tearDown() {
+
+		n5.remove();
+		n5.close();
+	}
+
+	@Test
+	public void testValues() {
+
+		final SharedBlockCache cache = new SharedBlockCache(1 << 20);
+		final RandomAccessibleInterval<IntType> cached = cache.open(n5, DATASET);
+		LoopBuilder.setImages(img, cached).forEachPixel((a, b) -> assertEquals(a.get(), b.get()));
+
+		// 3 * 2 * 2 blocks, each read once
+		assertEquals(12, cache.getMisses());
+		assertEquals(12, cache.getNumBlocks());
+		assertEquals(0, cache.getEvictions());
+		assertEquals(19 * 13 * 7 * 4, cache.getBytes());
+
+		// images share the blocks
+		LoopBuilder.setImages(img, cached).forEachPixel((a, b) -> assertEquals(a.get(), b.get()));
+		assertEquals(12, cache.getMisses());
+		assertTrue(cache.getHits() >= 12);
+	}
+
+	@Test
+	public void testRewrite() {
+
+		final SharedBlockCache cache = new SharedBlockCache(1 << 20);
+		final RandomAccessibleInterval<IntType> cached = cache.open(n5, DATASET);
+		LoopBuilder.setImages(img, cached).forEachPixel((a, b) -> assertEquals(a.get(), b.get()));
+
+		// overwrite the dataset with other values and another type
+		final ArrayImg<DoubleType, DoubleArray> doubles = ArrayImgs.doubles(19, 13, 7);
+		double v = 0;
+		for (final DoubleType t : doubles)
+			t.set(-(v++));
+
+		N5Utils.save(doubles, n5, DATASET, new int[]{8, 8, 4}, new RawCompression());
+
+		final RandomAccessibleInterval<DoubleType> reopened = cache.open(n5, DATASET);
+		LoopBuilder.setImages(doubles, reopened).forEachPixel((a, b) -> assertEquals(a.get(), b.get(), 0));
+		assertEquals(24, cache.getMisses());
+		assertEquals(12, cache.getNumBlocks());
+	}
+
+	@Test
+	public void testEviction() {
+
+		// room for two full blocks
+		final long blockBytes = 8 * 8 * 4 * 4;
+		final SharedBlockCache cache = new SharedBlockCache(2 * blockBytes);
+		final RandomAccessibleInterval<IntType> cached = cache.open(n5, DATASET);
+		LoopBuilder.setImages(img, cached).forEachPixel((a, b) -> assertEquals(a.get(), b.get()));
+
+		assertTrue(cache.getBytes() <= 2 * blockBytes);
+		assertTrue(cache.getEvictions() > 0);
+		assertEquals(cache.getMisses() - cache.getNumBlocks(), cache.getEvictions());
+
+		cache.setMaxBytes(0);
+		assertEquals(0, cache.getNumBlocks());
+		assertEquals(0, cache.getBytes());
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+public class SinglePassPyramidTests {
+
+	@Test
+	public void testSinglePassMatchesLevelByLevel() {
+
+		final ImagePlus imp = NewImage.createImage("test", 37, 29, 21, 16, NewImage.FILL_NOISE);
+		final String rootPath = tempN5PathName("n5-single-pass-test-") + "/test.n5";
+
+		for (final String method : new String[]{N5ScalePyramidExporter.DOWN_SAMPLE, N5ScalePyramidExporter.DOWN_AVERAGE}) {
+
+			final String levelByLevel = "/levelByLevel" + method;
+			final String singlePass = "/singlePass" + method;
+
+			final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+			writer.setOptions(imp, rootPath, levelByLevel, N5ScalePyramidExporter.AUTO_FORMAT, "8", true, method,
+					N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+			writer.run();
+
+			final N5ScalePyramidExporter singlePassWriter = new N5ScalePyramidExporter();
+			singlePassWriter.setOptions(imp, rootPath, singlePass, N5ScalePyramidExporter.AUTO_FORMAT, "8", true, method,
+					N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+			singlePassWriter.setSinglePassPyramid(true);
+			singlePassWriter.run();
+
+			final N5Reader n5 = new N5FSReader(rootPath);
+			final String[] levels = n5.list(levelByLevel + "/c0");
+			assertTrue("more than one scale level", levels.length > 1);
+			assertEquals("same number of levels", levels.length, n5.list(singlePass + "/c0").length);
+
+			for (final String level : levels) {
+
+				final String expectedPath = levelByLevel + "/c0/" + level;
+				final String actualPath = singlePass + "/c0/" + level;
+				assertArrayEquals(method + " " + level + " dimensions",
+						n5.getDatasetAttributes(expectedPath).getDimensions(),
+						n5.getDatasetAttributes(actualPath).getDimensions());
+
+				final RandomAccessibleInterval<UnsignedShortType> expected = N5Utils.open(n5, expectedPath);
+				final RandomAccessibleInterval<UnsignedShortType> actual = N5Utils.open(n5, actualPath);
+				final Cursor<UnsignedShortType> c = Views.flatIterable(expected).cursor();
+				final Cursor<UnsignedShortType> d = Views.flatIterable(actual).cursor();
+				while (c.hasNext())
+					assertEquals(method + " " + level + " values", c.next().get(), d.next().get());
+			}
+			n5.close();
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+
+public class VirtualStackExportTests {
+
+	private static final int W = 37;
+
+	private static final int H = 29;
+
+	private static final int D = 20;
+
+	/**
+	 * A virtual stack that computes its slices and counts how often each is
+	 * read.
+	 */
+	private static class CountingStack extends VirtualStack {
+
+		private final AtomicIntegerArray loads = new AtomicIntegerArray(D);
+
+		public CountingStack() {
+
+			super(W, H, null, null);
+			for (int z = 0; z < D; z++)
+				addSlice("slice" + z);
+		}
+
+		@Override
+		public ImageProcessor getProcessor(final int n) {
+
+			loads.incrementAndGet(n - 1);
+			final ByteProcessor ip = new ByteProcessor(W, H);
+			for (int y = 0; y < H; y++)
+				for (int x = 0; x < W; x++)
+					ip.set(x, y, expected(x, y, n - 1));
+
+			return ip;
+		}
+	}
+
+	private static int expected(final long x, final long y, final long z) {
+
+		return (int)((x + 3 * y + 7 * z) % 256);
+	}
+
+	@Test
+	public void testSlicesAreReadOnce() throws Exception {
+
+		final String rootPath = tempN5PathName("n5-virtual-export-test-") + "/test.n5";
+		final CountingStack stack = export(rootPath, 0);
+
+		final int[] ones = new int[D];
+		final int[] loads = new int[D];
+		for (int z = 0; z < D; z++) {
+			ones[z] = 1;
+			loads[z] = stack.loads.get(z);
+		}
+		assertArrayEquals(ones, loads);
+		assertExported(rootPath);
+	}
+
+	@Test
+	public void testBudgetSmallerThanSlab() throws Exception {
+
+		// two slabs of 8 slices need 16 * W * H bytes, the stack is read uncached
+		final String rootPath = tempN5PathName("n5-virtual-export-test-") + "/test.n5";
+		final CountingStack stack = export(rootPath, 4 * W * H);
+
+		for (int z = 0; z < D; z++)
+			assertTrue(stack.loads.get(z) >= 1);
+		assertExported(rootPath);
+	}
+
+	private static CountingStack export(final String rootPath, final long memory) {
+
+		final CountingStack stack = new CountingStack();
+		final ImagePlus imp = new ImagePlus("virtual", stack);
+		for (int z = 0; z < D; z++)
+			stack.loads.set(z, 0);
+
+		final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+		writer.setOptions(imp, rootPath, "virtual", N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+				N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+		writer.setNumThreads(4);
+		writer.setVirtualStackMemory(memory);
+		writer.run();
+
+		return stack;
+	}
+
+	private static void assertExported(final String rootPath) {
+
+		final N5Reader n5 = new N5FSReader(rootPath);
+		final RandomAccessibleInterval<UnsignedByteType> s0 = N5Utils.open(n5, "virtual/c0/s0");
+		assertArrayEquals(new long[]{W, H, D}, s0.dimensionsAsLongArray());
+
+		final Cursor<UnsignedByteType> c = Views.flatIterable(s0).localizingCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			assertEquals(expected(c.getLongPosition(0), c.getLongPosition(1), c.getLongPosition(2)), c.get().get());
+		}
+		n5.close();
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.janelia.saalfeldlab.n5.ij;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5Writer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.universe.N5DatasetDiscoverer;
+import org.janelia.saalfeldlab.n5.universe.N5TreeNode;
+import org.janelia.saalfeldlab.n5.universe.metadata.N5DatasetMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+public class VirtualStackPrefetcherTests {
+
+	private static final String DATASET = "bytes";
+
+	private N5Writer n5;
+
+	@Before
+	public void setUp() throws Exception {
+
+		n5 = tempN5Writer("n5-prefetch-test-");
+
+		// x, y, z, t
+		N5Utils.save(ArrayImgs.unsignedBytes(20, 10, 6, 3), n5, DATASET, new int[]{8, 8, 1, 1}, new RawCompression());
+	}
+
+	@After
+	public void tearDown() {
+
+		n5.remove();
+		n5.close();
+	}
+
+	private static ImagePlus hyperstack(final int nz, final int nt) {
+
+		final ImageStack stack = ImageStack.create(20, 10, nz * nt, 8);
+		final ImagePlus imp = new ImagePlus("test", stack);
+		imp.setDimensions(1, nz, nt);
+		return imp;
+	}
+
+	@Test
+	public void testNeighbors() {
+
+		final ImagePlus imp = hyperstack(6, 3);
+		final VirtualStackPrefetcher prefetcher = new VirtualStackPrefetcher(imp, ArrayImgs.unsignedBytes(20, 10, 6, 3), new long[]{1, 1});
+
+		// z 4 and 2, then z 5 and 1, then t 3 and 1
+		assertEquals(Arrays.asList(10, 8, 11, 7, 15, 3), prefetcher.neighbors(1, 3, 2));
+
+		// clamped at the first slice and the last frame
+		assertEquals(Arrays.asList(14, 15, 7), prefetcher.neighbors(1, 1, 3));
+	}
+
+	@Test
+	public void testPrefetchReadsEveryChunk() throws Exception {
+
+		final SharedBlockCache cache = new SharedBlockCache(1 << 20);
+		final RandomAccessibleInterval<UnsignedByteType> img = cache.open(n5, DATASET);
+		final VirtualStackPrefetcher prefetcher = new VirtualStackPrefetcher(hyperstack(6, 3), img, new long[]{8, 8});
+
+		final List<Future<?>> futures = prefetcher.prefetch(Arrays.asList(1, 8));
+		for (final Future<?> f : futures)
+			f.get();
+
+		// two planes of 3 x 2 chunks
+		assertEquals(12, cache.getMisses());
+		assertEquals(12, cache.getNumBlocks());
+	}
+
+	@Test
+	public void testStartedOnlyWhenShown() throws Exception {
+
+		final N5TreeNode root = N5DatasetDiscoverer.discover(n5);
+		final N5DatasetMetadata meta = (N5DatasetMetadata)root.getDescendant(DATASET).get().getMetadata();
+
+		final ExecutorService exec = Executors.newFixedThreadPool(1);
+		final ImagePlus imp = N5Importer.process(n5, n5.getURI().toString(), exec, Collections.singletonList(meta), true, false, null).get(0);
+		exec.shutdown();
+
+		// an image that is not shown is never closed, so nothing may listen to it
+		final Object prefetcher = imp.getProperty(VirtualStackPrefetcher.PROPERTY_KEY);
+		assertTrue(prefetcher instanceof VirtualStackPrefetcher);
+		assertFalse(listeners().contains(prefetcher));
+
+		VirtualStackPrefetcher.start(imp);
+		assertNull(imp.getProperty(VirtualStackPrefetcher.PROPERTY_KEY));
+		assertTrue(listeners().contains(prefetcher));
+
+		((VirtualStackPrefetcher)prefetcher).imageClosed(imp);
+		assertFalse(listeners().contains(prefetcher));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object> listeners() throws Exception {
+
+		final Field field = ImagePlus.class.getDeclaredField("listeners");
+		field.setAccessible(true);
+		return new ArrayList<>((Vector<Object>)field.get(null));
+	}
+
+}
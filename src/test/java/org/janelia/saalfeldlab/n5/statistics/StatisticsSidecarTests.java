@@ -0,0 +1,125 @@
+package org.janelia.saalfeldlab.n5.statistics;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.ij.N5Importer;
+import org.janelia.saalfeldlab.n5.ij.N5ScalePyramidExporter;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+
+public class StatisticsSidecarTests {
+
+	@Test
+	public void testMerge() {
+
+		final ChunkStatistics a = ChunkStatistics.of(DataType.UINT8, new byte[]{0, 10, (byte)255});
+		final ChunkStatistics b = ChunkStatistics.of(DataType.UINT8, new byte[]{20, 30});
+		a.merge(b);
+
+		assertEquals(0, a.getMin(), 0);
+		assertEquals(255, a.getMax(), 0);
+		assertEquals(315, a.getSum(), 0);
+		assertEquals(5, a.getCount());
+		assertEquals(ChunkStatistics.NUM_BINS, a.getHistogram().length);
+		assertEquals(3, a.getHistogram()[0]);
+		assertEquals(1, a.getHistogram()[ChunkStatistics.NUM_BINS - 1]);
+
+		final ChunkStatistics c = ChunkStatistics.fromArray(DataType.UINT8, a.toArray());
+		assertArrayEquals(a.toArray(), c.toArray(), 0);
+
+		// no histogram for wide types
+		assertEquals(0, ChunkStatistics.of(DataType.FLOAT32, new float[]{1.5f}).getHistogram().length);
+	}
+
+	@Test
+	public void testUnsignedLongs() {
+
+		// -1 is the largest uint64, 2^63 the smallest one that does not fit into a long
+		final ChunkStatistics stats = ChunkStatistics.of(DataType.UINT64, new long[]{3, -1, Long.MIN_VALUE});
+		assertEquals(3, stats.getMin(), 0);
+		assertEquals(Math.pow(2, 64), stats.getMax(), 0);
+		assertEquals(Math.pow(2, 63), ChunkStatistics.unsignedToDouble(Long.MIN_VALUE), 0);
+
+		final ChunkStatistics signed = ChunkStatistics.of(DataType.INT64, new long[]{3, -1, Long.MIN_VALUE});
+		assertEquals(-Math.pow(2, 63), signed.getMin(), 0);
+		assertEquals(3, signed.getMax(), 0);
+	}
+
+	@Test
+	public void testPercentile() {
+
+		// all values in the first of the 1024 wide bins of uint16
+		final short[] data = new short[200];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (short)(100 + i);
+
+		final ChunkStatistics stats = ChunkStatistics.of(DataType.UINT16, data);
+		assertEquals(295, stats.percentile(0.98), 1);
+		assertEquals(100, stats.percentile(0), 0);
+		assertEquals(299, stats.percentile(1), 0);
+	}
+
+	@Test
+	public void testExportWritesSidecar() {
+
+		final ImagePlus imp = NewImage.createImage("test", 37, 29, 11, 8, NewImage.FILL_NOISE);
+		final String rootPath = tempN5PathName("n5-statistics-test-") + "/test.n5";
+
+		for (final boolean singlePass : new boolean[]{false, true}) {
+
+			final String dataset = "/stats" + singlePass;
+			final N5ScalePyramidExporter writer = new N5ScalePyramidExporter();
+			writer.setOptions(imp, rootPath, dataset, N5ScalePyramidExporter.AUTO_FORMAT, "8", true,
+					N5ScalePyramidExporter.DOWN_AVERAGE, N5Importer.MetadataN5ViewerKey, N5ScalePyramidExporter.RAW_COMPRESSION);
+			writer.setSinglePassPyramid(singlePass);
+			writer.setWriteStatistics(true);
+			writer.run();
+
+			final N5Reader n5 = new N5FSReader(rootPath);
+			for (final String level : new String[]{"s0", "s1"}) {
+
+				final String path = dataset + "/c0/" + level;
+				final ChunkStatistics total = StatisticsSidecar.readTotal(n5, path, DataType.UINT8);
+				assertNotNull(path + " sidecar", total);
+
+				// compare with the values that were written
+				final RandomAccessibleInterval<UnsignedByteType> img = N5Utils.open(n5, path);
+				double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum = 0;
+				for (final UnsignedByteType t : Views.flatIterable(img)) {
+					min = Math.min(min, t.get());
+					max = Math.max(max, t.get());
+					sum += t.get();
+				}
+				assertEquals(path + " count", img.size(), total.getCount());
+				assertEquals(path + " min", min, total.getMin(), 0);
+				assertEquals(path + " max", max, total.getMax(), 0);
+				assertEquals(path + " sum", sum, total.getSum(), 0);
+
+				final DatasetAttributes attrs = n5.getDatasetAttributes(ValueRanges.sidecarPath(path));
+				assertEquals(path + " sidecar fields", ChunkStatistics.NUM_FIELDS + ChunkStatistics.NUM_BINS, attrs.getDimensions()[0]);
+				assertEquals(path + " sidecar grid", (img.dimension(0) + 7) / 8, attrs.getDimensions()[1]);
+				assertTrue(path + " sidecar hidden", ValueRanges.isSidecarPath(ValueRanges.sidecarPath(path)));
+			}
+
+			// the sidecars are not next to the levels
+			for (final String name : n5.list(dataset + "/c0"))
+				assertTrue(name, name.matches("s[0-9]+"));
+			n5.close();
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+package org.janelia.saalfeldlab.n5.statistics;
+
+import static org.janelia.saalfeldlab.n5.N5TestUtils.tempN5PathName;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.ij.N5Importer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.numeric.integer.LongType;
+
+public class ValueRangesTests {
+
+	private static final String DATASET = "longs";
+
+	private String rootPath;
+
+	private N5Writer n5;
+
+	@Before
+	public void setUp() throws Exception {
+
+		rootPath = tempN5PathName("n5-value-range-test-") + "/test.n5";
+		n5 = new N5FSWriter(rootPath);
+
+		// values increase with the flat index, from -1000 to 31767
+		final ArrayImg<LongType, LongArray> img = ArrayImgs.longs(32, 32, 32);
+		long v = -1000;
+		for (final LongType t : img)
+			t.set(v++);
+
+		N5Utils.save(img, n5, DATASET, new int[]{8, 8, 8}, new RawCompression());
+	}
+
+	@After
+	public void tearDown() {
+
+		n5.remove();
+		n5.close();
+	}
+
+	@Test
+	public void testFullScan() {
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		final ValueRange range = ValueRanges.fullScan(exec).getValueRange(n5, DATASET);
+		exec.shutdown();
+
+		assertTrue(range.isExact());
+		assertEquals(-1000, range.getMin(), 0);
+		assertEquals(31767, range.getMax(), 0);
+	}
+
+	@Test
+	public void testSampled() {
+
+		// the first and last chunks are always sampled
+		final ValueRange range = ValueRanges.sampled(4).getValueRange(n5, DATASET);
+		assertFalse(range.isExact());
+		assertEquals(-1000, range.getMin(), 0);
+		assertEquals(31767, range.getMax(), 0);
+	}
+
+	@Test
+	public void testAttributesAndSidecar() {
+
+		assertNull(ValueRanges.attributes().getValueRange(n5, DATASET));
+		assertNull(ValueRanges.sidecar().getValueRange(n5, DATASET));
+
+		final String sidecar = ValueRanges.sidecarPath(DATASET);
+		n5.createDataset(sidecar, new long[]{1}, new int[]{1}, DataType.FLOAT64, new RawCompression());
+		n5.setAttribute(sidecar, ValueRanges.MIN_KEY, -5);
+		n5.setAttribute(sidecar, ValueRanges.MAX_KEY, 5);
+
+		ValueRange range = ValueRanges.defaultProvider().getValueRange(n5, DATASET);
+		assertTrue(range.isExact());
+		assertEquals(-5, range.getMin(), 0);
+		assertEquals(5, range.getMax(), 0);
+
+		// attributes on the dataset take precedence over the sidecar
+		n5.setAttribute(DATASET, ValueRanges.MIN_KEY, 0);
+		n5.setAttribute(DATASET, ValueRanges.MAX_KEY, 100);
+
+		range = ValueRanges.defaultProvider().getValueRange(n5, DATASET);
+		assertEquals(0, range.getMin(), 0);
+		assertEquals(100, range.getMax(), 0);
+	}
+
+	@Test
+	public void testEstimatedRangeKeepsLUT() {
+
+		// no range is stored, and sampling would miss the outlier
+		assertNull(ValueRanges.defaultProvider().getValueRange(n5, DATASET));
+
+		final ArrayImg<LongType, LongArray> img = ArrayImgs.longs(32, 32, 32);
+		long v = -1000;
+		for (final LongType t : img)
+			t.set(v++);
+
+		img.getAt(16, 8, 0).set(1000000);
+		N5Utils.save(img, n5, DATASET, new int[]{8, 8, 8}, new RawCompression());
+		assertTrue(ValueRanges.sampled(4).getValueRange(n5, DATASET).getMax() < 1000000);
+
+		final N5Importer importer = new N5Importer();
+		importer.setShow(false);
+		importer.setValueRangeProvider(ValueRanges.sampled(4));
+		ImagePlus imp = importer.process(rootPath + "/" + DATASET, true).get(0);
+
+		// a linear map over the estimate would clamp both to the same value
+		ImageStack stack = imp.getStack();
+		assertTrue(stack.getProcessor(1).get(16, 8) > stack.getProcessor(32).get(31, 31));
+
+		// unless the sampled range is explicitly requested
+		assertTrue(ValueRanges.sampledFallback().getValueRange(n5, DATASET).isExact());
+		importer.setValueRangeProvider(ValueRanges.sampledFallback());
+		imp = importer.process(rootPath + "/" + DATASET, true).get(0);
+		stack = imp.getStack();
+		assertEquals(32767, stack.getProcessor(32).get(31, 31));
+		assertEquals(65535, stack.getProcessor(1).get(16, 8));
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.janelia.saalfeldlab.n5.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Comparator;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.DefaultTreeModel;
+
+import org.junit.Test;
+
+public class N5SwingTreeNodeTests {
+
+	@Test
+	public void testAddPathWithRegexCharacters() {
+
+		final N5SwingTreeNode root = new N5SwingTreeNode("");
+		final N5SwingTreeNode group = root.addPath("a+b/(c)");
+		assertEquals("a+b/(c)", group.getPath());
+
+		final N5SwingTreeNode dataset = group.addPath("a+b/(c)/d.*");
+		assertEquals("a+b/(c)/d.*", dataset.getPath());
+		assertSame(dataset, root.addPath("/a+b/(c)/d.*"));
+		assertEquals(1, root.getChildCount());
+		assertNull(group.addPath("x"));
+	}
+
+	@Test
+	public void testAddPaths() {
+
+		final int n = 100000;
+		final String[] paths = new String[n + 1];
+		paths[0] = "group";
+		for (int i = 0; i < n; i++)
+			paths[i + 1] = "group/" + (n - 1 - i);
+
+		final DefaultTreeModel treeModel = new DefaultTreeModel(null);
+		final N5SwingTreeNode root = new N5SwingTreeNode("root", treeModel);
+		treeModel.setRoot(root);
+
+		final int[] events = new int[4];
+		treeModel.addTreeModelListener(new TreeModelListener() {
+
+			@Override
+			public void treeNodesChanged(final TreeModelEvent e) {
+				events[0]++;
+			}
+
+			@Override
+			public void treeNodesInserted(final TreeModelEvent e) {
+				events[1]++;
+			}
+
+			@Override
+			public void treeNodesRemoved(final TreeModelEvent e) {
+				events[2]++;
+			}
+
+			@Override
+			public void treeStructureChanged(final TreeModelEvent e) {
+				events[3]++;
+			}
+		});
+
+		root.addPaths(paths, Comparator.comparing(Integer::valueOf));
+		assertEquals(0, events[0] + events[1] + events[2]);
+		assertEquals(1, events[3]);
+
+		final N5SwingTreeNode group = root.getChild("group");
+		assertNotNull(group);
+		assertEquals(n, group.getChildCount());
+		for (int i = 0; i < n; i += 997)
+			assertEquals("root/group/" + i, ((N5SwingTreeNode)group.getChildAt(i)).getPath());
+
+		// existing nodes are found by name, new ones are inserted
+		assertSame(group.getChildAt(5), root.addPath("root/group/5"));
+		assertEquals("root/group/new", root.addPath("root/group/new").getPath());
+		assertEquals(n + 1, group.getChildCount());
+		assertEquals(1, events[1]);
+
+		group.remove(0);
+		assertNull(group.getChild("0"));
+		assertNotNull(group.getChild("1"));
+	}
+
+}